@@ -0,0 +1,46 @@
+package code;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generates the inputs used by the benchmarks. Inputs are generated from a fixed seed,
+ * so every run of a benchmark measures the same work.
+ */
+class BenchmarkInputs {
+	
+	static final long SEED = 42;
+	
+	/**
+	 * Writes a valid configuration with a given number of waypoints and moving objects to a new temporary directory.
+	 * Every moving object travels between three waypoints, and every loop contains a mask followed by independent queries.
+	 * @param objects : The number of waypoints, which is also the number of moving objects.
+	 * @return : The configuration directory.
+	 * @throws IOException : If the configuration cannot be written.
+	 */
+	static File writeConfig(int objects) throws IOException {
+		File directory = Files.createTempDirectory("tracker-benchmark").toFile();
+		ConfigGenerator.Parameters parameters = new ConfigGenerator.Parameters();
+		parameters.seed = SEED;
+		parameters.waypoints = objects;
+		parameters.movers = objects;
+		parameters.queriesPerLoop = Math.max(1, objects/100);
+		ConfigGenerator.generate(directory, parameters);
+		return directory;
+	}
+	
+	/**
+	 * Deletes a directory and everything in it.
+	 */
+	static void delete(File directory) throws IOException {
+		if (directory != null) {
+			try (Stream<Path> paths = Files.walk(directory.toPath())) {
+				paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package code;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import code.ExperimentModel.MovingObject;
+import code.ExperimentModel.WaypointObject;
+
+/**
+ * Measures importing and validating generated configurations of several sizes,
+ * and the duplicate checks which are made for every waypoint and moving object as it is imported.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dprism.order=sw")
+public class ConfigImportBenchmark {
+	
+	@Param({"100", "1000", "10000"})
+	public int objects;
+	
+	private File directory;
+	private ExperimentModel model;
+	/* Objects which are not yet part of the model, so the duplicate checks compare them with every object */
+	private WaypointObject newWaypoint;
+	private MovingObject newObject;
+	
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		directory = BenchmarkInputs.writeConfig(objects);
+		ConfigImporter importer = new ConfigImporter(directory);
+		model = importer.run();
+		if (!importer.errors.isEmpty()) {
+			throw new IllegalStateException("Generated configuration is not valid: " + importer.errors.get(0));
+		}
+		newWaypoint = new WaypointObject();
+		newWaypoint.x = -1;
+		newWaypoint.y = -1;
+		MovingObject existing = model.objectsById.get(objects-1);
+		newObject = new MovingObject();
+		newObject.speeds = existing.speeds.clone();
+		newObject.pathPoints.addAll(existing.pathPoints);
+		newObject.pathPoints.set(newObject.pathPoints.size()-1, newWaypoint);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		BenchmarkInputs.delete(directory);
+	}
+	
+	/**
+	 * Reads, parses and validates a configuration and builds its model.
+	 */
+	@Benchmark
+	public ExperimentModel importConfiguration() throws IOException {
+		return new ConfigImporter(directory).run();
+	}
+	
+	/**
+	 * Checks a new waypoint against every waypoint of the model.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public boolean waypointAlreadyExists() {
+		return newWaypoint.alreadyExists(model);
+	}
+	
+	/**
+	 * Checks a new moving object against every moving object of the model.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public boolean movingObjectAlreadyExists() {
+		return newObject.alreadyExists(model);
+	}
+}
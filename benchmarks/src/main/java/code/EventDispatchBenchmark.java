@@ -0,0 +1,74 @@
+package code;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures dispatching a chain of scheduled events, in which each event is shown, removed when its
+ * duration ends and then executes the next event, as the events of a loop are. The events have no delay
+ * or duration and nothing is drawn, so only the cost of scheduling is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dprism.order=sw")
+public class EventDispatchBenchmark {
+	
+	@Param({"10", "1000"})
+	public int events;
+	
+	private ChainedEvent first;
+	private ChainedEvent last;
+	
+	/**
+	 * An event which shows nothing; the last event of the chain signals when it has been shown.
+	 */
+	private static class ChainedEvent extends SchedulableEvent {
+		CountDownLatch shown;
+		
+		ChainedEvent() {
+			scheduledTermination = true;
+		}
+		
+		@Override
+		public void show() {
+			if (shown != null) {
+				shown.countDown();
+			}
+		}
+	}
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		SessionLog.current.recording = false;
+		TrackingActivity.loop = 0;
+		first = new ChainedEvent();
+		last = first;
+		for (int i=1; i<events; i++) {
+			last.next = new ChainedEvent();
+			last = (ChainedEvent)last.next;
+		}
+	}
+	
+	@Benchmark
+	public void dispatchChain() throws InterruptedException {
+		last.shown = new CountDownLatch(1);
+		first.execute();
+		last.shown.await();
+	}
+}
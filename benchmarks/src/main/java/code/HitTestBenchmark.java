@@ -0,0 +1,93 @@
+package code;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import code.ExperimentModel.TextObject;
+
+/**
+ * Measures the hit-testing of FindQuery clicks: rebuilding the spatial index from the objects' positions,
+ * which is done once per frame, and finding the objects within the click radius of a click.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dprism.order=sw")
+public class HitTestBenchmark {
+	
+	private static final double SCREEN_SIZE = 1000; // Pixels
+	private static final int CLICKS = 1024;
+	
+	@Param({"100", "1000", "10000"})
+	public int objects;
+	
+	/* Percentage of the map area covered by the click radius, as in a configuration */
+	@Param({"1", "5"})
+	public double clickRadius;
+	
+	private SpatialIndex index;
+	private double radius;
+	private double[] clickX = new double[CLICKS], clickY = new double[CLICKS];
+	private int next = 0;
+	
+	/**
+	 * An object at a fixed position, which is not drawn.
+	 */
+	private static class PlacedObject extends GraphicalObject {
+		PlacedObject(TextObject icon) {
+			super(icon);
+		}
+	}
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		TrackingActivity.model = new ExperimentModel();
+		TrackingActivity.model.x = 100;
+		TrackingActivity.model.y = 100;
+		TrackingActivity.model.clickRadius = clickRadius;
+		TrackingActivity.mapWidth = SCREEN_SIZE;
+		TrackingActivity.mapHeight = SCREEN_SIZE;
+		radius = TrackingActivity.getClickRadius();
+		index = new SpatialIndex(SCREEN_SIZE, SCREEN_SIZE, radius);
+		Random random = new Random(BenchmarkInputs.SEED);
+		for (int i=0; i<objects; i++) {
+			/* An icon with no value and which is not a waypoint has no visual element */
+			TextObject icon = new TextObject() {};
+			icon.x = random.nextFloat()*100;
+			icon.y = random.nextFloat()*100;
+			index.add(new PlacedObject(icon));
+		}
+		index.refresh();
+		for (int i=0; i<CLICKS; i++) {
+			clickX[i] = random.nextDouble()*SCREEN_SIZE;
+			clickY[i] = random.nextDouble()*SCREEN_SIZE;
+		}
+	}
+	
+	@Benchmark
+	public void refreshIndex() {
+		index.refresh();
+	}
+	
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public int findHitObjects() {
+		int click = next++ & (CLICKS-1);
+		return index.query(clickX[click], clickY[click], radius);
+	}
+}
@@ -0,0 +1,44 @@
+package code;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing the time values of mask and query lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseTimeBenchmark {
+	
+	private static final String[] TIMES = {"00:00:05:000", "00:01:30:250", "01:59:59:999", "00:00:00:001"};
+	
+	private ConfigImporter importer = new ConfigImporter(null);
+	private int next = 0;
+	
+	@Benchmark
+	public double parseTime() {
+		return importer.parseTime(TIMES[next++ & 3]);
+	}
+	
+	/**
+	 * Parses a time which is not valid, which also records an error.
+	 */
+	@Benchmark
+	public double parseInvalidTime() {
+		importer.errors.clear();
+		return importer.parseTime("00:00:x5:000");
+	}
+}
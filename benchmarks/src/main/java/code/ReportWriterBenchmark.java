@@ -0,0 +1,85 @@
+package code;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import code.ExperimentModel.FindQuery;
+import code.ExperimentModel.ScreenMaskEvent;
+
+/**
+ * Measures reporting a batch of typical events and waiting for the report writer thread to format them
+ * into the report. The session log is turned off so that only the report is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportWriterBenchmark {
+	
+	@Param({"100", "10000"})
+	public int events;
+	
+	private FindQuery query;
+	private ScreenMaskEvent mask;
+	private String[] labels = new String[64];
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		ReportWriter.setSession("Benchmark", "0");
+		SessionLog.current.recording = false;
+		query = new FindQuery();
+		query.text = "Find the object";
+		query.respond(12.345f, 67.891f, 1500);
+		mask = new ScreenMaskEvent();
+		mask.image = new java.io.File("mask.png");
+		for (int i=0; i<labels.length; i++) {
+			labels[i] = "AA" + i;
+		}
+	}
+	
+	@Benchmark
+	public void reportEvents() {
+		ReportWriter.reset();
+		for (int i=0; i<events; i++) {
+			switch (i & 7) {
+				case 0:
+					ReportWriter.reportQuery(query, true);
+					break;
+				case 1:
+					ReportWriter.reportClick(query);
+					break;
+				case 2:
+				case 3:
+					ReportWriter.reportObjectHit(labels[i & 63], i*0.001);
+					break;
+				case 4:
+					ReportWriter.reportIdentityViewed(labels[i & 63]);
+					break;
+				case 5:
+					ReportWriter.reportConflict(labels[i & 63], labels[(i+1) & 63], true, 0.75);
+					break;
+				case 6:
+					ReportWriter.reportMask(mask, true);
+					break;
+				default:
+					ReportWriter.reportQuery(query, false);
+					break;
+			}
+		}
+		ReportWriter.drain();
+	}
+}
@@ -0,0 +1,413 @@
+package code;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Computes metrics from an archive of results files and merges them into one table, with a row for each
+ * participant in each experiment (condition) and a row for each condition as a whole.
+ * Files are analyzed in parallel on all processor cores. Each file is memory-mapped and scanned once
+ * without being decoded into strings, so archives of many thousands of files can be processed quickly.
+ * Run this class with the path of a directory containing results files, which may be in subdirectories,
+ * optionally followed by the path of the table to write and the number of threads to use.
+ */
+public class BatchAnalysis {
+	
+	private static final String[] QUERY_KINDS = {"Click Query", "Text Query", "Yes/No Query"};
+	private static final String ALL_PARTICIPANTS = "All";
+	/* Results files are named month-day-year-experiment-participant.csv */
+	private static final Pattern REPORT_NAME = Pattern.compile("\\d{1,2}-\\d{1,2}-\\d{4}-(.+)-([^-]+)\\.csv");
+	/* Files written alongside results files, or by the tools which export and replay them, some of which have the same header */
+	private static final String[] OTHER_FILE_SUFFIXES = {"-summary.csv", "-trajectory.csv", "-mouse.csv", "-replay.csv", "-export.csv"};
+	
+	/* The first line of a results file, and the text at the start of each kind of line, as written by the ReportWriter */
+	private static final byte[] HEADER = bytes("Time (all events), Event Type (all events)");
+	private static final byte[] QUERY_APPEARANCE = bytes(" Appearance");
+	private static final byte[][] QUERY_PREFIXES = {bytes("Click Query"), bytes("Text Query"), bytes("Yes/No Query")};
+	private static final byte[][] RESPONSE_PREFIXES = {bytes("Click,"), bytes("Text Entry"), bytes("Yes/No Response")};
+	private static final byte[] OBJECT_HIT = bytes("Object Hit");
+	private static final byte[] IDENTITY_VIEWED = bytes("Object Identity Viewed");
+	private static final byte[] CONFLICT_START = bytes("Conflict Start");
+	
+	/**
+	 * The running count, mean, variance and extremes of a series of values, which can be merged with
+	 * those of another series.
+	 */
+	static class Moments {
+		
+		long count = 0;
+		double mean = 0, sumOfSquares = 0;
+		double min = Double.NaN, max = Double.NaN;
+		
+		/**
+		 * Adds a value to the series.
+		 */
+		void add(double value) {
+			count++;
+			double delta = value-mean;
+			mean += delta/count;
+			sumOfSquares += delta*(value-mean);
+			min = count == 1 ? value : Math.min(min, value);
+			max = count == 1 ? value : Math.max(max, value);
+		}
+		
+		/**
+		 * Adds the values of another series to this one.
+		 */
+		void merge(Moments other) {
+			if (other.count == 0) {
+				return;
+			}
+			if (count == 0) {
+				min = other.min;
+				max = other.max;
+			} else {
+				min = Math.min(min, other.min);
+				max = Math.max(max, other.max);
+			}
+			long total = count+other.count;
+			double delta = other.mean-mean;
+			sumOfSquares += other.sumOfSquares + delta*delta*((double)count*other.count/total);
+			mean += delta*other.count/total;
+			count = total;
+		}
+		
+		/**
+		 * Returns the sample standard deviation of the series.
+		 */
+		double standardDeviation() {
+			return count > 1 ? Math.sqrt(sumOfSquares/(count-1)) : 0;
+		}
+	}
+	
+	/**
+	 * The metrics of one or more results files.
+	 */
+	static class Metrics {
+		
+		int sessions = 0;
+		int[] queries = new int[QUERY_KINDS.length];
+		Moments responseTimes = new Moments(); // Milliseconds
+		Moments[] responseTimesByKind = {new Moments(), new Moments(), new Moments()};
+		int clicks = 0, clicksWithHits = 0, hits = 0;
+		Moments hitDistances = new Moments(); // Nautical miles
+		int identityViews = 0;
+		int conflicts = 0;
+		
+		/**
+		 * Adds the metrics of other results files to these metrics.
+		 * @return : These metrics.
+		 */
+		Metrics merge(Metrics other) {
+			sessions += other.sessions;
+			for (int kind=0; kind<QUERY_KINDS.length; kind++) {
+				queries[kind] += other.queries[kind];
+				responseTimesByKind[kind].merge(other.responseTimesByKind[kind]);
+			}
+			responseTimes.merge(other.responseTimes);
+			clicks += other.clicks;
+			clicksWithHits += other.clicksWithHits;
+			hits += other.hits;
+			hitDistances.merge(other.hitDistances);
+			identityViews += other.identityViews;
+			conflicts += other.conflicts;
+			return this;
+		}
+	}
+	
+	/**
+	 * Analyzes every results file in a directory tree and writes the merged metrics to a table.
+	 * @param directory : The directory containing the results files.
+	 * @param output : The file to write the table to.
+	 * @param threads : The number of threads to analyze files with.
+	 * @return : The number of results files analyzed.
+	 * @throws IOException : If the directory cannot be read or the table cannot be written.
+	 */
+	public static int analyze(Path directory, File output, int threads) throws IOException {
+		List<Path> files;
+		try (Stream<Path> paths = Files.walk(directory)) {
+			files = paths.filter(p -> isResultsFileName(p.getFileName().toString()) && Files.isRegularFile(p))
+					.collect(Collectors.toList());
+		}
+		/* Metrics are keyed by condition, then participant; each thread merges into its own maps before they are combined */
+		TreeMap<String, TreeMap<String, Metrics>> groups;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			groups = pool.submit(() -> files.parallelStream()
+					.map(BatchAnalysis::analyzeFile)
+					.filter(metrics -> metrics != null)
+					.collect(Collectors.groupingBy(entry -> entry.getKey()[0], TreeMap::new,
+							Collectors.toMap(entry -> entry.getKey()[1], entry -> entry.getValue(), Metrics::merge, TreeMap::new))))
+					.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException("Analysis failed", e);
+		} finally {
+			pool.shutdown();
+		}
+		int sessions = 0;
+		try (PrintWriter writer = new PrintWriter(output, "UTF-8")) {
+			writer.print("Condition,Participant,Sessions,Queries,Answered Queries,Response Time Mean (milliseconds),Response Time SD (milliseconds),"
+					+ "Response Time Min (milliseconds),Response Time Max (milliseconds)");
+			for (String kind : QUERY_KINDS) {
+				writer.print("," + kind + " Response Time Mean (milliseconds)");
+			}
+			writer.println(",Clicks,Clicks With Hits,Hit Rate,Object Hits,Hit Distance Mean (nautical miles),Identity Views,Conflicts");
+			for (Map.Entry<String, TreeMap<String, Metrics>> condition : groups.entrySet()) {
+				Metrics total = new Metrics();
+				for (Map.Entry<String, Metrics> participant : condition.getValue().entrySet()) {
+					writeRow(writer, condition.getKey(), participant.getKey(), participant.getValue());
+					total.merge(participant.getValue());
+				}
+				writeRow(writer, condition.getKey(), ALL_PARTICIPANTS, total);
+				sessions += total.sessions;
+			}
+		}
+		return sessions;
+	}
+	
+	/**
+	 * Determines whether a file may be a results file from its name: a CSV file which was not written alongside
+	 * a results file or by one of the tools.
+	 */
+	private static boolean isResultsFileName(String name) {
+		if (!name.endsWith(".csv")) {
+			return false;
+		}
+		for (String suffix : OTHER_FILE_SUFFIXES) {
+			if (name.endsWith(suffix)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes a row of the table.
+	 */
+	private static void writeRow(PrintWriter writer, String condition, String participant, Metrics metrics) {
+		int queries = 0;
+		for (int count : metrics.queries) {
+			queries += count;
+		}
+		StringBuilder row = new StringBuilder()
+				.append(condition.replaceAll(",", "")).append(",")
+				.append(participant.replaceAll(",", "")).append(",")
+				.append(metrics.sessions).append(",")
+				.append(queries).append(",")
+				.append(metrics.responseTimes.count).append(",")
+				.append(decimal(metrics.responseTimes.count, metrics.responseTimes.mean)).append(",")
+				.append(decimal(metrics.responseTimes.count, metrics.responseTimes.standardDeviation())).append(",")
+				.append(decimal(metrics.responseTimes.count, metrics.responseTimes.min)).append(",")
+				.append(decimal(metrics.responseTimes.count, metrics.responseTimes.max));
+		for (Moments kind : metrics.responseTimesByKind) {
+			row.append(",").append(decimal(kind.count, kind.mean));
+		}
+		row.append(",").append(metrics.clicks)
+				.append(",").append(metrics.clicksWithHits)
+				.append(",").append(decimal(metrics.clicks, (double)metrics.clicksWithHits/metrics.clicks))
+				.append(",").append(metrics.hits)
+				.append(",").append(decimal(metrics.hitDistances.count, metrics.hitDistances.mean))
+				.append(",").append(metrics.identityViews)
+				.append(",").append(metrics.conflicts);
+		writer.println(row);
+	}
+	
+	/**
+	 * Formats a number to 3 decimal places, or returns an empty string if it was computed from no values.
+	 */
+	private static String decimal(long count, double value) {
+		return count > 0 ? String.format(Locale.ROOT, "%2.3f", value) : "";
+	}
+	
+	/**
+	 * Computes the metrics of one results file.
+	 * @param path : The path of the results file.
+	 * @return : The condition and participant of the file, paired with its metrics, or null if it is not a results file.
+	 */
+	private static Map.Entry<String[], Metrics> analyzeFile(Path path) {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				System.err.println(path + " is too large to analyze");
+				return null;
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			/* The whole first line must be the header of a results file */
+			if (!startsWith(buffer, 0, HEADER) || (buffer.limit() > HEADER.length && buffer.get(HEADER.length) != '\r' && buffer.get(HEADER.length) != '\n')) {
+				return null;
+			}
+			Metrics metrics = new Metrics();
+			metrics.sessions = 1;
+			long[] queryShownTimes = {-1, -1, -1};
+			int hitsForLastClick = 0;
+			int limit = buffer.limit();
+			for (int start=0, end; start<limit; start=end+1) {
+				end = start;
+				while (end < limit && buffer.get(end) != '\n') {
+					end++;
+				}
+				/* Header lines do not begin with a time */
+				byte first = buffer.get(start);
+				if (first < '0' || first > '9') {
+					continue;
+				}
+				int event = start;
+				while (event < end && buffer.get(event) != ',') {
+					event++;
+				}
+				event++;
+				if (event >= end) {
+					continue;
+				}
+				long time = parseTime(buffer, start, event-1);
+				for (int kind=0; kind<QUERY_KINDS.length; kind++) {
+					if (startsWith(buffer, event, QUERY_PREFIXES[kind])) {
+						if (startsWith(buffer, event+QUERY_PREFIXES[kind].length, QUERY_APPEARANCE)) {
+							metrics.queries[kind]++;
+							queryShownTimes[kind] = time;
+						} else {
+							queryShownTimes[kind] = -1;
+						}
+					} else if (startsWith(buffer, event, RESPONSE_PREFIXES[kind])) {
+						if (kind == 0) {
+							if (hitsForLastClick > 0) {
+								metrics.clicksWithHits++;
+							}
+							hitsForLastClick = 0;
+							metrics.clicks++;
+						}
+						if (queryShownTimes[kind] >= 0) {
+							double responseTime = (time-queryShownTimes[kind])/1000000.0;
+							metrics.responseTimes.add(responseTime);
+							metrics.responseTimesByKind[kind].add(responseTime);
+							queryShownTimes[kind] = -1;
+						}
+					}
+				}
+				if (startsWith(buffer, event, OBJECT_HIT)) {
+					hitsForLastClick++;
+					metrics.hits++;
+					/* The distance is the last value on the line */
+					int distance = end;
+					while (buffer.get(distance-1) != ',') {
+						distance--;
+					}
+					metrics.hitDistances.add(Double.parseDouble(new String(ascii(buffer, distance, end), StandardCharsets.US_ASCII).trim()));
+				} else if (startsWith(buffer, event, IDENTITY_VIEWED)) {
+					metrics.identityViews++;
+				} else if (startsWith(buffer, event, CONFLICT_START)) {
+					metrics.conflicts++;
+				}
+			}
+			if (hitsForLastClick > 0) {
+				metrics.clicksWithHits++;
+			}
+			return new AbstractMap.SimpleImmutableEntry<>(getGroup(path), metrics);
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Could not analyze " + path + ": " + e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the condition and participant of a results file. Results files are named
+	 * month-day-year-experiment-participant.csv; files which have been renamed are grouped by their directory.
+	 */
+	private static String[] getGroup(Path path) {
+		String name = path.getFileName().toString();
+		Matcher matcher = REPORT_NAME.matcher(name);
+		if (matcher.matches()) {
+			return new String[] {matcher.group(1), matcher.group(2)};
+		}
+		Path parent = path.getParent();
+		return new String[] {parent == null ? "" : parent.getFileName().toString(), name.replaceAll("\\.csv$", "")};
+	}
+	
+	/**
+	 * Parses a report time of the form hours:minutes:seconds:milliseconds, optionally followed by .microseconds.
+	 * @return : The time in nanoseconds.
+	 */
+	private static long parseTime(MappedByteBuffer buffer, int start, int end) {
+		long[] units = {3600000000000L, 60000000000L, 1000000000L, 1000000L, 1000L};
+		long time = 0, value = 0;
+		int field = 0;
+		for (int i=start; i<end && field<units.length; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				value = value*10 + (b-'0');
+			} else {
+				time += value*units[field++];
+				value = 0;
+			}
+		}
+		if (field < units.length) {
+			time += value*units[field];
+		}
+		return time;
+	}
+	
+	/**
+	 * Returns true if the bytes at the given position of a buffer match a prefix.
+	 */
+	private static boolean startsWith(MappedByteBuffer buffer, int position, byte[] prefix) {
+		if (position+prefix.length > buffer.limit()) {
+			return false;
+		}
+		for (int i=0; i<prefix.length; i++) {
+			if (buffer.get(position+i) != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Copies a range of a buffer.
+	 */
+	private static byte[] ascii(MappedByteBuffer buffer, int start, int end) {
+		byte[] bytes = new byte[end-start];
+		for (int i=start; i<end; i++) {
+			bytes[i-start] = buffer.get(i);
+		}
+		return bytes;
+	}
+	
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	/**
+	 * Analyzes an archive of results files.
+	 * @param args : The path of the archive directory, optionally followed by the path of the table to write and the number of threads.
+	 * @throws IOException : If the archive cannot be read or the table cannot be written.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: BatchAnalysis <results directory> [table file] [threads]");
+			return;
+		}
+		File output = new File(args.length > 1 ? args[1] : "analysis.csv");
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		long start = System.nanoTime();
+		int sessions = analyze(Paths.get(args[0]), output, threads);
+		System.out.println("Analyzed " + sessions + " results files in " + (System.nanoTime()-start)/1000000 + " ms; wrote " + output);
+	}
+}
@@ -0,0 +1,123 @@
+package code;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Writes the records of a recording to a file through a pool of preallocated buffers. The recording thread
+ * fills one buffer at a time, and a background thread writes each filled buffer to the file and returns it
+ * to the pool, so that the recording thread never waits for the disk. If the writer thread falls behind
+ * and no empty buffer is left, records are dropped rather than waited for, and counted.
+ */
+class BufferedChannelWriter {
+	
+	/* Signals the writer thread to finish */
+	private static final ByteBuffer END_OF_RECORDING = ByteBuffer.allocate(0);
+	/* Time to wait for the writer thread to write the remaining records when the recording is stopped */
+	private static final long STOP_WAIT = 3000; // Milliseconds
+	
+	/* Buffers waiting to be filled and buffers waiting to be written */
+	private ArrayBlockingQueue<ByteBuffer> emptyBuffers;
+	private ArrayBlockingQueue<ByteBuffer> fullBuffers;
+	private ByteBuffer currentBuffer;
+	private FileChannel channel;
+	private Thread writer;
+	/* Number of records dropped because the writer thread fell behind */
+	private int dropped = 0;
+	
+	/**
+	 * Creates the file, writes its header and starts the writer thread.
+	 * @param file : The file to write the records to.
+	 * @param header : The bytes written at the start of the file, before any records.
+	 * @param bufferCount : The number of buffers in the pool.
+	 * @param bufferSize : The size of each buffer, in bytes.
+	 * @param threadName : The name of the writer thread.
+	 * @throws IOException : If the file cannot be written.
+	 */
+	public BufferedChannelWriter(File file, byte[] header, int bufferCount, int bufferSize, String threadName) throws IOException {
+		emptyBuffers = new ArrayBlockingQueue<>(bufferCount+1);
+		fullBuffers = new ArrayBlockingQueue<>(bufferCount+1);
+		for (int i=0; i<bufferCount; i++) {
+			emptyBuffers.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+		while (headerBuffer.hasRemaining()) {
+			channel.write(headerBuffer);
+		}
+		writer = new Thread(() -> writeBuffers(), threadName);
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * Returns the buffer into which the next record is to be put, or null if the record must be dropped
+	 * because no empty buffer is left. Must only be called by the recording thread.
+	 */
+	public ByteBuffer getBuffer() {
+		if (currentBuffer == null && (currentBuffer = emptyBuffers.poll()) == null) {
+			dropped++;
+		}
+		return currentBuffer;
+	}
+	
+	/**
+	 * Passes the current buffer to the writer thread if it does not have room for another record.
+	 * Must be called by the recording thread after each record is put into the buffer.
+	 * @param recordSize : The largest number of bytes the next record may need.
+	 */
+	public void finishRecord(int recordSize) {
+		if (currentBuffer.remaining() < recordSize) {
+			fullBuffers.add(currentBuffer);
+			currentBuffer = null;
+		}
+	}
+	
+	/**
+	 * Writes any remaining records to the file and closes it. Waits for the file to be closed, so that it is
+	 * complete if the program then exits. Must be called by the recording thread once it has stopped recording.
+	 * @return : The number of records which were dropped because the writer thread fell behind.
+	 */
+	public int stop() {
+		if (currentBuffer != null) {
+			fullBuffers.add(currentBuffer);
+			currentBuffer = null;
+		}
+		fullBuffers.add(END_OF_RECORDING);
+		try {
+			writer.join(STOP_WAIT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return dropped;
+	}
+	
+	/**
+	 * Writes filled buffers to the file until the recording is stopped. Runs on the writer thread.
+	 */
+	private void writeBuffers() {
+		try {
+			ByteBuffer buffer;
+			while ((buffer = fullBuffers.take()) != END_OF_RECORDING) {
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				buffer.clear();
+				emptyBuffers.add(buffer);
+			}
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,298 @@
+package code;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+
+import code.SessionLog.Type;
+
+/**
+ * Streams the events in the report to an EventCollector over TCP, so that the results of every station
+ * in a lab are gathered in one place as the experiments run.
+ *
+ * Events are given consecutive sequence numbers and encoded into batches by the report writer thread.
+ * A batch is sealed when it is full or old enough, and placed in a bounded spool. A sender thread sends the batches
+ * in the spool to the collector one at a time and removes each once the collector acknowledges it, so
+ * no network operation ever delays the report writer or the display. While the collector cannot be reached, batches
+ * wait in the spool and the sender tries to reconnect. If the spool fills, new batches are dropped and the gap in the
+ * sequence numbers shows the collector what is missing; the local results file is unaffected.
+ *
+ * Each connection begins with a magic number, the station name and the run ID (the time at which this sink was created,
+ * which distinguishes the sequence numbers of different runs of the program). The collector replies with the sequence
+ * number of the next event it needs, which lets batches which were received before a connection failed be skipped.
+ * Each batch is a length-prefixed block holding its first sequence number, its event count, the experiment and participant,
+ * and the events; the collector acknowledges it with the sequence number of the next event it needs.
+ * Strings are written with DataOutputStream.writeUTF(), and any which are too long for it are cut short.
+ */
+class CollectorSink {
+	
+	static final int MAGIC = 0x45435331; // "ECS1"
+	/* A batch is sealed once it holds this many events, or its first event is this old */
+	private static final int BATCH_EVENTS = 256;
+	private static final long BATCH_INTERVAL = 100000000; // Nanoseconds
+	/* Time to wait for the collector to accept a connection, and between attempts to connect */
+	private static final int CONNECT_TIMEOUT = 2000; // Milliseconds
+	private static final long RETRY_INTERVAL = 1000; // Milliseconds
+	/* Time to wait for the collector to acknowledge a batch before the connection is treated as failed */
+	private static final int ACKNOWLEDGE_TIMEOUT = 1000; // Milliseconds
+	/* Longest string which DataOutputStream.writeUTF() can write, in bytes of modified UTF-8 */
+	private static final int MAX_UTF_LENGTH = 65535;
+	
+	private final InetSocketAddress address;
+	private final String station;
+	private final long runId = System.currentTimeMillis();
+	
+	/* The following fields are only used by the report writer thread */
+	private long nextSequence = 0;
+	private long batchStart; // Sequence number of the first event in the current batch
+	private int batchEvents = 0;
+	private long batchTime; // System time at which the first event was added to the current batch
+	private String batchExperiment, batchParticipant;
+	private BatchBuffer batchBytes = new BatchBuffer(16384);
+	private DataOutputStream batch = new DataOutputStream(batchBytes);
+	
+	/**
+	 * The encoded events of the current batch, which can be cut back to the end of an earlier event.
+	 */
+	private static class BatchBuffer extends ByteArrayOutputStream {
+		
+		BatchBuffer(int size) {
+			super(size);
+		}
+		
+		/**
+		 * Discards everything written after the first given number of bytes.
+		 */
+		void truncate(int size) {
+			count = size;
+		}
+	}
+	
+	/**
+	 * A sealed batch waiting in the spool.
+	 */
+	private static class Batch {
+		long firstSequence;
+		int count;
+		byte[] data;
+	}
+	
+	/* Sealed batches which the collector has not yet acknowledged, guarded by this sink */
+	private final ArrayDeque<Batch> spool = new ArrayDeque<>();
+	private final long spoolLimit; // Bytes
+	private long spoolBytes = 0;
+	private long droppedEvents = 0;
+	
+	/**
+	 * Creates a sink and starts the thread which sends its batches.
+	 * @param collector : The host and port of the collector, as "host:port".
+	 * @param station : The name of this station, which identifies its events in the collector.
+	 * @param spoolLimit : The most bytes of unacknowledged batches to hold.
+	 * @throws IllegalArgumentException : If the collector address is not of the form "host:port".
+	 */
+	CollectorSink(String collector, String station, long spoolLimit) throws IllegalArgumentException {
+		int separator = collector.lastIndexOf(':');
+		if (separator < 1) {
+			throw new IllegalArgumentException("Collector address must be given as host:port");
+		}
+		address = InetSocketAddress.createUnresolved(collector.substring(0, separator), Integer.parseInt(collector.substring(separator+1)));
+		this.station = station;
+		this.spoolLimit = spoolLimit;
+		Thread sender = new Thread(() -> send(), "Collector Sender");
+		sender.setDaemon(true);
+		sender.start();
+	}
+	
+	/**
+	 * Adds an event to the current batch. Runs on the report writer thread.
+	 */
+	void add(long time, Type type, boolean flag, double a, double b, String text, String secondText) {
+		String experiment = ReportWriter.experimentName, participant = ReportWriter.participantId;
+		/* Every event in a batch belongs to the same session */
+		if (batchEvents > 0 && (!String.valueOf(experiment).equals(batchExperiment) || !String.valueOf(participant).equals(batchParticipant))) {
+			seal();
+		}
+		if (batchEvents == 0) {
+			batchStart = nextSequence;
+			batchTime = System.nanoTime();
+			batchExperiment = String.valueOf(experiment);
+			batchParticipant = String.valueOf(participant);
+		}
+		int eventStart = batchBytes.size();
+		try {
+			batch.writeLong(time);
+			batch.writeByte(type.ordinal());
+			batch.writeBoolean(flag);
+			batch.writeDouble(a);
+			batch.writeDouble(b);
+			batch.writeUTF(fitUTF(text));
+			batch.writeUTF(fitUTF(secondText));
+		} catch (IOException e) {
+			/* Leave the event out of the batch, and end the batch so that the collector sees a gap in the sequence numbers */
+			e.printStackTrace();
+			batchBytes.truncate(eventStart);
+			seal();
+			nextSequence++;
+			return;
+		}
+		nextSequence++;
+		if (++batchEvents == BATCH_EVENTS) {
+			seal();
+		}
+	}
+	
+	/**
+	 * Returns a string which DataOutputStream.writeUTF() can write: an empty string for null, and otherwise the
+	 * longest start of the string, not ending in half a surrogate pair, whose modified UTF-8 encoding fits.
+	 */
+	static String fitUTF(String text) {
+		if (text == null) {
+			return "";
+		}
+		int length = 0;
+		for (int i=0; i<text.length(); i++) {
+			char c = text.charAt(i);
+			length += c >= 0x01 && c <= 0x7F ? 1 : c <= 0x7FF ? 2 : 3;
+			if (length > MAX_UTF_LENGTH) {
+				return text.substring(0, i > 0 && Character.isHighSurrogate(text.charAt(i-1)) ? i-1 : i);
+			}
+		}
+		return text;
+	}
+	
+	/**
+	 * Seals the current batch if it has been open for longer than the batch interval. Runs on the report writer thread.
+	 */
+	void flushIfDue(long now) {
+		if (batchEvents > 0 && now-batchTime >= BATCH_INTERVAL) {
+			seal();
+		}
+	}
+	
+	/**
+	 * Seals the current batch and places it in the spool, or drops it if the spool is full. Runs on the report writer thread.
+	 */
+	void seal() {
+		if (batchEvents == 0) {
+			return;
+		}
+		Batch sealed = new Batch();
+		sealed.firstSequence = batchStart;
+		sealed.count = batchEvents;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(batchBytes.size()+256);
+			DataOutputStream output = new DataOutputStream(bytes);
+			output.writeInt(0); // Length, filled in below
+			output.writeLong(batchStart);
+			output.writeInt(batchEvents);
+			output.writeUTF(fitUTF(batchExperiment));
+			output.writeUTF(fitUTF(batchParticipant));
+			batchBytes.writeTo(output);
+			sealed.data = bytes.toByteArray();
+			int length = sealed.data.length-4;
+			sealed.data[0] = (byte)(length >>> 24);
+			sealed.data[1] = (byte)(length >>> 16);
+			sealed.data[2] = (byte)(length >>> 8);
+			sealed.data[3] = (byte)length;
+		} catch (IOException e) {
+			/* Not thrown: a ByteArrayOutputStream does not throw, and fitUTF() has shortened the strings */
+		}
+		batchBytes.reset();
+		batchEvents = 0;
+		synchronized (this) {
+			if (spoolBytes+sealed.data.length > spoolLimit) {
+				if (droppedEvents == 0) {
+					System.err.println("Collector spool is full; events are no longer being sent to the collector");
+				}
+				droppedEvents += sealed.count;
+				return;
+			}
+			spool.addLast(sealed);
+			spoolBytes += sealed.data.length;
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Waits until the collector has acknowledged every sealed batch, or until a given time has passed.
+	 * @param timeout : The longest time to wait, in milliseconds.
+	 * @return : True if every batch was acknowledged.
+	 */
+	synchronized boolean awaitDelivery(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis()+timeout;
+		while (!spool.isEmpty() && System.currentTimeMillis() < end) {
+			wait(Math.max(1, end-System.currentTimeMillis()));
+		}
+		return spool.isEmpty();
+	}
+	
+	/**
+	 * Removes the batches whose events the collector has received from the spool.
+	 * @param needed : The sequence number of the next event the collector needs.
+	 */
+	private synchronized void acknowledge(long needed) {
+		while (!spool.isEmpty() && spool.peekFirst().firstSequence+spool.peekFirst().count <= needed) {
+			spoolBytes -= spool.pollFirst().data.length;
+		}
+		notifyAll();
+	}
+	
+	/**
+	 * Returns the oldest unacknowledged batch, waiting until there is one.
+	 */
+	private synchronized Batch nextBatch() throws InterruptedException {
+		while (spool.isEmpty()) {
+			wait();
+		}
+		return spool.peekFirst();
+	}
+	
+	/**
+	 * Connects to the collector and sends batches as they are sealed, reconnecting whenever the connection fails.
+	 * Runs on the sender thread.
+	 */
+	private void send() {
+		boolean reported = false;
+		while (true) {
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT);
+				socket.setTcpNoDelay(true);
+				/* A collector which stops responding must not stall the sender, and an idle connection must not be silently dropped */
+				socket.setSoTimeout(ACKNOWLEDGE_TIMEOUT);
+				socket.setKeepAlive(true);
+				DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				output.writeInt(MAGIC);
+				output.writeUTF(station);
+				output.writeLong(runId);
+				output.flush();
+				acknowledge(input.readLong());
+				reported = false;
+				while (true) {
+					Batch batch = nextBatch();
+					output.write(batch.data);
+					output.flush();
+					acknowledge(input.readLong());
+				}
+			} catch (IOException e) {
+				if (!reported) {
+					System.err.println("Cannot reach the collector at " + address.getHostString() + ":" + address.getPort() + " (" + e.getMessage() + "); events are being kept until it can be reached");
+					reported = true;
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				Thread.sleep(RETRY_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,481 @@
+package code;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import code.SessionLog.Entry;
+import code.SessionLog.Type;
+
+/**
+ * A typed binary log of the events in the report. Each type of event is stored as a table with a fixed
+ * set of columns, and each column is written to the file as one contiguous block, so that analysis tools
+ * can load the columns they need without parsing the report.
+ *
+ * The file begins with a header (magic number, experiment name, participant ID) followed by the column
+ * blocks. An index at the end of the file gives the row count of each table and the type and offset
+ * of each of its columns. The last 8 bytes of the file hold the offset of the index.
+ *
+ * When the report is streamed, the log is written to its file in chunks of events as they are added, so that
+ * the events are not kept in memory. Each chunk holds a block for each column of each table, and has its own
+ * entries in the index, so a table may appear in the index more than once; its rows are the rows of each
+ * of its entries in turn. Logs written in one piece have one chunk.
+ *
+ * Every table has a time column (nanoseconds since the start of the session) and a sequence column
+ * (the position of the event in the report), followed by the columns of its schema.
+ * Run this class with the path of a log to export it to the CSV layout of the report.
+ */
+public class ColumnarLog {
+	
+	private static final int MAGIC = 0x54434C32; // "TCL2"
+	private static final int INITIAL_ROWS = 64;
+	private static final int CHUNK_EVENTS = 4096; // Events kept in memory before a chunk is written while streaming
+	
+	/**
+	 * The kinds of column which follow the time and sequence columns of a table.
+	 * Fields are stored in the index by their position in this list, so new fields must be added to the end.
+	 */
+	enum Field {
+		FLAG, // 1 byte, 1 for true and 0 for false
+		INT, // 4 byte integer
+		FLOAT_X, // 4 byte float
+		FLOAT_Y, // 4 byte float
+		DOUBLE, // 8 byte double
+		TEXT, // Modified UTF-8 string, as written by DataOutputStream.writeUTF()
+		SECOND_TEXT // Modified UTF-8 string
+	}
+	
+	/* The columns of each type of event, indexed by the type's position in SessionLog.Type */
+	private static final Field[][] SCHEMAS = new Field[Type.values().length][];
+	
+	static {
+		SCHEMAS[Type.STATUS.ordinal()] = new Field[] {Field.FLAG};
+		SCHEMAS[Type.LOOP.ordinal()] = new Field[] {Field.INT};
+		SCHEMAS[Type.MASK.ordinal()] = new Field[] {Field.FLAG, Field.TEXT};
+		SCHEMAS[Type.IDENTITY_MASK.ordinal()] = new Field[] {Field.FLAG};
+		SCHEMAS[Type.QUERY.ordinal()] = new Field[] {Field.INT, Field.FLAG, Field.TEXT}; // Query kind, shown, query text
+		SCHEMAS[Type.FREEZE.ordinal()] = new Field[] {Field.FLAG};
+		SCHEMAS[Type.TEXT_ENTRY.ordinal()] = new Field[] {Field.TEXT};
+		SCHEMAS[Type.CLICK.ordinal()] = new Field[] {Field.FLOAT_X, Field.FLOAT_Y};
+		SCHEMAS[Type.BINARY_RESPONSE.ordinal()] = new Field[] {Field.FLAG};
+		SCHEMAS[Type.OBJECT_HIT.ordinal()] = new Field[] {Field.TEXT, Field.DOUBLE};
+		SCHEMAS[Type.IDENTITY_VIEWED.ordinal()] = new Field[] {Field.TEXT};
+		SCHEMAS[Type.CONFLICT.ordinal()] = new Field[] {Field.FLAG, Field.TEXT, Field.SECOND_TEXT, Field.DOUBLE};
+	}
+	
+	/**
+	 * The rows of one type of event. Numeric columns are held as doubles and text columns as strings,
+	 * in the order given by the type's schema.
+	 */
+	private static class Table {
+		Field[] schema;
+		int rows = 0;
+		long[] times = new long[INITIAL_ROWS];
+		int[] sequence = new int[INITIAL_ROWS];
+		double[][] numbers;
+		String[][] texts;
+		
+		Table(Field[] schema) {
+			this.schema = schema;
+			numbers = new double[schema.length][];
+			texts = new String[schema.length][];
+			for (int column=0; column<schema.length; column++) {
+				if (isText(schema[column])) {
+					texts[column] = new String[INITIAL_ROWS];
+				} else {
+					numbers[column] = new double[INITIAL_ROWS];
+				}
+			}
+		}
+		
+		/**
+		 * Makes room for at least the given number of rows.
+		 */
+		void ensureCapacity(int capacity) {
+			if (capacity > times.length) {
+				int size = Math.max(capacity, times.length*2);
+				times = Arrays.copyOf(times, size);
+				sequence = Arrays.copyOf(sequence, size);
+				for (int column=0; column<schema.length; column++) {
+					if (texts[column] != null) {
+						texts[column] = Arrays.copyOf(texts[column], size);
+					} else {
+						numbers[column] = Arrays.copyOf(numbers[column], size);
+					}
+				}
+			}
+		}
+	}
+	
+	String experimentName;
+	String participantId;
+	private Table[] tables = new Table[SCHEMAS.length];
+	private int eventCount = 0;
+	/* While streaming, the file being written, the index entries of the chunks written to it and the events not yet written */
+	private DataOutputStream stream;
+	private ByteArrayOutputStream index;
+	private int chunkEvents = 0;
+	
+	/**
+	 * Returns true if the given field is stored as text.
+	 */
+	private static boolean isText(Field field) {
+		return field == Field.TEXT || field == Field.SECOND_TEXT;
+	}
+	
+	/**
+	 * Adds an event to the log. Events must be added in the order in which they appear in the report.
+	 * The meaning of the flag, numeric and text values depends on the type of event, as in the ReportWriter.
+	 */
+	void add(long time, Type type, boolean flag, double a, double b, String text, String secondText) {
+		Field[] schema = SCHEMAS[type.ordinal()];
+		if (schema == null) {
+			return;
+		}
+		Table table = tables[type.ordinal()];
+		if (table == null) {
+			table = tables[type.ordinal()] = new Table(schema);
+		}
+		table.ensureCapacity(table.rows+1);
+		int row = table.rows++;
+		table.times[row] = time;
+		table.sequence[row] = eventCount++;
+		for (int column=0; column<schema.length; column++) {
+			switch (schema[column]) {
+				case FLAG:
+					table.numbers[column][row] = flag ? 1 : 0;
+					break;
+				case INT:
+				case FLOAT_X:
+				case DOUBLE:
+					table.numbers[column][row] = a;
+					break;
+				case FLOAT_Y:
+					table.numbers[column][row] = b;
+					break;
+				case TEXT:
+					table.texts[column][row] = text == null ? "" : text;
+					break;
+				case SECOND_TEXT:
+					table.texts[column][row] = secondText == null ? "" : secondText;
+					break;
+			}
+		}
+		if (stream != null && ++chunkEvents >= CHUNK_EVENTS) {
+			try {
+				writeChunk(stream, new DataOutputStream(index));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Removes all events from the log, and abandons the file it is being streamed to, if any.
+	 */
+	void clear() {
+		tables = new Table[SCHEMAS.length];
+		eventCount = 0;
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			stream = null;
+			index = null;
+		}
+	}
+	
+	/**
+	 * Returns the number of events of the given type in the log.
+	 */
+	int getRowCount(Type type) {
+		Table table = tables[type.ordinal()];
+		return table == null ? 0 : table.rows;
+	}
+	
+	/**
+	 * Returns the time column of the given type of event, in nanoseconds since the start of the session.
+	 */
+	long[] getTimes(Type type) {
+		Table table = tables[type.ordinal()];
+		return table == null ? new long[0] : Arrays.copyOf(table.times, table.rows);
+	}
+	
+	/**
+	 * Returns a numeric column of the given type of event.
+	 * @param column : The position of the column in the type's schema.
+	 */
+	double[] getNumbers(Type type, int column) {
+		Table table = tables[type.ordinal()];
+		return table == null ? new double[0] : Arrays.copyOf(table.numbers[column], table.rows);
+	}
+	
+	/**
+	 * Returns a text column of the given type of event.
+	 * @param column : The position of the column in the type's schema.
+	 */
+	String[] getTexts(Type type, int column) {
+		Table table = tables[type.ordinal()];
+		return table == null ? new String[0] : Arrays.copyOf(table.texts[column], table.rows);
+	}
+	
+	/**
+	 * Starts writing the log to a file in chunks as events are added, instead of keeping them in memory.
+	 * The events added so far are written with the first chunk. The file is finished by save().
+	 * @param file : The file to write the log to.
+	 * @throws IOException : If the file cannot be written.
+	 */
+	void startStreaming(File file) throws IOException {
+		stream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		index = new ByteArrayOutputStream();
+		chunkEvents = eventCount;
+		writeHeader(stream);
+	}
+	
+	/**
+	 * Writes the log to a file, or finishes writing it if it is being streamed.
+	 * @param file : The file to write the log to, if it is not being streamed.
+	 * @throws IOException : If the file cannot be written.
+	 */
+	void save(File file) throws IOException {
+		if (stream != null) {
+			try (DataOutputStream output = stream) {
+				writeChunk(output, new DataOutputStream(index));
+				writeIndex(output, index.toByteArray());
+			} finally {
+				stream = null;
+				index = null;
+			}
+			return;
+		}
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			ByteArrayOutputStream chunkIndex = new ByteArrayOutputStream();
+			writeHeader(output);
+			writeChunk(output, new DataOutputStream(chunkIndex));
+			writeIndex(output, chunkIndex.toByteArray());
+		}
+	}
+	
+	/**
+	 * Writes the magic number, experiment name and participant ID at the start of a file.
+	 */
+	private void writeHeader(DataOutputStream output) throws IOException {
+		output.writeInt(MAGIC);
+		output.writeUTF(String.valueOf(experimentName));
+		output.writeUTF(String.valueOf(participantId));
+	}
+	
+	/**
+	 * Writes each column of the events held in memory as a block, adds the index entries of the blocks to an index,
+	 * and empties the tables.
+	 * @param output : The file being written.
+	 * @param chunkIndex : The index of the file.
+	 */
+	private void writeChunk(DataOutputStream output, DataOutputStream chunkIndex) throws IOException {
+		for (int type=0; type<tables.length; type++) {
+			Table table = tables[type];
+			if (table == null || table.rows == 0) {
+				continue;
+			}
+			long[] offsets = new long[table.schema.length+2];
+			offsets[0] = output.size();
+			for (int row=0; row<table.rows; row++) {
+				output.writeLong(table.times[row]);
+			}
+			offsets[1] = output.size();
+			for (int row=0; row<table.rows; row++) {
+				output.writeInt(table.sequence[row]);
+			}
+			for (int column=0; column<table.schema.length; column++) {
+				offsets[column+2] = output.size();
+				for (int row=0; row<table.rows; row++) {
+					switch (table.schema[column]) {
+						case FLAG:
+							output.writeByte((int)table.numbers[column][row]);
+							break;
+						case INT:
+							output.writeInt((int)table.numbers[column][row]);
+							break;
+						case FLOAT_X:
+						case FLOAT_Y:
+							output.writeFloat((float)table.numbers[column][row]);
+							break;
+						case DOUBLE:
+							output.writeDouble(table.numbers[column][row]);
+							break;
+						case TEXT:
+						case SECOND_TEXT:
+							output.writeUTF(table.texts[column][row]);
+							break;
+					}
+				}
+			}
+			chunkIndex.writeByte(type);
+			chunkIndex.writeInt(table.rows);
+			chunkIndex.writeByte(table.schema.length);
+			chunkIndex.writeLong(offsets[0]);
+			chunkIndex.writeLong(offsets[1]);
+			for (int column=0; column<table.schema.length; column++) {
+				chunkIndex.writeByte(table.schema[column].ordinal());
+				chunkIndex.writeLong(offsets[column+2]);
+			}
+			table.rows = 0;
+		}
+		chunkEvents = 0;
+	}
+	
+	/**
+	 * Writes the index of a file after its last chunk, followed by the offset of the index.
+	 * @param output : The file being written.
+	 * @param chunkIndex : The index entries of every chunk in the file.
+	 */
+	private void writeIndex(DataOutputStream output, byte[] chunkIndex) throws IOException {
+		long indexOffset = output.size();
+		output.writeInt(eventCount);
+		output.write(chunkIndex);
+		output.writeByte(-1);
+		output.writeLong(indexOffset);
+	}
+	
+	/**
+	 * Reads a log from a file written by save(), joining the rows of each table from every chunk.
+	 * @param file : The file to read the log from.
+	 * @throws IOException : If the file cannot be read or is not a columnar log.
+	 */
+	static ColumnarLog load(File file) throws IOException {
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		if (bytes.length < 12 || buffer.getInt(0) != MAGIC) {
+			throw new IOException(file.getName() + " is not a columnar log");
+		}
+		ColumnarLog log = new ColumnarLog();
+		DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes, 4, bytes.length-4));
+		log.experimentName = header.readUTF();
+		log.participantId = header.readUTF();
+		buffer.position((int)buffer.getLong(bytes.length-8));
+		log.eventCount = buffer.getInt();
+		for (int type=buffer.get(); type >= 0; type=buffer.get()) {
+			Field[] schema = SCHEMAS[type];
+			int rows = buffer.getInt();
+			if (schema == null || buffer.get() != schema.length) {
+				throw new IOException(file.getName() + " does not match the schema of " + Type.values()[type]);
+			}
+			Table table = log.tables[type];
+			if (table == null) {
+				table = log.tables[type] = new Table(schema);
+			}
+			int first = table.rows;
+			table.ensureCapacity(first+rows);
+			table.rows = first+rows;
+			ByteBuffer times = buffer.duplicate();
+			times.position((int)buffer.getLong());
+			times.asLongBuffer().get(table.times, first, rows);
+			ByteBuffer sequence = buffer.duplicate();
+			sequence.position((int)buffer.getLong());
+			sequence.asIntBuffer().get(table.sequence, first, rows);
+			for (int column=0; column<schema.length; column++) {
+				if (buffer.get() != schema[column].ordinal()) {
+					throw new IOException(file.getName() + " does not match the schema of " + Type.values()[type]);
+				}
+				int offset = (int)buffer.getLong();
+				if (isText(schema[column])) {
+					DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes, offset, bytes.length-offset));
+					for (int row=first; row<table.rows; row++) {
+						table.texts[column][row] = input.readUTF();
+					}
+				} else {
+					ByteBuffer values = buffer.duplicate();
+					values.position(offset);
+					double[] numbers = table.numbers[column];
+					for (int row=first; row<table.rows; row++) {
+						switch (schema[column]) {
+							case FLAG:
+								numbers[row] = values.get();
+								break;
+							case INT:
+								numbers[row] = values.getInt();
+								break;
+							case DOUBLE:
+								numbers[row] = values.getDouble();
+								break;
+							default:
+								numbers[row] = values.getFloat();
+								break;
+						}
+					}
+				}
+			}
+		}
+		return log;
+	}
+	
+	/**
+	 * Converts the log to a session log containing its events in report order, so that it can be replayed.
+	 */
+	SessionLog toSessionLog() {
+		Entry[] entries = new Entry[eventCount];
+		for (int type=0; type<tables.length; type++) {
+			Table table = tables[type];
+			if (table == null) {
+				continue;
+			}
+			for (int row=0; row<table.rows; row++) {
+				Entry entry = new Entry();
+				entry.time = table.times[row];
+				entry.type = Type.values()[type];
+				for (int column=0; column<table.schema.length; column++) {
+					switch (table.schema[column]) {
+						case FLAG:
+							entry.flag = table.numbers[column][row] != 0;
+							break;
+						case FLOAT_Y:
+							entry.b = table.numbers[column][row];
+							break;
+						case TEXT:
+							entry.text = table.texts[column][row];
+							break;
+						case SECOND_TEXT:
+							/* Conflict labels are joined as in the session log */
+							entry.text = entry.text + "\n" + table.texts[column][row];
+							break;
+						default:
+							entry.a = table.numbers[column][row];
+							break;
+					}
+				}
+				entries[table.sequence[row]] = entry;
+			}
+		}
+		SessionLog log = new SessionLog();
+		log.recording = false;
+		log.experimentName = experimentName;
+		log.participantId = participantId;
+		log.entries.addAll(Arrays.asList(entries));
+		return log;
+	}
+	
+	/**
+	 * Exports a columnar log to the CSV layout of the report.
+	 * @param args : The path of the columnar log, optionally followed by the path of the report to write.
+	 * @throws IOException : If the columnar log cannot be read.
+	 * @throws InterruptedException : If the export is interrupted.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 0) {
+			System.err.println("Usage: ColumnarLog <columnar log> [report file]");
+			return;
+		}
+		SessionReplay.replay(load(new File(args[0])).toSessionLog(), 0);
+		ReportWriter.writeReport(new File(args.length > 1 ? args[1] : args[0].replaceAll("-events\\.tcl$", "") + "-export.csv"));
+	}
+}
@@ -0,0 +1,303 @@
+package code;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import code.SessionLog.Entry;
+import code.SessionLog.Type;
+
+/**
+ * Compressed forms of the report, for long sessions or slow disks. The report can either be written through
+ * gzip, or as a compact stream of events which the report can be regenerated from.
+ *
+ * Delta format: a header (magic number, experiment name, participant ID) followed by one record per report event.
+ * Each record begins with the change in time since the previous event in microseconds, the event's flag and its type,
+ * followed by the values of that type of event. Click coordinates are stored as the change from the previous click,
+ * and coordinates and distances are stored in thousandths, rounded as the report rounds them, with each negative
+ * value stored as -1 minus its size so that values the report shows as "-0.000" keep their sign. Every number is written
+ * as a variable-length integer, 7 bits per byte with the highest bit set on all but the last byte, and numbers
+ * which may be negative are zigzag-encoded. Text is written as its length followed by its UTF-8 bytes.
+ *
+ * Run this class with the path of a compressed report to convert it back to a CSV report.
+ */
+public class CompressedReport {
+	
+	/* Values of the tracker.reportCompression option */
+	static final String GZIP = "gzip";
+	static final String DELTA = "delta";
+	
+	private static final int MAGIC = 0x44525032; // "DRP2"
+	
+	/* Records waiting to be written */
+	private byte[] buffer = new byte[8192];
+	private int length = 0;
+	/* The time of the previous event (microseconds) and the coordinates of the previous click (thousandths) */
+	private long lastTime = 0;
+	private long lastClickX = 0, lastClickY = 0;
+	
+	/**
+	 * Returns the suffix of the report file name for a form of compression.
+	 */
+	static String getSuffix(String compression) {
+		return compression.equals(GZIP) ? ".csv.gz" : compression.equals(DELTA) ? ".dlt" : ".csv";
+	}
+	
+	/**
+	 * Opens a stream for writing a report with a form of compression.
+	 * Flushing a gzip stream compresses and writes all of the data written so far.
+	 */
+	static OutputStream open(OutputStream output, String compression) throws IOException {
+		return compression.equals(GZIP) ? new GZIPOutputStream(output, 8192, true) : new BufferedOutputStream(output);
+	}
+	
+	/**
+	 * Writes the header of a delta-encoded report, which must precede the records.
+	 */
+	void writeHeader(OutputStream output) throws IOException {
+		DataOutputStream header = new DataOutputStream(output);
+		header.writeInt(MAGIC);
+		header.writeUTF(String.valueOf(ReportWriter.experimentName));
+		header.writeUTF(String.valueOf(ReportWriter.participantId));
+		header.flush();
+	}
+	
+	/**
+	 * Encodes an event. Events must be added in the order in which they appear in the report.
+	 * The meaning of the flag, numeric and text values depends on the type of event, as in the ReportWriter.
+	 */
+	void add(long time, Type type, boolean flag, double a, double b, String text, String secondText) {
+		long micros = time/1000;
+		ensureCapacity(30);
+		putVarint((zigzag(micros-lastTime) << 6) | (flag ? 32 : 0) | type.ordinal());
+		lastTime = micros;
+		switch (type) {
+			case LOOP:
+				putVarint(zigzag((long)a));
+				break;
+			case QUERY:
+				putVarint((long)a);
+				putText(text);
+				break;
+			case MASK:
+			case TEXT_ENTRY:
+			case IDENTITY_VIEWED:
+				putText(text);
+				break;
+			case CLICK:
+				long x = toThousandths(a), y = toThousandths(b);
+				putVarint(zigzag(x-lastClickX));
+				putVarint(zigzag(y-lastClickY));
+				lastClickX = x;
+				lastClickY = y;
+				break;
+			case OBJECT_HIT:
+				putText(text);
+				ensureCapacity(10);
+				putVarint(zigzag(toThousandths(a)));
+				break;
+			case CONFLICT:
+				putText(text);
+				putText(secondText);
+				ensureCapacity(10);
+				putVarint(zigzag(toThousandths(a)));
+				break;
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * Writes the encoded events to a stream and removes them from the buffer.
+	 */
+	void writeTo(OutputStream output) throws IOException {
+		output.write(buffer, 0, length);
+		length = 0;
+	}
+	
+	/**
+	 * Removes all events and starts encoding from the beginning of a report.
+	 */
+	void clear() {
+		length = 0;
+		lastTime = 0;
+		lastClickX = 0;
+		lastClickY = 0;
+	}
+	
+	private void ensureCapacity(int extra) {
+		if (length+extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(length+extra, buffer.length*2));
+		}
+	}
+	
+	private void putVarint(long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer[length++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[length++] = (byte)value;
+	}
+	
+	private void putText(String text) {
+		byte[] bytes = (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+		ensureCapacity(bytes.length+10);
+		putVarint(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+	
+	/**
+	 * Returns a number in thousandths, rounded as in the report, or -1 minus that for negative numbers.
+	 */
+	private static long toThousandths(double value) {
+		long thousandths = ReportWriter.roundThousandths(value);
+		return Double.doubleToRawLongBits(value) < 0 ? -1-thousandths : thousandths;
+	}
+	
+	/**
+	 * Returns the number stored by toThousandths().
+	 */
+	private static double fromThousandths(long value) {
+		return value < 0 ? -((-1-value)/1000.0) : value/1000.0;
+	}
+	
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+	
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+	
+	/**
+	 * Reads a variable-length integer.
+	 * @throws EOFException : If the end of the stream is reached.
+	 */
+	private static long readVarint(InputStream input) throws IOException {
+		long value = 0;
+		for (int shift=0; ; shift+=7) {
+			int b = input.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+	
+	private static String readText(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[(int)readVarint(input)];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Reads a delta-encoded report into a session log containing its events, so that it can be replayed.
+	 * @param file : The delta-encoded report.
+	 * @throws IOException : If the file cannot be read or is not a delta-encoded report.
+	 */
+	static SessionLog decode(File file) throws IOException {
+		SessionLog log = new SessionLog();
+		log.recording = false;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (input.readInt() != MAGIC) {
+				throw new IOException(file.getName() + " is not a delta-encoded report");
+			}
+			log.experimentName = input.readUTF();
+			log.participantId = input.readUTF();
+			long time = 0, clickX = 0, clickY = 0;
+			while (true) {
+				long value;
+				try {
+					value = readVarint(input);
+				} catch (EOFException e) {
+					break;
+				}
+				Entry entry = new Entry();
+				time += unzigzag(value >>> 6);
+				entry.time = time*1000;
+				entry.flag = (value & 32) != 0;
+				entry.type = Type.values()[(int)(value & 31)];
+				switch (entry.type) {
+					case LOOP:
+						entry.a = unzigzag(readVarint(input));
+						break;
+					case QUERY:
+						entry.a = readVarint(input);
+						entry.text = readText(input);
+						break;
+					case MASK:
+					case TEXT_ENTRY:
+					case IDENTITY_VIEWED:
+						entry.text = readText(input);
+						break;
+					case CLICK:
+						clickX += unzigzag(readVarint(input));
+						clickY += unzigzag(readVarint(input));
+						entry.a = fromThousandths(clickX);
+						entry.b = fromThousandths(clickY);
+						break;
+					case OBJECT_HIT:
+						entry.text = readText(input);
+						entry.a = fromThousandths(unzigzag(readVarint(input)));
+						break;
+					case CONFLICT:
+						/* Conflict labels are joined as in the session log */
+						entry.text = readText(input) + "\n" + readText(input);
+						entry.a = fromThousandths(unzigzag(readVarint(input)));
+						break;
+					default:
+						break;
+				}
+				log.entries.add(entry);
+			}
+		}
+		return log;
+	}
+	
+	/**
+	 * Converts a compressed report to a CSV report.
+	 * @param compressedFile : A report written with gzip (ending in .gz) or delta encoding.
+	 * @param csvFile : The CSV report to be written.
+	 * @throws IOException : If either file cannot be read or written, or the compressed file is not valid.
+	 * @throws InterruptedException : If the conversion is interrupted.
+	 */
+	public static void decompress(File compressedFile, File csvFile) throws IOException, InterruptedException {
+		if (compressedFile.getName().endsWith(".gz")) {
+			try (InputStream input = new GZIPInputStream(new FileInputStream(compressedFile))) {
+				Files.copy(input, csvFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} else {
+			SessionReplay.replay(decode(compressedFile), 0);
+			ReportWriter.writeReport(csvFile);
+		}
+	}
+	
+	/**
+	 * Converts the compressed reports named on the command line to CSV reports alongside them.
+	 * @param args : The paths of the compressed reports to convert.
+	 * @throws IOException : If a report cannot be converted.
+	 * @throws InterruptedException : If the conversion is interrupted.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		for (String path : args) {
+			decompress(new File(path), new File(path.replaceAll("(\\.csv\\.gz|\\.dlt)$", "") + ".csv"));
+		}
+	}
+}
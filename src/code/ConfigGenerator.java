@@ -0,0 +1,279 @@
+package code;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generates valid experiment configurations of any size, for measuring how the program performs
+ * as experiments grow. Every value in a configuration is drawn from a random number generator
+ * with a given seed, so the same parameters always produce the same configuration.
+ *
+ * Waypoints are laid out on a grid, each placed at a random point within its own cell, and
+ * neighbouring waypoints may be joined by connectors. Moving objects travel between randomly chosen waypoints.
+ * Each loop contains screen masks and independent queries in random order, and placeholder images
+ * are written for the masks.
+ */
+public class ConfigGenerator {
+	
+	/* Size of each grid cell in nautical miles */
+	private static final int CELL_SIZE = 10;
+	/* Size of the placeholder mask images in pixels */
+	private static final int MASK_WIDTH = 800, MASK_HEIGHT = 600;
+	/* Number of attempts made to give a moving object a path and speed which no other object has */
+	private static final int MAX_ATTEMPTS = 100;
+	
+	private static final String[] QUERY_TYPES = {"click", "text", "yes/no"};
+	private static final String[] QUERY_TEXT = {"Click on the object", "Enter the label of the object", "Did the objects conflict?"};
+	
+	/**
+	 * The parameters of a generated configuration. Every parameter has a default, so only
+	 * the ones which matter to a test need to be set.
+	 */
+	public static class Parameters {
+		public long seed = 42;
+		public int waypoints = 100;
+		public double connectorDensity = 0.25; // Chance that two neighbouring waypoints are connected
+		public int movers = 100;
+		public int pathLength = 3; // Waypoints in each moving object's path
+		public double labelRatio = 0.5; // Fraction of moving objects which have labels
+		public int masksPerLoop = 1;
+		public int queriesPerLoop = 2;
+		public int loops = 2;
+		
+		/**
+		 * Sets a parameter from its name and a text value, as given on the command line.
+		 * @throws IllegalArgumentException : If there is no parameter with the given name, or the value is not a number.
+		 */
+		public void set(String name, String value) throws IllegalArgumentException {
+			switch (name) {
+				case "seed":
+					seed = Long.parseLong(value);
+					break;
+				case "waypoints":
+					waypoints = Integer.parseInt(value);
+					break;
+				case "connectorDensity":
+					connectorDensity = Double.parseDouble(value);
+					break;
+				case "movers":
+					movers = Integer.parseInt(value);
+					break;
+				case "pathLength":
+					pathLength = Integer.parseInt(value);
+					break;
+				case "labelRatio":
+					labelRatio = Double.parseDouble(value);
+					break;
+				case "masksPerLoop":
+					masksPerLoop = Integer.parseInt(value);
+					break;
+				case "queriesPerLoop":
+					queriesPerLoop = Integer.parseInt(value);
+					break;
+				case "loops":
+					loops = Integer.parseInt(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown parameter " + name);
+			}
+		}
+		
+		/**
+		 * Checks that a valid configuration can be generated with these parameters.
+		 * @throws IllegalArgumentException : If a parameter is out of range.
+		 */
+		void check() throws IllegalArgumentException {
+			if (waypoints < 2) throw new IllegalArgumentException("At least 2 waypoints are required");
+			if (movers < 0) throw new IllegalArgumentException("Number of moving objects may not be negative");
+			if (pathLength < 2) throw new IllegalArgumentException("Paths must contain at least 2 waypoints");
+			if (loops < 1) throw new IllegalArgumentException("At least 1 loop is required");
+			if (masksPerLoop < 0 || queriesPerLoop < 0) throw new IllegalArgumentException("Number of masks and queries may not be negative");
+			if (connectorDensity < 0 || connectorDensity > 1 || labelRatio < 0 || labelRatio > 1) {
+				throw new IllegalArgumentException("Connector density and label ratio must be between 0 and 1");
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return "seed=" + seed + " waypoints=" + waypoints + " connectorDensity=" + connectorDensity + " movers=" + movers
+					+ " pathLength=" + pathLength + " labelRatio=" + labelRatio + " masksPerLoop=" + masksPerLoop
+					+ " queriesPerLoop=" + queriesPerLoop + " loops=" + loops;
+		}
+	}
+	
+	/**
+	 * Writes a configuration folder containing a configuration file, an introduction file and
+	 * placeholder mask images.
+	 * @param directory : The configuration folder, which is created if it does not exist.
+	 * @param parameters : The size and contents of the configuration.
+	 * @throws IOException : If the configuration cannot be written.
+	 * @throws IllegalArgumentException : If no valid configuration can be generated with the given parameters.
+	 */
+	public static void generate(File directory, Parameters parameters) throws IOException, IllegalArgumentException {
+		parameters.check();
+		Random random = new Random(parameters.seed);
+		File images = new File(directory, "images");
+		if (!images.isDirectory() && !images.mkdirs()) {
+			throw new IOException("Could not create " + images);
+		}
+		for (int i=1; i<=parameters.masksPerLoop; i++) {
+			writeMaskImage(new File(images, "mask" + i + ".png"), i);
+		}
+		try (PrintWriter intro = new PrintWriter(new File(directory, "intro.txt"), "UTF-8")) {
+			intro.println("This is a generated configuration.");
+			intro.println("Click \"Start\" to begin.");
+		}
+		int side = (int)Math.ceil(Math.sqrt(parameters.waypoints));
+		try (PrintWriter config = new PrintWriter(new File(directory, "config.csv"), "UTF-8")) {
+			config.println("# Generated with " + parameters);
+			config.println("Generated " + parameters.waypoints + "x" + parameters.movers + " (seed " + parameters.seed + ")");
+			config.println((side*CELL_SIZE) + "," + (side*CELL_SIZE) + ",#1e2832");
+			config.println(parameters.loops);
+			config.println(2);
+			config.println("intro.txt");
+			config.println("SP: 5");
+			writeWaypoints(config, parameters, side, random);
+			writeMovers(config, parameters, random);
+			writeSchedule(config, parameters, side, random);
+		}
+	}
+	
+	/**
+	 * Writes one waypoint in each cell of the grid, row by row, followed by the connectors which join
+	 * each waypoint to the next waypoints to its right and below it.
+	 */
+	private static void writeWaypoints(PrintWriter config, Parameters parameters, int side, Random random) {
+		for (int i=0; i<parameters.waypoints; i++) {
+			/* Coordinates in hundredths of a nautical mile, so they are written exactly */
+			int x = ((i%side)*CELL_SIZE*100)+100+random.nextInt(800);
+			int y = ((i/side)*CELL_SIZE*100)+100+random.nextInt(800);
+			config.println("PT: W" + i + "," + String.format("%d.%02d,%d.%02d", x/100, x%100, y/100, y%100) + ",f0c8,10,#a0a0a0");
+		}
+		for (int i=0; i<parameters.waypoints; i++) {
+			if (i%side < side-1 && i+1 < parameters.waypoints && random.nextDouble() < parameters.connectorDensity) {
+				config.println("CT: W" + i + ",W" + (i+1) + ",1,#606060");
+			}
+			if (i+side < parameters.waypoints && random.nextDouble() < parameters.connectorDensity) {
+				config.println("CT: W" + i + ",W" + (i+side) + ",1,#606060");
+			}
+		}
+	}
+	
+	/**
+	 * Writes the moving objects and their labels. No two moving objects have the same path and speed,
+	 * since the importer rejects such duplicates.
+	 */
+	private static void writeMovers(PrintWriter config, Parameters parameters, Random random) {
+		HashSet<String> routes = new HashSet<>();
+		String[] labels = new String[parameters.movers];
+		for (int i=0; i<parameters.movers; i++) {
+			String route = null;
+			for (int attempt=0; route == null || !routes.add(route); attempt++) {
+				if (attempt == MAX_ATTEMPTS) {
+					throw new IllegalArgumentException("Too many moving objects for the number of waypoints; could not give each object a unique path");
+				}
+				StringBuilder path = new StringBuilder();
+				int waypoint = random.nextInt(parameters.waypoints);
+				path.append("W").append(waypoint);
+				for (int p=1; p<parameters.pathLength; p++) {
+					/* Any waypoint other than the previous one */
+					waypoint = (waypoint+1+random.nextInt(parameters.waypoints-1))%parameters.waypoints;
+					path.append(":W").append(waypoint);
+				}
+				route = (200+random.nextInt(400)) + ",3,4," + path;
+			}
+			config.println("MV: M" + i + ",f072,#" + String.format("%06x", 0x404040+random.nextInt(0xbfbfbf)) + ",14," + route);
+			if (random.nextDouble() < parameters.labelRatio) {
+				labels[i] = "" + (char)('A'+random.nextInt(26)) + (char)('A'+random.nextInt(26)) + i;
+			}
+		}
+		for (int i=0; i<parameters.movers; i++) {
+			if (labels[i] != null) {
+				config.println("LB: M" + i + ",right,,#ffffff,12," + labels[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the masks and independent queries of each loop in random order. Each event starts
+	 * between 1 and 5 seconds after the previous one ends.
+	 */
+	private static void writeSchedule(PrintWriter config, Parameters parameters, int side, Random random) {
+		for (int loop=1; loop<=parameters.loops; loop++) {
+			int masks = parameters.masksPerLoop, queries = parameters.queriesPerLoop;
+			while (masks+queries > 0) {
+				String start = time(1000+random.nextInt(4000)), end = time(2000+random.nextInt(4000));
+				if (random.nextInt(masks+queries) < masks) {
+					config.println("MK: mask" + (parameters.masksPerLoop-masks+1) + ".png," + start + "," + end + "," + loop);
+					masks--;
+				} else {
+					int type = random.nextInt(QUERY_TYPES.length);
+					config.println("QR: " + QUERY_TYPES[type] + "," + start + "," + end + "," + (1+random.nextInt(side*CELL_SIZE-1)) + ","
+							+ (1+random.nextInt(side*CELL_SIZE-1)) + "," + QUERY_TEXT[type] + "," + (random.nextBoolean() ? "freeze" : "move") + ","
+							+ (random.nextBoolean() ? "mask" : "no-mask") + "," + loop + ",i");
+					queries--;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Formats a time in milliseconds as a configuration time value.
+	 */
+	private static String time(int milliseconds) {
+		return String.format("00:00:%02d:%03d", milliseconds/1000, milliseconds%1000);
+	}
+	
+	/**
+	 * Writes a placeholder mask image: a grey checkerboard showing the mask's number.
+	 */
+	private static void writeMaskImage(File file, int number) throws IOException {
+		BufferedImage image = new BufferedImage(MASK_WIDTH, MASK_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		for (int x=0; x<MASK_WIDTH; x+=50) {
+			for (int y=0; y<MASK_HEIGHT; y+=50) {
+				graphics.setColor(((x+y)/50)%2 == 0 ? Color.DARK_GRAY : Color.GRAY);
+				graphics.fillRect(x, y, 50, 50);
+			}
+		}
+		graphics.setColor(Color.WHITE);
+		graphics.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 72));
+		graphics.drawString("Mask " + number, MASK_WIDTH/2-130, MASK_HEIGHT/2+25);
+		graphics.dispose();
+		ImageIO.write(image, "png", file);
+	}
+	
+	/**
+	 * Generates a configuration from the command line, e.g.
+	 * "ConfigGenerator configs/large movers=10000 waypoints=2500 seed=7".
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: ConfigGenerator <configuration folder> [parameter=value ...]");
+			System.err.println("Parameters and their defaults: " + new Parameters());
+			return;
+		}
+		Parameters parameters = new Parameters();
+		for (int i=1; i<args.length; i++) {
+			String[] parameter = args[i].split("=", 2);
+			if (parameter.length != 2) {
+				System.err.println("Parameters must be given as name=value: " + args[i]);
+				System.exit(1);
+			}
+			parameters.set(parameter[0], parameter[1]);
+		}
+		File directory = new File(args[0]);
+		long start = System.nanoTime();
+		generate(directory, parameters);
+		System.out.println("Generated " + directory + " in " + (System.nanoTime()-start)/1000000 + " ms with " + parameters);
+	}
+}
@@ -33,8 +33,14 @@ import javafx.stage.Stage;
  */
 public class ConfigImportActivity extends Application {
 	
+	/* The running activity, which the experiment returns to at the end of each session in session loop mode */
+	private static ConfigImportActivity current;
+	
 	private Stage stage;
+	private Scene scene;
 	private StackPane root;
+	private ExperimentModel model; // The imported experiment
+	private TrackingActivity tracking; // The display of the imported experiment
 	
 	/**
 	 * Shows a dialog which prompts the experimenter to specify the 
@@ -54,14 +60,14 @@ public class ConfigImportActivity extends Application {
 	 * @throws Exception : If something goes wrong while the file is being read.
 	 */
 	private void importConfiguration() throws Exception {
-		ExperimentModel.reset();
 		File selection = showConfigSelector();
 		if (selection != null) {
 			try {
-				ConfigImporter.run(selection);
-				if (!ConfigImporter.errors.isEmpty()) {
+				ConfigImporter importer = new ConfigImporter(selection);
+				model = importer.run();
+				if (!importer.errors.isEmpty()) {
 					StringBuilder errors = new StringBuilder("The following errors were encountered in the selected configuration file:");
-					for (String error : ConfigImporter.errors) {
+					for (String error : importer.errors) {
 						errors.append("\n");
 						errors.append(error);
 					}
@@ -72,6 +78,9 @@ public class ConfigImportActivity extends Application {
 					alert.getDialogPane().setContent(errorDisplay);
 					alert.showAndWait();
 				} else {
+					// Build the experiment display while the subject number is entered
+					tracking = new TrackingActivity(model);
+					tracking.prepare();
 					buildSubjectNumberScreen();
 				}
 			} catch (FileNotFoundException e) {
@@ -134,8 +143,8 @@ public class ConfigImportActivity extends Application {
 	
 	private void storeParticipantNumber(String number) {
 		try {
-			ExperimentModel.participantId = number;
-			new TrackingActivity().start(stage);
+			ReportWriter.setSession(model.name, number);
+			tracking.start(stage);
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
@@ -146,11 +155,19 @@ public class ConfigImportActivity extends Application {
 	 */
 	@Override
 	public void start(Stage primaryStage) throws Exception {
+		current = this;
+		if (Monitor.enabled) {
+			try {
+				Monitor.start(Options.monitorPort);
+			} catch (IOException e) {
+				System.err.println("Could not start monitoring on port " + Options.monitorPort + " (" + e.getMessage() + "); continuing without monitoring");
+			}
+		}
 		stage = primaryStage;
 		stage.setTitle("MIT Tracker - Configuration");
 		root = new StackPane();
 		buildStartupScreen();
-		stage.setScene(new Scene(root, 300, 250));
+		stage.setScene(scene = new Scene(root, 300, 250));
 		stage.setOnCloseRequest((event) -> {
 			exit();
 		});
@@ -161,9 +178,51 @@ public class ConfigImportActivity extends Application {
 	 * Writes the report and closes the experiment
 	 */
 	public static void exit() {
-		ReportWriter.writeReport();
+		/* Finish the trajectory and mouse files if the program is closed during an experiment */
+		TrackingActivity.stopRecording();
+		/* No participant is set between sessions in session loop mode, and the last session has already been saved */
+		if (ReportWriter.participantId != null) {
+			saveSession();
+		}
+		ReportWriter.finishCollecting();
 		System.exit(0);
 	}
+	
+	/**
+	 * Ends the session of the current participant. In session loop mode the report is written and the
+	 * subject number screen is shown again for the next participant; otherwise the program closes.
+	 */
+	public static void endSession() {
+		/* Experiments run by a synthetic participant are not started from the subject number screen */
+		if (!Options.sessionLoop || current == null) {
+			exit();
+			return;
+		}
+		saveSession();
+		TrackingActivity.resetSession();
+		ReportWriter.reset();
+		ReportWriter.setSession(current.model.name, null);
+		SessionLog.current = new SessionLog();
+		Monitor.reset();
+		current.stage.setFullScreen(false);
+		current.stage.setScene(current.scene);
+		current.stage.sizeToScene();
+		current.buildSubjectNumberScreen();
+	}
+	
+	/**
+	 * Writes the report and session log of the current participant.
+	 */
+	private static void saveSession() {
+		ReportWriter.writeReport();
+		if (!SessionLog.current.isEmpty()) {
+			try {
+				SessionLog.current.save(new File(ReportWriter.getReportFileName("-session.log")));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
 
 	/**
 	 * Launches this activity.
@@ -10,6 +10,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import code.ExperimentModel.*;
 import code.ExperimentModel.MovingObjectLabel.Position;
@@ -35,38 +36,50 @@ public class ConfigImporter {
 	private static final String LABEL_PREFIX = "LB: ";
 	private static final String MASK_PREFIX = "MK: ";
 	private static final String QUERY_PREFIX = "QR: ";
+	private static final String SEPARATION_PREFIX = "SP: ";
 	private static final String IMG_DIR = "/images/";
 	/* Valid image formats */
 	private static final List<String> VALID_IMG_TYPES = Arrays.asList(new String[] {"jpg", "jpeg", "png" });
 	
 	/* Contents of configuration file mapped to line numbers */
-	private static HashMap<Integer, String> configLines = new HashMap<>();
+	private HashMap<Integer, String> configLines = new HashMap<>();
 	/* Errors encountered in configuration file */
-	public static ArrayList<String> errors = new ArrayList<>();
+	public ArrayList<String> errors = new ArrayList<>();
 	/* Current line number */
-	private static int lineNumber = 0;
+	private int lineNumber = 0;
 	
 	/* Configuration file directory */
-	private static File directory;
+	private File directory;
+	/* The model being built from the configuration */
+	private ExperimentModel model;
 	
 	/**
-	 * Given a path to a configuration directory, imports 
-	 * the configuration and creates a data model from it.
-	 * @param configPath : The path to the configuration.
+	 * Creates an importer for a configuration. Each importer holds its own state,
+	 * so several configurations can be imported at once on separate threads.
+	 * @param configDirectory : The directory containing the configuration file.
+	 */
+	public ConfigImporter(File configDirectory) {
+		directory = configDirectory;
+	}
+	
+	/**
+	 * Imports the configuration and creates a data model from it.
+	 * Any errors encountered in the config file are listed in the errors of this importer.
 	 * @return : An instance of ExperimentModel containing the
-	 * values imported from the specified configuration, or null if 
+	 * values imported from the configuration, which is incomplete if 
 	 * any errors were encountered in the config file.
 	 * @throws FileNotFound exception if the config file is not found in
 	 * the directory provided.
 	 * @throws IOException if something goes wrong while reading the file.
 	 */
-	public static void run(File configDirectory) throws FileNotFoundException, IOException {
-		directory = configDirectory;
+	public ExperimentModel run() throws FileNotFoundException, IOException {
+		model = new ExperimentModel();
 		readLines();
 		buildModel();
+		return model;
 	}
 	
-	private static void buildModel() {
+	private void buildModel() {
 		errors = new ArrayList<>();
 		ArrayList<Integer> lineNumberList = new ArrayList<>();
 		lineNumberList.addAll(configLines.keySet());
@@ -75,7 +88,7 @@ public class ConfigImporter {
 		
 		if (!lineNumbers.hasNext()) { report("File contains no values"); return; }
 		/* Import configuration name */
-		if ((ExperimentModel.name = configLines.get(lineNumber = lineNumbers.next())).isEmpty()) {
+		if ((model.name = configLines.get(lineNumber = lineNumbers.next())).isEmpty()) {
 			report("Configuration name may not be empty");
 		}
 		
@@ -88,21 +101,21 @@ public class ConfigImporter {
 			valid = false;
 		} else {
 			try {
-				if (((ExperimentModel.x = Float.parseFloat(mapValues[0])) < 0) || (ExperimentModel.y = Float.parseFloat(mapValues[1])) < 0) {
+				if (((model.x = Float.parseFloat(mapValues[0])) < 0) || (model.y = Float.parseFloat(mapValues[1])) < 0) {
 					report("Map dimensions must be greater than 0");
 					valid = false;
 				}
 			} catch (NumberFormatException e) { report("One or more map dimension values are not a number"); }
 			if (mapValues[2].startsWith("#") ) {
 				try {
-					ExperimentModel.mapColor = javafx.scene.paint.Color.valueOf(mapValues[2]);
+					model.mapColor = javafx.scene.paint.Color.valueOf(mapValues[2]);
 				} catch (IllegalArgumentException e) {
 					report("Map color value is not a valid color code");
 					valid = false;
 				}
 			} else {
 				String imageName = mapValues[2];
-				if (!(ExperimentModel.mapImage = new File(directory.toString() + IMG_DIR + imageName)).exists() || !ExperimentModel.mapImage.isFile()) {
+				if (!(model.mapImage = new File(directory.toString() + IMG_DIR + imageName)).exists() || !model.mapImage.isFile()) {
 					report("Image file " + imageName + " not found in the " + IMG_DIR + " folder of this configuration folder");
 					valid = false;
 				} else {
@@ -122,9 +135,9 @@ public class ConfigImporter {
 		if (!lineNumbers.hasNext()) { report("No values found after this line"); return; }
 		/* Import experiment loop count */
 		try {
-			if ((ExperimentModel.loopCount = Integer.parseInt(configLines.get(lineNumber = lineNumbers.next()))-1) >= 0) {
-				for (int i=0; i<=ExperimentModel.loopCount; i++) {
-					ExperimentModel.events.add(null);
+			if ((model.loopCount = Integer.parseInt(configLines.get(lineNumber = lineNumbers.next()))-1) >= 0) {
+				for (int i=0; i<=model.loopCount; i++) {
+					model.schedule.add(new ArrayList<>());
 				}
 			} else {
 				report("Experiment repeat count must be greater than 0");
@@ -139,7 +152,7 @@ public class ConfigImporter {
 			if (clickRadius <= 0 || clickRadius > 100) {
 				report("Click radius must be greater than 0 and no more than 100");
 			} else {
-				ExperimentModel.clickRadius = clickRadius;
+				model.clickRadius = clickRadius;
 			}
 		} catch (NumberFormatException e) {
 			report("Click radius must be a number");
@@ -170,7 +183,7 @@ public class ConfigImporter {
 					}
 					introReader.close();
 					introFileReader.close();
-					ExperimentModel.introduction = intro.toString();
+					model.introduction = intro.toString();
 				} catch (IOException e) {
 					report("Error reading from introduction file. Please close any text editors using the file and try again");
 				}
@@ -181,6 +194,21 @@ public class ConfigImporter {
 		if (lineNumbers.hasNext()) {
 			line = configLines.get(lineNumber = lineNumbers.next());
 		}
+		/* Import optional separation distance for conflict detection */
+		if (line.startsWith(SEPARATION_PREFIX)) {
+			try {
+				if ((model.separation = Double.parseDouble(line.replace(SEPARATION_PREFIX, ""))) <= 0) {
+					report("Separation distance must be greater than 0 nautical miles");
+				}
+			} catch (NumberFormatException e) {
+				report("Separation distance must be a numeric value");
+			}
+			if (lineNumbers.hasNext()) {
+				line = configLines.get(lineNumber = lineNumbers.next());
+			} else {
+				line = "";
+			}
+		}
 		/* Import waypoints and waypoint connectors */
 		while (line.startsWith(WAYPOINT_PREFIX) || line.startsWith(CONNECTOR_PREFIX)) {
 			valid = true;
@@ -190,7 +218,7 @@ public class ConfigImporter {
 					report("Waypoint data must contain either 6 values (for visible waypoints) or 3 values (for invisible waypoints)"); 
 				} else {
 					WaypointObject waypoint = new WaypointObject();
-					if (ExperimentModel.waypoints.containsKey(waypoint.name = waypointData[0])) {
+					if (model.waypoints.containsKey(waypoint.name = waypointData[0])) {
 						report("A waypoint with this name already exists");
 						valid = false;
 					}
@@ -222,10 +250,12 @@ public class ConfigImporter {
 						}
 					}
 					if (valid) {
-						if (waypoint.alreadyExists()) {
+						if (waypoint.alreadyExists(model)) {
 							report("A waypoint with these coordinates already exists");
 						} else {
-							ExperimentModel.waypoints.put(waypoint.name, waypoint);
+							waypoint.id = model.waypointsById.size();
+							model.waypointsById.add(waypoint);
+							model.waypoints.put(waypoint.name, waypoint);
 						}
 					}
 				}
@@ -237,8 +267,8 @@ public class ConfigImporter {
 					Connector connector = new Connector();
 					valid = true;
 					WaypointObject source;
-					if ((source = ExperimentModel.waypoints.get(connectorData[0])) == null
-							|| (connector.destination = ExperimentModel.waypoints.get(connectorData[1])) == null) 
+					if ((source = model.waypoints.get(connectorData[0])) == null
+							|| (connector.destination = model.waypoints.get(connectorData[1])) == null) 
 					{
 						report("One or both of the waypoints to be connected do not exist in this configuration");
 						valid = false;
@@ -282,8 +312,8 @@ public class ConfigImporter {
 		/* Import moving objects */
 		while (line.startsWith(MOVER_PREFIX)) {
 			String[] moverData = line.replace(MOVER_PREFIX, "").split(PRIMARY_SEPARATOR);
-			if (moverData.length != 8) {
-				report("Moving object data must contain exactly 8 values");
+			if (moverData.length != 8 && moverData.length != 9) {
+				report("Moving object data must contain either 8 values, or 9 values if an acceleration is given");
 			} else {
 				MovingObject mover = new MovingObject();
 				valid = true;
@@ -306,10 +336,16 @@ public class ConfigImporter {
 					report("Moving object size must be a numeric value");
 					valid = false;
 				}
+				/* Speed is either a single value or a list of values, one for each segment of the path */
+				String[] speeds = moverData[4].split(SECONDARY_SEPARATOR);
+				mover.speeds = new double[speeds.length];
 				try {
-					if ((mover.speed = Float.parseFloat(moverData[4])) < 0) {
-						report("Moving object speed must be greater than 0 knots");
-						valid = false;
+					for (int i=0; i<speeds.length; i++) {
+						if ((mover.speeds[i] = Float.parseFloat(speeds[i])) <= 0) {
+							report("Moving object speed must be greater than 0 knots");
+							valid = false;
+							break;
+						}
 					}
 				} catch (NumberFormatException e) {
 					report("Moving object speed must be a numeric value");
@@ -334,7 +370,7 @@ public class ConfigImporter {
 				}
 				String[] waypoints = moverData[7].split(SECONDARY_SEPARATOR);
 				for (String waypointName : waypoints) {
-					WaypointObject waypoint = ExperimentModel.waypoints.get(waypointName);
+					WaypointObject waypoint = model.waypoints.get(waypointName);
 					if (waypoint == null) {
 						report("The waypoint " + waypointName + " was not specified in this configuration");
 						valid = false;
@@ -349,14 +385,31 @@ public class ConfigImporter {
 				if (mover.pathPoints.size() < 2) {
 					report("At least 2 valid waypoints must be specified for each moving object");
 					valid = false;
+				} else if (mover.speeds.length != 1 && mover.speeds.length != mover.pathPoints.size()-1) {
+					report("Moving object must have either a single speed or one speed for each segment of its path");
+					valid = false;
+				}
+				if (moverData.length == 9) {
+					try {
+						if ((mover.acceleration = Float.parseFloat(moverData[8])) <= 0) {
+							report("Moving object acceleration must be greater than 0 knots per second");
+							valid = false;
+						}
+					} catch (NumberFormatException e) {
+						report("Moving object acceleration must be a numeric value");
+						valid = false;
+					}
 				}
 				if (valid) {
-					if (mover.alreadyExists()) {
+					if (mover.alreadyExists(model)) {
 						report("A moving object with the same speed and path already exists");
 					} else {
 						mover.x = mover.pathPoints.get(0).x;
 						mover.y = mover.pathPoints.get(0).y;
-						ExperimentModel.objects.put(mover.name, mover);
+						mover.speedProfile = new SpeedProfile(mover);
+						mover.id = model.objectsById.size();
+						model.objectsById.add(mover);
+						model.objects.put(mover.name, mover);
 					}
 				}
 			}
@@ -374,7 +427,7 @@ public class ConfigImporter {
 			} else {
 				valid = true;
 				MovingObjectLabel label = new MovingObjectLabel();
-				MovingObject mover = ExperimentModel.objects.get(labelData[0]);
+				MovingObject mover = model.objects.get(labelData[0]);
 				if (mover == null) {
 					report("The moving object " + labelData[0] + " was not specified in this configuration");
 					valid = false;
@@ -480,23 +533,17 @@ public class ConfigImporter {
 						}
 					}
 					try {
-						if ((maskEvent.loopNumber = Integer.parseInt(maskData[3])-1) < 0 || maskEvent.loopNumber > ExperimentModel.loopCount) {
+						if ((maskEvent.loopNumber = Integer.parseInt(maskData[3])-1) < 0 || maskEvent.loopNumber > model.loopCount) {
 							report("Screen mask loop number must be between 0 and the maximum loop count of the experiment");
+							valid = false;
 						}
 					} catch (NumberFormatException e) {
 						report("Screen mask loop number must be a whole number");
 						valid = false;
 					}
 					if (valid) {
-						SchedulableEvent event = ExperimentModel.events.get(maskEvent.loopNumber);
-						if (event == null) {
-							ExperimentModel.events.set(maskEvent.loopNumber, new GraphicalMaskObject(maskEvent));
-						} else {
-							while (event.next != null) {
-								event = event.next;
-							}
-							event.next = new GraphicalMaskObject(maskEvent);
-						}
+						model.screenMaskEvents.add(maskEvent);
+						model.schedule.get(maskEvent.loopNumber).add(maskEvent);
 					}
 				} 
 			} else {
@@ -538,8 +585,8 @@ public class ConfigImporter {
 						}
 					}
 					try {
-						if ((query.positionX = Float.parseFloat(queryData[3])) > ExperimentModel.x ||
-								(query.positionY = Float.parseFloat(queryData[4])) > ExperimentModel.y) {
+						if ((query.positionX = Float.parseFloat(queryData[3])) > model.x ||
+								(query.positionY = Float.parseFloat(queryData[4])) > model.y) {
 							report("Query must be positioned within map boundaries");
 							valid = false;
 						}
@@ -572,8 +619,9 @@ public class ConfigImporter {
 						valid = false;
 					}
 					try {
-						if ((query.loopNumber = Integer.parseInt(queryData[8])-1) < 0 || query.loopNumber > ExperimentModel.loopCount) {
+						if ((query.loopNumber = Integer.parseInt(queryData[8])-1) < 0 || query.loopNumber > model.loopCount) {
 							report("Query loop number must be between 0 and the maximum loop count of the experiment");
+							valid = false;
 						}
 					} catch (NumberFormatException e) {
 						report("Query loop number must be a numeric value");
@@ -585,41 +633,24 @@ public class ConfigImporter {
 					}
 					if (valid) {
  						if (queryData[9].equals("c")) {
- 							boolean validConcurrent = true;
-							SchedulableEvent event = ExperimentModel.events.get(query.loopNumber);
-							if (event == null) {
-								validConcurrent = false;
+							ArrayList<TimedEvent> loopEvents = model.schedule.get(query.loopNumber);
+							TimedEvent event = loopEvents.isEmpty() ? null : loopEvents.get(loopEvents.size()-1);
+							if (!(event instanceof ScreenMaskEvent)) {
+								report("Queries marked as \"concurrent\" must be preceeded in the config file by a screen mask appearance");
 							} else {
-								while (event.next != null) {
-									event = event.next;
-								}
-								if (!(event instanceof GraphicalMaskObject )) {
-									validConcurrent = false;
+								ScreenMaskEvent maskEvent = (ScreenMaskEvent)event;
+								long maskDuration = (long)(maskEvent.endTime-maskEvent.startTime);
+								if ((query.startTime > maskDuration) || (!query.wait && query.endTime - query.startTime > maskDuration)) {
+									report("Concurrent queries must start and end while the mask they appear over is still visible");
 								} else {
-									GraphicalMaskObject maskEvent = (GraphicalMaskObject)event;
-									if ((query.startTime > maskEvent.duration) || (!query.wait && query.endTime - query.startTime > maskEvent.duration)) {
-										report("Concurrent queries must start and end while the mask they appear over is still visible");
-									} else {
-										// Add mask delay to query delay (since both delayed actions will be initiated at the same time)
-										query.startTime += maskEvent.delay;
-										maskEvent.concurrentEvents.add(new GraphicalQueryObject(query));
-									}
+									// Add mask delay to query delay (since both delayed actions will be initiated at the same time)
+									query.startTime += (long)maskEvent.startTime;
+									maskEvent.concurrentQueries.add(query);
 								}
 							}
-							if (!validConcurrent) {
-								report("Queries marked as \"concurrent\" must be preceeded in the config file by a screen mask appearance");
-							}
 						} else {
-							ExperimentModel.queries.add(query);
-							SchedulableEvent event = ExperimentModel.events.get(query.loopNumber);
-							if (event == null) {
-								ExperimentModel.events.set(query.loopNumber, new GraphicalQueryObject(query));
-							} else {
-								while (event.next != null) {
-									event = event.next;
-								}
-								event.next = new GraphicalQueryObject(query);
-							}
+							model.queries.add(query);
+							model.schedule.get(query.loopNumber).add(query);
 						}
 					}
 				}
@@ -633,14 +664,14 @@ public class ConfigImporter {
 		if (lineNumbers.hasNext()) {
 			report("Unrecognized configuration data detected after mask and query tasks");
 		}
-		ExperimentModel.setLargestFontSize();
+		model.setLargestFontSize();
 	}
 	
 	/**
 	 * Parses a time value and returns the time in milliseconds, 
 	 * or -1 if the time value is invalid.
 	 */
-	private static double parseTime(String timeValueString) {
+	double parseTime(String timeValueString) {
 		String[] timeValues = timeValueString.split(SECONDARY_SEPARATOR);
 		if (timeValues.length != 4) { 
 			report("Four time values are required in the format hours:minutes:seconds:milliseconds");
@@ -679,7 +710,7 @@ public class ConfigImporter {
 	 * This method simplifies the reporting of errors found in the configuration file.
 	 * @param message : A message describing the error which was encountered.
 	 */
-	public static void report(String message) {
+	public void report(String message) {
 			errors.add("Line " + lineNumber + ": " + message + ".");
 	}
 	
@@ -690,7 +721,7 @@ public class ConfigImporter {
 	 * @throws ConfigException : If the configuration file is not found or is empty.
 	 * @throws IOException : If an error occurs while reading the config file which prevents it from being read.
 	 */
-	private static void readLines() throws FileNotFoundException, IOException {
+	private void readLines() throws FileNotFoundException, IOException {
 		configLines = new HashMap<>();
 		FileReader reader;
 		reader = new FileReader(directory + "/" + CONFIG_FILE_NAME);
@@ -709,4 +740,44 @@ public class ConfigImporter {
 			reader.close();
 		} catch (IOException e) {/* No need to inform the user; the file has already been read */}
 	}
+	
+	/**
+	 * Imports a configuration and returns the errors found in it.
+	 * @param configDirectory : The directory containing the configuration file.
+	 */
+	public static ArrayList<String> validate(File configDirectory) {
+		ConfigImporter importer = new ConfigImporter(configDirectory);
+		try {
+			importer.run();
+		} catch (FileNotFoundException e) {
+			importer.errors.add("No configuration file was found in this directory.");
+		} catch (IOException e) {
+			importer.errors.add("An error occurred while reading the configuration file: " + e.getMessage());
+		}
+		return importer.errors;
+	}
+	
+	/**
+	 * Validates the configurations named on the command line, importing them at the same time on separate threads,
+	 * and lists the errors found in each. Exits with status 1 if any configuration contains errors.
+	 * @param args : The paths of the configuration directories to validate.
+	 */
+	public static void main(String[] args) {
+		List<ArrayList<String>> results = Arrays.stream(args).parallel()
+				.map(path -> validate(new File(path)))
+				.collect(Collectors.toList());
+		boolean valid = true;
+		for (int i=0; i<args.length; i++) {
+			if (results.get(i).isEmpty()) {
+				System.out.println(args[i] + ": valid");
+			} else {
+				valid = false;
+				System.out.println(args[i] + ": " + results.get(i).size() + " errors");
+				results.get(i).forEach(error -> System.out.println("\t" + error));
+			}
+		}
+		if (!valid) {
+			System.exit(1);
+		}
+	}
 }
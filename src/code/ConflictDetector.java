@@ -0,0 +1,171 @@
+package code;
+
+import java.util.Arrays;
+
+import code.ExperimentModel.MovingObject;
+
+/**
+ * Detects conflicts, in which two moving objects come closer together than the separation distance
+ * of the experiment, and reports the start and end of each conflict. Object positions are read from the
+ * moving objects' map positions and checked once per frame using a grid whose cells are at least as wide as the
+ * separation distance, so that each object is only compared with the objects in neighbouring cells.
+ * A detector only uses the map positions it is given, so the display and any number of simulations
+ * (ExperimentSimulation) can each have their own.
+ */
+class ConflictDetector {
+	
+	/* Most cells along each side of the grid; cells are widened for maps which are very large compared to the separation */
+	private static final int MAX_CELLS = 256;
+	
+	/**
+	 * Receives the start and end of each conflict.
+	 */
+	interface Listener {
+		/**
+		 * @param first : The label, or name if it has no label, of the first object in the conflict.
+		 * @param second : The label, or name, of the second object.
+		 * @param started : True if the conflict started, false if it ended.
+		 * @param distance : The distance between the objects, in nautical miles.
+		 */
+		void conflict(String first, String second, boolean started, double distance);
+	}
+	
+	private MoverState mapPositions;
+	private Listener listener;
+	private String[] names;
+	private double separation; // Nautical miles
+	
+	/* The grid: objects are sorted by cell, with the objects in each cell listed from cellStart[cell] to cellStart[cell+1] */
+	private int columns, rows;
+	private double cellSize; // Nautical miles
+	private int[] cellStart;
+	private int[] cellFill;
+	private int[] cellObjects;
+	private int[] objectColumn, objectRow;
+	
+	/* Pairs of objects in conflict, sorted and encoded as (first object index << 32) | second object index */
+	private long[] conflicts = new long[64];
+	private int conflictCount = 0;
+	private long[] previousConflicts = new long[64];
+	private int previousConflictCount = 0;
+	
+	/**
+	 * Creates a conflict detector for a set of moving objects.
+	 * @param mapPositions : The map positions of the moving objects, which are updated by the caller before each update().
+	 * @param mapWidth : The width of the map, in nautical miles.
+	 * @param mapHeight : The height of the map, in nautical miles.
+	 * @param separation : The minimum distance which must be kept between moving objects, in nautical miles.
+	 * @param listener : Receives the start and end of each conflict, on the thread which calls update() and stop().
+	 */
+	public ConflictDetector(MoverState mapPositions, double mapWidth, double mapHeight, double separation, Listener listener) {
+		this.mapPositions = mapPositions;
+		this.separation = separation;
+		this.listener = listener;
+		int count = mapPositions.objects.length;
+		names = new String[count];
+		for (int i=0; i<count; i++) {
+			MovingObject object = mapPositions.objects[i];
+			names[i] = object.label != null ? object.label.value : object.name;
+		}
+		cellSize = Math.max(separation, Math.max(mapWidth, mapHeight)/MAX_CELLS);
+		columns = Math.max(1, (int)Math.ceil(mapWidth/cellSize));
+		rows = Math.max(1, (int)Math.ceil(mapHeight/cellSize));
+		cellStart = new int[(columns*rows)+1];
+		cellFill = new int[columns*rows];
+		cellObjects = new int[count];
+		objectColumn = new int[count];
+		objectRow = new int[count];
+	}
+	
+	/**
+	 * Finds all conflicts at the objects' current positions and reports conflicts which have started or ended
+	 * since the last update. Must be called once per frame, after the map positions are updated.
+	 */
+	public void update() {
+		sortIntoCells();
+		conflictCount = 0;
+		for (int i=0; i<objectColumn.length; i++) {
+			/* Objects in conflict are never more than one cell apart, since cells are at least as wide as the separation */
+			for (int row=Math.max(0, objectRow[i]-1); row<=Math.min(rows-1, objectRow[i]+1); row++) {
+				for (int column=Math.max(0, objectColumn[i]-1); column<=Math.min(columns-1, objectColumn[i]+1); column++) {
+					int cell = (row*columns)+column;
+					for (int k=cellStart[cell]; k<cellStart[cell+1]; k++) {
+						int j = cellObjects[k];
+						/* Each pair is found from both objects; only record it from the first */
+						if (j > i && distance(i, j) < separation) {
+							if (conflictCount == conflicts.length) {
+								conflicts = Arrays.copyOf(conflicts, conflictCount*2);
+							}
+							conflicts[conflictCount++] = ((long)i << 32) | j;
+						}
+					}
+				}
+			}
+		}
+		Arrays.sort(conflicts, 0, conflictCount);
+		/* Compare the sorted lists of current and previous conflicts to find those which started or ended */
+		int current = 0, previous = 0;
+		while (current < conflictCount || previous < previousConflictCount) {
+			if (previous == previousConflictCount || (current < conflictCount && conflicts[current] < previousConflicts[previous])) {
+				reportConflict(conflicts[current++], true);
+			} else if (current == conflictCount || previousConflicts[previous] < conflicts[current]) {
+				reportConflict(previousConflicts[previous++], false);
+			} else {
+				current++;
+				previous++;
+			}
+		}
+		long[] swap = previousConflicts;
+		previousConflicts = conflicts;
+		previousConflictCount = conflictCount;
+		conflicts = swap.length >= previousConflicts.length ? swap : new long[previousConflicts.length];
+	}
+	
+	/**
+	 * Reports the end of all ongoing conflicts.
+	 */
+	public void stop() {
+		for (int i=0; i<previousConflictCount; i++) {
+			reportConflict(previousConflicts[i], false);
+		}
+		previousConflictCount = 0;
+	}
+	
+	/**
+	 * Sorts the objects into the cells of the grid at their current map positions. Objects off the map
+	 * are placed in the nearest cell on its edge, which keeps objects within the separation distance of each other
+	 * no more than one cell apart.
+	 */
+	private void sortIntoCells() {
+		Arrays.fill(cellStart, 0);
+		for (int i=0; i<objectColumn.length; i++) {
+			objectColumn[i] = Math.max(0, Math.min(columns-1, (int)Math.floor(mapPositions.getX(i)/cellSize)));
+			objectRow[i] = Math.max(0, Math.min(rows-1, (int)Math.floor(mapPositions.getY(i)/cellSize)));
+			cellStart[(objectRow[i]*columns)+objectColumn[i]+1]++;
+		}
+		for (int cell=0; cell<cellFill.length; cell++) {
+			cellStart[cell+1] += cellStart[cell];
+			cellFill[cell] = cellStart[cell];
+		}
+		for (int i=0; i<objectColumn.length; i++) {
+			cellObjects[cellFill[(objectRow[i]*columns)+objectColumn[i]]++] = i;
+		}
+	}
+	
+	/**
+	 * Returns the distance between two objects at their current map positions, in nautical miles.
+	 */
+	private double distance(int first, int second) {
+		double dx = mapPositions.getX(first)-mapPositions.getX(second);
+		double dy = mapPositions.getY(first)-mapPositions.getY(second);
+		return Math.sqrt((dx*dx)+(dy*dy));
+	}
+	
+	/**
+	 * Reports the start or end of a conflict between a pair of objects.
+	 */
+	private void reportConflict(long pair, boolean started) {
+		int first = (int)(pair >>> 32), second = (int)pair;
+		listener.conflict(names[first], names[second], started, distance(first, second));
+	}
+}
@@ -0,0 +1,226 @@
+package code;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import code.SessionLog.Type;
+
+/**
+ * Receives the events of every station in a lab from their CollectorSinks and merges them into a single
+ * session store: a CSV file with one row per event, identifying the station, run, experiment and participant of each.
+ * Rows are written as soon as each batch arrives. Each station run is handled by its own thread, and the sequence
+ * number of the next event needed from each run is kept so that batches which are sent again after a connection
+ * failure are not stored twice. When the collector is restarted, these sequence numbers are read back from the store.
+ *
+ * Run this class with a port number, and optionally the store file, to start a collector, e.g.
+ * "java -cp Tracker.jar code.EventCollector 7070 lab-events.csv".
+ */
+public class EventCollector {
+	
+	private static final String HEADER = "Station,Run,Sequence,Experiment,Participant,Time (nanoseconds),Event Type,Flag,Value A,Value B,Text,Second Text";
+	
+	private final PrintWriter store;
+	/* The sequence number of the next event needed from each station run, keyed by station and run ID */
+	private final ConcurrentHashMap<String, Long> needed = new ConcurrentHashMap<>();
+	
+	/**
+	 * Opens a session store, reading the sequence numbers of the events already stored in it.
+	 * @param file : The store file, which is created if it does not exist.
+	 * @throws IOException : If the store cannot be read or written.
+	 */
+	public EventCollector(File file) throws IOException {
+		boolean exists = file.isFile() && file.length() > 0;
+		if (exists) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+				reader.readLine();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = parseFields(line, 3);
+					try {
+						if (fields != null) {
+							needed.merge(fields[0] + "/" + fields[1], Long.parseLong(fields[2])+1, Math::max);
+						}
+					} catch (NumberFormatException e) {/* Continues a quoted line break */}
+				}
+			}
+		}
+		store = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file, true)), StandardCharsets.UTF_8));
+		if (!exists) {
+			store.println(HEADER);
+			store.flush();
+		}
+	}
+	
+	/**
+	 * Accepts connections from stations until the program is closed.
+	 * @param port : The port to listen on.
+	 */
+	public void listen(int port) throws IOException {
+		try (ServerSocket server = new ServerSocket(port)) {
+			System.out.println("Collecting events on port " + server.getLocalPort());
+			while (true) {
+				Socket socket = server.accept();
+				Thread receiver = new Thread(() -> receive(socket), "Receiver " + socket.getRemoteSocketAddress());
+				receiver.setDaemon(true);
+				receiver.start();
+			}
+		}
+	}
+	
+	/**
+	 * Receives batches from one station run and stores their events until the connection is closed.
+	 */
+	private void receive(Socket socket) {
+		String key = null;
+		try (Socket connection = socket) {
+			connection.setTcpNoDelay(true);
+			DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+			if (input.readInt() != CollectorSink.MAGIC) {
+				System.err.println(connection.getRemoteSocketAddress() + " is not a tracker station");
+				return;
+			}
+			String station = input.readUTF();
+			long run = input.readLong();
+			key = station + "/" + run;
+			System.out.println("Station " + station + " connected from " + connection.getRemoteSocketAddress());
+			output.writeLong(needed.getOrDefault(key, 0L));
+			output.flush();
+			while (true) {
+				byte[] batch = new byte[input.readInt()];
+				input.readFully(batch);
+				long next = store(station, run, key, batch);
+				output.writeLong(next);
+				output.flush();
+			}
+		} catch (IOException e) {
+			if (key != null) {
+				System.out.println("Station " + key + " disconnected");
+			}
+		}
+	}
+	
+	/**
+	 * Writes the events of a batch which have not already been stored to the store. The store is locked while the
+	 * next needed event is checked and updated, so that a batch sent again on a new connection while the old one
+	 * is still open is not stored twice.
+	 * @return : The sequence number of the next event needed from the station run.
+	 */
+	private long store(String station, long run, String key, byte[] data) throws IOException {
+		DataInputStream batch = new DataInputStream(new ByteArrayInputStream(data));
+		long first = batch.readLong();
+		int count = batch.readInt();
+		String experiment = batch.readUTF();
+		String participant = batch.readUTF();
+		String[] rows = new String[count];
+		for (int i=0; i<count; i++) {
+			long time = batch.readLong();
+			Type type = Type.values()[batch.readByte()];
+			boolean flag = batch.readBoolean();
+			double a = batch.readDouble();
+			double b = batch.readDouble();
+			String text = batch.readUTF();
+			String secondText = batch.readUTF();
+			rows[i] = new StringBuilder().append(quote(station)).append(',').append(run).append(',').append(first+i).append(',')
+			.append(quote(experiment)).append(',').append(quote(participant)).append(',').append(time).append(',')
+			.append(type.name()).append(',').append(flag).append(',').append(a).append(',').append(b).append(',')
+			.append(quote(text)).append(',').append(quote(secondText)).append(System.lineSeparator()).toString();
+		}
+		synchronized (store) {
+			long next = needed.getOrDefault(key, 0L);
+			/* Events before the next needed event were stored before the connection failed */
+			for (int i=0; i<count; i++) {
+				if (first+i >= next) {
+					store.write(rows[i]);
+				}
+			}
+			store.flush();
+			next = Math.max(next, first+count);
+			needed.put(key, next);
+			return next;
+		}
+	}
+	
+	/**
+	 * Quotes a text value for the store if it contains a comma, quote or line break.
+	 */
+	static String quote(String value) {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			return value;
+		}
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+	
+	/**
+	 * Reads the first fields of a row of the store.
+	 * @param line : The row.
+	 * @param count : The number of fields to read.
+	 * @return : The fields, or null if the row has fewer fields, e.g. because it continues a quoted line break.
+	 */
+	static String[] parseFields(String line, int count) {
+		String[] fields = new String[count];
+		int position = 0;
+		for (int i=0; i<count; i++) {
+			if (position > line.length()) {
+				return null;
+			}
+			StringBuilder field = new StringBuilder();
+			if (position < line.length() && line.charAt(position) == '"') {
+				position++;
+				while (true) {
+					if (position >= line.length()) {
+						return null;
+					}
+					char c = line.charAt(position++);
+					if (c == '"') {
+						if (position < line.length() && line.charAt(position) == '"') {
+							field.append('"');
+							position++;
+						} else {
+							break;
+						}
+					} else {
+						field.append(c);
+					}
+				}
+			} else {
+				int end = line.indexOf(',', position);
+				field.append(line, position, end < 0 ? line.length() : end);
+				position = end < 0 ? line.length() : end;
+			}
+			if (position < line.length() && line.charAt(position) != ',') {
+				return null;
+			}
+			position++;
+			fields[i] = field.toString();
+		}
+		return fields;
+	}
+	
+	/**
+	 * Starts a collector.
+	 * @param args : The port to listen on, and optionally the store file (collected-events.csv by default).
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: EventCollector <port> [store file]");
+			return;
+		}
+		new EventCollector(new File(args.length > 1 ? args[1] : "collected-events.csv")).listen(Integer.parseInt(args[0]));
+	}
+}
@@ -1,6 +1,7 @@
 package code;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 
@@ -8,47 +9,32 @@ import javafx.scene.paint.Color;
 
 /**
  * This class represents the configuration for an MIT experiment.
+ * Each imported configuration is a separate instance, so several configurations can be imported and validated
+ * at once on separate threads. Only one experiment can be displayed and reported per process, since the display
+ * (TrackingActivity) and the report (ReportWriter) are shared by the whole program; experiments are run at the
+ * same time in separate processes, as the stress test does. Experiments can be simulated without a display,
+ * many at once in one process, by ExperimentSimulation.
  * @author Graham Home
  */
 public class ExperimentModel {
 	
-	public static String name;
-	public static String participantId;
-	public static float x, y, largestFontSize;
-	public static int loopCount;
-	public static javafx.scene.paint.Color mapColor;
-	public static File mapImage;
-	public static double duration;
-	public static double clickRadius;
-	public static String introduction;
-	public static HashMap<String, WaypointObject> waypoints = new HashMap<>();
-	public static HashMap<String, MovingObject> objects = new HashMap<>();
-	public static ArrayList<ScreenMaskEvent> screenMaskEvents = new ArrayList<>();
-	public static ArrayList<IdentityMaskEvent> identityMaskEvents = new ArrayList<>();
-	public static ArrayList<Query> queries = new ArrayList<>();
-	public static ArrayList<SchedulableEvent> events = new ArrayList<>();
-	static long startTime;
-	static String lastClickTime;
-	
-	/**
-	 * Resets the configuration to its initial state.
-	 */
-	public static void reset() {
-		name = null;
-		x = 0;
-		y = 0;
-		mapColor = null;
-		mapImage = null;
-		duration = 0;
-		clickRadius = 0;
-		largestFontSize = 0;
-		introduction = null;
-		waypoints = new HashMap<>();
-		objects = new HashMap<>();
-		screenMaskEvents = new ArrayList<>();
-		queries = new ArrayList<>();
-		events = new ArrayList<>();
-	}
+	public String name;
+	public float x, y, largestFontSize;
+	public int loopCount;
+	public javafx.scene.paint.Color mapColor;
+	public File mapImage;
+	public double duration;
+	public double clickRadius;
+	public double separation; // Minimum distance between moving objects in nautical miles, or 0 if not monitored
+	public String introduction;
+	public HashMap<String, WaypointObject> waypoints = new HashMap<>();
+	public HashMap<String, MovingObject> objects = new HashMap<>();
+	public ArrayList<WaypointObject> waypointsById = new ArrayList<>(); // Waypoints in the order of their IDs
+	public ArrayList<MovingObject> objectsById = new ArrayList<>(); // Moving objects in the order of their IDs
+	public ArrayList<ScreenMaskEvent> screenMaskEvents = new ArrayList<>();
+	public ArrayList<IdentityMaskEvent> identityMaskEvents = new ArrayList<>();
+	public ArrayList<Query> queries = new ArrayList<>();
+	public ArrayList<ArrayList<TimedEvent>> schedule = new ArrayList<>(); // Mask events and independent queries of each loop, in order
 	
 	/**
 	 * Contains attributes common to all objects depicted as text or icons.
@@ -65,6 +51,7 @@ public class ExperimentModel {
 	 */
 	public static class WaypointObject extends TextObject {
 		public String name;
+		public int id; // Position of the waypoint among the waypoints of its experiment, or of the moving object among the moving objects
 		public ArrayList<Connector> connectors = new ArrayList<>();
 		
 		/**
@@ -80,11 +67,20 @@ public class ExperimentModel {
 			}
 		}
 		
+		/**
+		 * Returns a hash code consistent with equals(), which compares coordinates.
+		 */
+		@Override
+		public int hashCode() {
+			return (31*Float.hashCode(x))+Float.hashCode(y);
+		}
+		
 		/**
 		 * Determines if a waypoint is equal to any other.
+		 * @param model : The experiment containing the other waypoints.
 		 */
-		public boolean alreadyExists() {
-			return waypoints.values().stream().anyMatch(w -> this.equals(w));
+		public boolean alreadyExists(ExperimentModel model) {
+			return model.waypoints.values().stream().anyMatch(w -> this.equals(w));
 		}
 		
 		/**
@@ -108,10 +104,14 @@ public class ExperimentModel {
 	
 	/**
 	 * Represents a moving object, which is depicted as an icon and moves between a sequence of Waypoints.
+	 * The object may travel each segment of its path at a different speed, and may change speed gradually
+	 * at a fixed rate of acceleration.
 	 */
 	public static class MovingObject extends WaypointObject {
 		public int numDots;
-		public double speed;
+		public double[] speeds; // Speed in knots for each path segment, or a single speed for the whole path
+		public double acceleration = 0; // Rate of speed change in knots per second, or 0 to change speed instantly
+		public SpeedProfile speedProfile;
 		public float leaderLength;
 		public ArrayList<WaypointObject> pathPoints = new ArrayList<>();
 		public MovingObjectLabel label;
@@ -121,10 +121,11 @@ public class ExperimentModel {
 		
 		/**
 		 * Determines if one MovingObject is equal to any other by comparing their speeds and paths.
+		 * @param model : The experiment containing the other moving objects.
 		 */
-		public boolean alreadyExists() {
-			for (MovingObject object : objects.values()) {
-				if (object.speed == speed && object.pathPoints.size() == pathPoints.size()) {
+		public boolean alreadyExists(ExperimentModel model) {
+			for (MovingObject object : model.objects.values()) {
+				if (Arrays.equals(object.speeds, speeds) && object.acceleration == acceleration && object.pathPoints.size() == pathPoints.size()) {
 					boolean exists = true;
 					Iterator<WaypointObject> pathPointsIterator1 = object.pathPoints.iterator();
 					Iterator<WaypointObject> pathPointsIterator2 = pathPoints.iterator();
@@ -138,6 +139,114 @@ public class ExperimentModel {
 			}
 			return false;
 		}
+		
+		/**
+		 * Returns the speed of the object on a segment of its path.
+		 * @param segment : The index of the path segment, where segment 0 leads from the first to the second waypoint.
+		 */
+		public double getSpeed(int segment) {
+			return speeds.length == 1 ? speeds[0] : speeds[segment];
+		}
+		
+		/**
+		 * Determines whether the object travels its entire path at one speed.
+		 */
+		public boolean hasConstantSpeed() {
+			return speeds.length == 1 || Arrays.stream(speeds).allMatch(s -> s == speeds[0]);
+		}
+	}
+	
+	/**
+	 * The motion of a moving object along its path, precomputed as a table of the distance travelled at
+	 * evenly spaced points in time, so that the object's progress at any moment can be looked up rather than calculated.
+	 */
+	public static class SpeedProfile {
+		public static final int SAMPLES = 1024;
+		public double duration; // Time taken to travel the whole path, in milliseconds
+		public double length; // Length of the whole path, in nautical miles
+		public double[] segmentLengths; // Length of each path segment, in nautical miles
+		public float[] progress = new float[SAMPLES]; // Fraction of the path length travelled at each sample time
+		
+		/**
+		 * Simulates a moving object's travel along its path and records its progress at evenly spaced times.
+		 * Within each segment the object accelerates or decelerates from its previous speed towards the
+		 * speed of the segment, then holds that speed until the end of the segment.
+		 * @param object : The moving object, whose path and speeds have already been validated.
+		 */
+		public SpeedProfile(MovingObject object) {
+			int segments = object.pathPoints.size()-1;
+			segmentLengths = new double[segments];
+			/* Each segment is travelled in at most two phases: a change of speed followed by a constant speed */
+			double[] phaseStartTimes = new double[segments*2], phaseStartDistances = new double[segments*2];
+			double[] phaseStartSpeeds = new double[segments*2], phaseAccelerations = new double[segments*2];
+			int phaseCount = 0;
+			double time = 0, distance = 0, speed = object.getSpeed(0); // Seconds, nautical miles, knots
+			for (int i=0; i<segments; i++) {
+				WaypointObject from = object.pathPoints.get(i), to = object.pathPoints.get(i+1);
+				double remaining = (segmentLengths[i] = Math.sqrt(Math.pow(to.x-from.x,2)+Math.pow(to.y-from.y,2)));
+				double target = object.getSpeed(i);
+				if (object.acceleration > 0 && speed != target) {
+					double rate = speed < target ? object.acceleration : -object.acceleration;
+					double changeTime = (target-speed)/rate;
+					double changeDistance = ((speed+target)/2)*changeTime/3600;
+					phaseStartTimes[phaseCount] = time;
+					phaseStartDistances[phaseCount] = distance;
+					phaseStartSpeeds[phaseCount] = speed;
+					phaseAccelerations[phaseCount++] = rate;
+					if (changeDistance >= remaining) {
+						/* The segment ends before the target speed is reached */
+						double endSpeed = Math.sqrt((speed*speed)+(2*rate*remaining*3600));
+						time += (endSpeed-speed)/rate;
+						distance += remaining;
+						speed = endSpeed;
+						continue;
+					}
+					time += changeTime;
+					distance += changeDistance;
+					remaining -= changeDistance;
+				}
+				speed = target;
+				phaseStartTimes[phaseCount] = time;
+				phaseStartDistances[phaseCount] = distance;
+				phaseStartSpeeds[phaseCount] = speed;
+				phaseAccelerations[phaseCount++] = 0;
+				time += remaining*3600/speed;
+				distance += remaining;
+			}
+			duration = time*1000;
+			length = distance;
+			/* Sample the distance travelled at evenly spaced times */
+			int phase = 0;
+			for (int i=0; i<SAMPLES; i++) {
+				double sampleTime = time*i/(SAMPLES-1);
+				while (phase < phaseCount-1 && phaseStartTimes[phase+1] <= sampleTime) {
+					phase++;
+				}
+				double elapsed = sampleTime-phaseStartTimes[phase];
+				double travelled = phaseStartDistances[phase] + 
+						(((phaseStartSpeeds[phase]*elapsed)+(0.5*phaseAccelerations[phase]*elapsed*elapsed))/3600);
+				progress[i] = (float)Math.min(1, travelled/length);
+			}
+			progress[SAMPLES-1] = 1;
+		}
+		
+		/**
+		 * Looks up the fraction of the path length travelled after a given fraction of the travel time.
+		 */
+		public double progressAt(double timeFraction) {
+			return lookup(progress, timeFraction);
+		}
+		
+		/**
+		 * Looks up a value in a table of samples taken at evenly spaced times, interpolating between the nearest samples.
+		 * @param table : The sampled values.
+		 * @param timeFraction : The time at which to look up the value, as a fraction of the time covered by the table.
+		 */
+		public static double lookup(float[] table, double timeFraction) {
+			double position = Math.min(1, Math.max(0, timeFraction))*(table.length-1);
+			int sample = Math.min((int)position, table.length-2);
+			return table[sample]+((table[sample+1]-table[sample])*(position-sample));
+		}
 	}
 	
 	/**
@@ -172,18 +281,26 @@ public class ExperimentModel {
 	}
 	
 	/**
-	 * Represents a "screen mask event", in which an image appears over the map at a specific time for a specific duration.
+	 * Contains attributes common to all events which occur at a specific time during a loop of the experiment.
 	 */
-	public static class ScreenMaskEvent {
-		public File image;
+	public abstract static class TimedEvent {
 		public double startTime, endTime;
 		public int loopNumber;
+	}
+	
+	/**
+	 * Represents a "screen mask event", in which an image appears over the map at a specific time for a specific duration.
+	 */
+	public static class ScreenMaskEvent extends TimedEvent {
+		public File image;
+		public ArrayList<Query> concurrentQueries = new ArrayList<>(); // Queries which appear over the mask
 		
 		/**
 		 * Determines if one MaskEvent conflicts (overlaps) with any other by comparing their start and end times.
+		 * @param model : The experiment containing the other mask events.
 		 */
-		public boolean conflictsWithOther() {
-			return screenMaskEvents.stream().anyMatch(e -> ((startTime < e.startTime) && (endTime > e.startTime)) ||
+		public boolean conflictsWithOther(ExperimentModel model) {
+			return model.screenMaskEvents.stream().anyMatch(e -> ((startTime < e.startTime) && (endTime > e.startTime)) ||
 					((startTime > e.endTime) && (endTime < e.startTime)));
 		}
 	}
@@ -192,9 +309,7 @@ public class ExperimentModel {
 	 * Represents an "identity mask event", in which the labels of the moving objects are blacked out
 	 * until they detect a mouse-over event.
 	 */
-	public static class IdentityMaskEvent {
-		public double startTime, endTime;
-		public int loopNumber;
+	public static class IdentityMaskEvent extends TimedEvent {
 	}
 	
 	/**
@@ -203,20 +318,20 @@ public class ExperimentModel {
 	 * @author Graham
 	 *
 	 */
-	public static class Query {
+	public static class Query extends TimedEvent {
 		public String text;
-		public double startTime, endTime, responseTime;
+		public double responseTime; // Time taken to respond after the query appeared, in milliseconds
 		public boolean wait = false;
-		public int loopNumber;
 		public boolean freeze = false; // Whether or not the moving objects should be frozen during the query
 		public float positionX, positionY;
 		public boolean maskIdentities = false;
 		
 		/**
 		 * Determines if one Query conflicts (overlaps) with any other by comparing their start and end times.
+		 * @param model : The experiment containing the other queries.
 		 */
-		public boolean conflictsWithOther() {
-			return queries.stream().anyMatch(e -> 
+		public boolean conflictsWithOther(ExperimentModel model) {
+			return model.queries.stream().anyMatch(e -> 
 					((!e.wait) && ((startTime < e.startTime) && (endTime > e.startTime))) ||
 					((!wait) && ((startTime > e.endTime) && (endTime < e.startTime))));
 		}
@@ -224,6 +339,13 @@ public class ExperimentModel {
 		public void setResponseTime(double time) {
 			responseTime = time;
 		}
+		
+		/**
+		 * Discards the participant's response, so the query can be shown to another participant.
+		 */
+		public void clearResponse() {
+			responseTime = 0;
+		}
 	}
 	
 	public static class FindQuery extends Query {
@@ -235,6 +357,14 @@ public class ExperimentModel {
 			this.y = y;
 			super.setResponseTime(time);
 		}
+		
+		@Override
+		public void clearResponse() {
+			super.clearResponse();
+			x = 0;
+			y = 0;
+			nearbyObjects.clear();
+		}
 	}
 	
 	public static class TextResponseQuery extends Query {
@@ -244,6 +374,12 @@ public class ExperimentModel {
 			this.value = value;
 			super.setResponseTime(time);
 		}
+		
+		@Override
+		public void clearResponse() {
+			super.clearResponse();
+			value = null;
+		}
 	}
 	
 	public static class BinaryQuery extends Query {
@@ -253,6 +389,12 @@ public class ExperimentModel {
 			this.response = result;
 			super.setResponseTime(time);
 		}
+		
+		@Override
+		public void clearResponse() {
+			super.clearResponse();
+			response = null;
+		}
 	}
 	
 	
@@ -260,7 +402,7 @@ public class ExperimentModel {
 	/**
 	 * Determines the font size of the largest icon in the experimental model.
 	 */
-	public static void setLargestFontSize() {
+	public void setLargestFontSize() {
 		waypoints.values().stream().forEach(w -> { if (w.size > largestFontSize) { largestFontSize = w.size; } });
 		objects.values().stream().forEach(o -> { if (o.size > largestFontSize) { largestFontSize = o.size; } });
 	}
@@ -0,0 +1,373 @@
+package code;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+
+import code.ExperimentModel.FindQuery;
+import code.ExperimentModel.MovingObject;
+import code.ExperimentModel.Query;
+import code.ExperimentModel.ScreenMaskEvent;
+import code.ExperimentModel.TextResponseQuery;
+import code.ExperimentModel.TimedEvent;
+import code.SessionLog.Type;
+
+/**
+ * Runs an experiment without a display or a participant, and records the report events and scheduling decisions
+ * of a session in which the participant never responds, in a session log and a summary of its own.
+ * The display (TrackingActivity) and the report (ReportWriter) are shared by the whole program, so only one
+ * session can be shown and reported per process; a simulation keeps all of its state in its instance instead,
+ * so any number of experiments can be simulated at once on separate threads.
+ *
+ * Nothing waits for a clock: the simulation jumps from each appearance, removal, frame and loop end to the next.
+ * Events are scheduled, shown, skipped and expired as the display's SchedulableEvents are, and the moving objects
+ * are moved by their own MoverState, frozen while freezing queries are shown, and checked for conflicts once per frame.
+ * Since queries are never answered, queries which wait for a response stay shown until they are replaced or their
+ * loop ends, and the events after them in their loop are not executed. Objects start from their configured positions
+ * rather than from the positions of their icons on a screen, so conflicts may start and end a frame or so apart
+ * from those of a session.
+ */
+class ExperimentSimulation {
+	
+	/* Frames per second of session time at which the moving objects are moved and checked for conflicts */
+	private static final double FRAME_RATE = 60;
+	private static final long FRAME_INTERVAL = (long)(1000000000/FRAME_RATE); // Nanoseconds
+	
+	/**
+	 * An appearance or removal of an event, due at a session time.
+	 */
+	private static class Task {
+		long time; // Nanoseconds
+		long sequence; // Tasks due at the same time are run in the order in which they were scheduled
+		Runnable action;
+	}
+	
+	/**
+	 * A mask event or query, scheduled as the display's SchedulableEvent is.
+	 */
+	private class SimulatedEvent {
+		TimedEvent event;
+		SimulatedEvent next = null;
+		ArrayList<SimulatedEvent> concurrentEvents = new ArrayList<>();
+		long delay; // Milliseconds
+		long duration; // Milliseconds
+		boolean scheduledTermination = false;
+		boolean shown = false;
+		
+		SimulatedEvent(TimedEvent event) {
+			this.event = event;
+			delay = (long)event.startTime;
+			if (!(event instanceof Query) || !((Query)event).wait) {
+				duration = (long)(event.endTime-event.startTime);
+				scheduledTermination = true;
+			}
+		}
+		
+		String getDescription() {
+			return event instanceof ScreenMaskEvent ? "Mask " + ((ScreenMaskEvent)event).image.getName() : "Query " + ((Query)event).text;
+		}
+	}
+	
+	private ExperimentModel model;
+	/* The report events and scheduling decisions of the simulated session */
+	SessionLog log = new SessionLog();
+	SessionSummary summary = new SessionSummary();
+	private MoverState moverState;
+	private ConflictDetector conflictDetector;
+	private ArrayList<SimulatedEvent> events = new ArrayList<>(); // The first scheduled event of each loop
+	private PriorityQueue<Task> tasks = new PriorityQueue<>((first, second) ->
+			first.time != second.time ? Long.compare(first.time, second.time) : Long.compare(first.sequence, second.sequence));
+	private long taskCount = 0;
+	
+	private long time = 0; // Session time, in nanoseconds
+	private int loop = 0;
+	private SimulatedEvent activeQuery;
+	private long loopDuration; // Time taken by the slowest object to travel its path, in nanoseconds
+	private long loopStartTime;
+	/* Session time for which the objects have been frozen in the current loop, not counting the current freeze */
+	private long frozenTime;
+	private boolean frozen = false;
+	private long frozenSince;
+	private boolean ended = false;
+	
+	/**
+	 * Creates a simulation of an experiment.
+	 * @param model : The experiment, which has been imported without errors. The model is only read,
+	 * so one model may be simulated by several simulations at once.
+	 */
+	public ExperimentSimulation(ExperimentModel model) {
+		this.model = model;
+		log.experimentName = model.name;
+		log.participantId = "simulated";
+		MovingObject[] objects = model.objectsById.toArray(new MovingObject[0]);
+		float[] startX = new float[objects.length], startY = new float[objects.length];
+		double duration = 0;
+		for (int i=0; i<objects.length; i++) {
+			startX[i] = objects[i].x;
+			startY[i] = objects[i].y;
+			duration = Math.max(duration, objects[i].speedProfile.duration);
+		}
+		loopDuration = (long)(duration*1000000);
+		/* The map is drawn as a square, so the on-screen width of a nautical mile divided by its height is the map's height divided by its width */
+		moverState = new MoverState(objects, startX, startY, model.y/model.x);
+		if (model.separation > 0) {
+			conflictDetector = new ConflictDetector(moverState, model.x, model.y, model.separation,
+					(first, second, started, distance) -> report(Type.CONFLICT, started, distance, first, second));
+		}
+		for (ArrayList<TimedEvent> loopEvents : model.schedule) {
+			SimulatedEvent first = null, last = null;
+			for (TimedEvent event : loopEvents) {
+				SimulatedEvent scheduled = new SimulatedEvent(event);
+				if (event instanceof ScreenMaskEvent) {
+					((ScreenMaskEvent)event).concurrentQueries.forEach(q -> scheduled.concurrentEvents.add(new SimulatedEvent(q)));
+				}
+				if (first == null) {
+					first = scheduled;
+				} else {
+					last.next = scheduled;
+				}
+				last = scheduled;
+			}
+			events.add(first);
+		}
+	}
+	
+	/**
+	 * Simulates the whole experiment, from the press of the start button to the end of the last loop.
+	 * @return : True if the experiment ended, false if it stopped early because a query which freezes the objects
+	 * waits for a response, so the experiment would never end without one.
+	 */
+	public boolean run() {
+		report(Type.STATUS, true, 0, null, null);
+		startLoop();
+		long nextFrame = 0;
+		while (!ended) {
+			if (frozen && tasks.isEmpty()) {
+				return false;
+			}
+			long loopEnd = frozen ? Long.MAX_VALUE : loopStartTime+frozenTime+loopDuration;
+			Task task = tasks.peek();
+			if (task != null && task.time <= Math.min(loopEnd, nextFrame)) {
+				tasks.poll();
+				time = task.time;
+				task.action.run();
+			} else if (loopEnd <= nextFrame) {
+				time = loopEnd;
+				finishLoop();
+			} else {
+				time = nextFrame;
+				nextFrame += FRAME_INTERVAL;
+				moverState.update(getTravelTime());
+				if (conflictDetector != null) {
+					conflictDetector.update();
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the session time the simulation has reached, in nanoseconds.
+	 */
+	public long getTime() {
+		return time;
+	}
+	
+	/**
+	 * Returns the time since the objects started moving in the current loop, not counting the time they were frozen, in milliseconds.
+	 */
+	private double getTravelTime() {
+		return (time-loopStartTime-frozenTime-(frozen ? time-frozenSince : 0))/1000000.0;
+	}
+	
+	/**
+	 * Adds an event to the summary and the log, as the report writer does for each event of a session.
+	 */
+	private void report(Type type, boolean flag, double a, String text, String secondText) {
+		summary.add(time, type, flag, a, text);
+		log.record(time, type, flag, a, 0, secondText == null ? text : text + "\n" + secondText);
+	}
+	
+	/**
+	 * Runs an action after a period of session time. As in the display's scheduler, an action with a negative
+	 * delay is run as soon as possible, after the actions which are already due.
+	 * @param delay : The period, in milliseconds.
+	 */
+	private void schedule(Runnable action, long delay) {
+		Task task = new Task();
+		task.time = time+(Math.max(0, delay)*1000000);
+		task.sequence = taskCount++;
+		task.action = action;
+		tasks.add(task);
+	}
+	
+	/**
+	 * Reports the start of the current loop, starts the objects moving and executes the loop's first scheduled event.
+	 */
+	private void startLoop() {
+		report(Type.LOOP, false, loop+1, null, null);
+		loopStartTime = time;
+		frozenTime = 0;
+		frozen = false;
+		SimulatedEvent first = loop < events.size() ? events.get(loop) : null;
+		if (first != null) {
+			execute(first);
+		}
+	}
+	
+	/**
+	 * Ends the current loop, and starts the next loop or ends the experiment if the last loop has been completed.
+	 */
+	private void finishLoop() {
+		log.record(time, Type.LOOP_FINISHED, false, loop, 0, null);
+		frozen = false;
+		if (++loop > model.loopCount) {
+			if (conflictDetector != null) {
+				conflictDetector.stop();
+			}
+			report(Type.STATUS, false, 0, null, null);
+			ended = true;
+			return;
+		}
+		if (activeQuery != null) {
+			hide(activeQuery);
+		}
+		startLoop();
+	}
+	
+	/**
+	 * Schedules the appearance and removal of an event, and of the queries shown over it if it is a mask.
+	 */
+	private void execute(SimulatedEvent scheduled) {
+		log.record(time, Type.EVENT_SCHEDULED, false, scheduled.delay, scheduled.scheduledTermination ? scheduled.duration : -1, scheduled.getDescription());
+		schedule(() -> {
+			if (loop == scheduled.event.loopNumber) {
+				log.record(time, Type.EVENT_SHOWN, false, scheduled.event.loopNumber, 0, scheduled.getDescription());
+				if (activeQuery != null) {
+					hide(activeQuery);
+				}
+				show(scheduled);
+			} else {
+				log.record(time, Type.EVENT_SKIPPED, false, scheduled.event.loopNumber, 0, scheduled.getDescription());
+			}
+			if (scheduled.scheduledTermination) {
+				schedule(() -> {
+					log.record(time, Type.EVENT_EXPIRED, false, scheduled.event.loopNumber, 0, scheduled.getDescription());
+					hide(scheduled);
+					if (scheduled.next != null && scheduled.event.loopNumber == loop) {
+						execute(scheduled.next);
+					}
+				}, scheduled.duration);
+			}
+		}, scheduled.delay);
+		scheduled.concurrentEvents.forEach(this::execute);
+	}
+	
+	/**
+	 * Shows a mask or query.
+	 */
+	private void show(SimulatedEvent scheduled) {
+		if (scheduled.event instanceof ScreenMaskEvent) {
+			report(Type.MASK, true, 0, ((ScreenMaskEvent)scheduled.event).image.getName(), null);
+			return;
+		}
+		Query query = (Query)scheduled.event;
+		report(Type.QUERY, true, getQueryKind(query), query.text, null);
+		activeQuery = scheduled;
+		scheduled.shown = true;
+		if (query.maskIdentities) {
+			report(Type.IDENTITY_MASK, true, 0, null, null);
+		}
+		if (query.freeze) {
+			report(Type.FREEZE, true, 0, null, null);
+			if (!frozen) {
+				frozen = true;
+				frozenSince = time;
+			}
+		}
+	}
+	
+	/**
+	 * Hides a mask, and the queries shown over it, or a query.
+	 */
+	private void hide(SimulatedEvent scheduled) {
+		if (scheduled.event instanceof ScreenMaskEvent) {
+			scheduled.concurrentEvents.forEach(this::hide);
+			/* The display reports the removal of a mask once it has been taken off the screen, after its queries */
+			report(Type.MASK, false, 0, ((ScreenMaskEvent)scheduled.event).image.getName(), null);
+			return;
+		}
+		activeQuery = null;
+		if (scheduled.shown) {
+			scheduled.shown = false;
+			Query query = (Query)scheduled.event;
+			report(Type.QUERY, false, getQueryKind(query), query.text, null);
+			if (query.maskIdentities) {
+				report(Type.IDENTITY_MASK, false, 0, null, null);
+			}
+			if (query.freeze) {
+				report(Type.FREEZE, false, 0, null, null);
+				if (frozen) {
+					frozenTime += time-frozenSince;
+					frozen = false;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the kind of a query as it is reported: 0 for 'find' queries, 1 for 'text entry' queries and 2 for 'yes or no' queries.
+	 */
+	private static int getQueryKind(Query query) {
+		return query instanceof FindQuery ? 0 : query instanceof TextResponseQuery ? 1 : 2;
+	}
+	
+	/**
+	 * Imports and simulates a configuration, and saves the log and summary of the simulated session in the working
+	 * directory, named after the configuration directory.
+	 * @param configDirectory : The directory containing the configuration file.
+	 * @return : A line describing the outcome.
+	 */
+	private static String simulate(File configDirectory) {
+		try {
+			ConfigImporter importer = new ConfigImporter(configDirectory);
+			ExperimentModel model = importer.run();
+			if (!importer.errors.isEmpty()) {
+				return importer.errors.size() + " configuration errors; check it with ConfigImporter";
+			}
+			ExperimentSimulation simulation = new ExperimentSimulation(model);
+			boolean ended = simulation.run();
+			simulation.log.save(new File(configDirectory.getName() + "-simulated-session.log"));
+			simulation.summary.save(new File(configDirectory.getName() + "-simulated-summary.csv"));
+			String duration = String.format("%.1f", simulation.getTime()/1000000000.0);
+			return ended ? "ended after " + duration + " seconds"
+					: "stopped after " + duration + " seconds at a query which freezes the objects until it is answered";
+		} catch (IOException e) {
+			return "error: " + e.getMessage();
+		}
+	}
+	
+	/**
+	 * Simulates the configurations named on the command line at the same time on separate threads.
+	 * The log of each simulated session can be turned into a results file with SessionReplay.
+	 * Exits with status 1 if any configuration could not be simulated to its end.
+	 * @param args : The paths of the configuration directories to simulate.
+	 */
+	public static void main(String[] args) {
+		List<String> results = Arrays.stream(args).parallel()
+				.map(path -> simulate(new File(path)))
+				.collect(Collectors.toList());
+		boolean ended = true;
+		for (int i=0; i<args.length; i++) {
+			System.out.println(args[i] + ": " + results.get(i));
+			ended &= results.get(i).startsWith("ended");
+		}
+		if (!ended) {
+			System.exit(1);
+		}
+	}
+}
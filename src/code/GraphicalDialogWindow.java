@@ -6,6 +6,7 @@ import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
 import javafx.scene.control.TextArea;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
@@ -65,10 +66,21 @@ class GraphicalDialogWindow {
 			@Override
 			public void run() {
 				TrackingActivity.root.getChildren().addAll(background, window);
+				if (SyntheticParticipant.current != null) {
+					SyntheticParticipant.current.dialogShown(GraphicalDialogWindow.this);
+				}
 			}
 		});
 	}
 	
+	/**
+	 * Presses the dialog box's button, as a participant would. Must be called on the JavaFX thread.
+	 */
+	void press() {
+		actionButton.fireEvent(new MouseEvent(MouseEvent.MOUSE_RELEASED, 0, 0, 0, 0, MouseButton.PRIMARY, 1,
+				false, false, false, false, false, false, false, true, false, true, null));
+	}
+	
 	/**
 	 * Hides the dialog window.
 	 */
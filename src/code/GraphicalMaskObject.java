@@ -44,6 +44,11 @@ class GraphicalMaskObject extends SchedulableEvent {
 		concurrentEvents.forEach(e -> e.execute());
 	}
 	
+	@Override
+	public String getDescription() {
+		return "Mask " + maskEvent.image.getName();
+	}
+	
 	@Override
 	public void show() {
 		/* Position mask on screen over map */
@@ -67,5 +72,18 @@ class GraphicalMaskObject extends SchedulableEvent {
 		});
 		concurrentEvents.forEach(e -> e.hide());
 	}
+	
+	@Override
+	public void reset() {
+		super.reset();
+		/* Remove the mask if it was still shown when the session ended */
+		if (maskBackground != null) {
+			Rectangle background = maskBackground;
+			Platform.runLater(() -> {
+				TrackingActivity.root.getChildren().removeAll(background, mask);
+			});
+		}
+		concurrentEvents.forEach(e -> e.reset());
+	}
 		
 }
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 
 import code.ExperimentModel.MovingObject;
 import code.ExperimentModel.MovingObjectLabel;
+import code.ExperimentModel.SpeedProfile;
 import code.ExperimentModel.WaypointObject;
 import code.GraphicalStationaryObject;
 import javafx.animation.Interpolator;
@@ -11,6 +12,7 @@ import javafx.animation.PathTransition;
 import javafx.application.Platform;
 import javafx.event.EventHandler;
 import javafx.scene.control.Label;
+import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
@@ -54,7 +56,6 @@ class GraphicalMovingObject extends GraphicalObject {
 			TrackingActivity.root.getChildren().add(label);
 		}
 		generatePaths();
-		TrackingActivity.objects.put(object, this);
 	}
 	
 	/**
@@ -72,31 +73,31 @@ class GraphicalMovingObject extends GraphicalObject {
 			double[] coords = getLabelRelativePosition(graphicalIcon);
 			labelPath.getElements().add(new MoveTo(coords[0], coords[1]));
 		}
-		double distance = 0;
-		WaypointObject previous = pathPoints.get(0);
+		/* Track the on-screen length of each part of the path, starting with the lead-in to the first waypoint */
+		double[] screenLengths = new double[pathPoints.size()];
+		double previousX = graphicalIcon.getX(), previousY = graphicalIcon.getY();
 		/* Include all waypoints in object and label paths */
-		for (WaypointObject waypointObject : pathPoints) {
-			GraphicalStationaryObject waypoint = TrackingActivity.waypoints.get(waypointObject);
-			/* 
-			 * Calculate distance between the current & next waypoints in the path &
-			 * add it to the total distance travelled.
-			 */
-			distance += Math.sqrt(Math.pow(waypointObject.x-previous.x,2)+Math.pow(waypointObject.y-previous.y,2));
+		for (int i=0; i<pathPoints.size(); i++) {
+			GraphicalStationaryObject waypoint = TrackingActivity.waypoints[pathPoints.get(i).id];
+			screenLengths[i] = Math.sqrt(Math.pow(waypoint.x-previousX,2)+Math.pow(waypoint.y-previousY,2));
 			iconPath.getElements().add(new LineTo(waypoint.x, waypoint.y));
 			if (label != null) {
 				double[] coords = getLabelRelativePosition(waypoint.graphicalIcon);
 				labelPath.getElements().add(new LineTo(coords[0], coords[1]));
 			}
-			previous = waypointObject;
+			previousX = waypoint.x;
+			previousY = waypoint.y;
 		}
+		/* Objects which change speed are moved according to their speed profile, others move at a constant rate */
+		Interpolator interpolator = object.hasConstantSpeed() ? Interpolator.LINEAR : new ProfileInterpolator(object.speedProfile, screenLengths);
 		/* Create transition for object path & add to master transition */
 		PathTransition iconPathTransition = new PathTransition();
 		iconPathTransition.setOrientation(PathTransition.OrientationType.ORTHOGONAL_TO_TANGENT);
 		iconPathTransition.setPath(iconPath);
 		iconPathTransition.setNode(graphicalIcon);
-		iconPathTransition.setInterpolator(Interpolator.LINEAR);
+		iconPathTransition.setInterpolator(interpolator);
 		/* Determine duration of transition based on distance travelled and object speed */
-		Duration travelTime = Duration.minutes((distance/object.speed)*60);
+		Duration travelTime = Duration.millis(object.speedProfile.duration);
 		iconPathTransition.setDuration(travelTime);
 		TrackingActivity.masterTransition.getChildren().add(iconPathTransition);
 		/* Create transition for label path (if present) & add to master transition */
@@ -104,12 +105,44 @@ class GraphicalMovingObject extends GraphicalObject {
 			PathTransition labelPathTransition = new PathTransition();
 			labelPathTransition.setPath(labelPath);
 			labelPathTransition.setNode(label);
-			labelPathTransition.setInterpolator(Interpolator.LINEAR);
+			labelPathTransition.setInterpolator(interpolator);
 			labelPathTransition.setDuration(travelTime);
 			TrackingActivity.masterTransition.getChildren().add(labelPathTransition);
 		}
 	}
 	
+	/**
+	 * Returns the X coordinate of the point from which the object's animation starts, in nautical miles.
+	 */
+	public float getAnimationStartX() {
+		return (float)(((graphicalIcon.getX()-TrackingActivity.mapOffsetX)/TrackingActivity.mapWidth)*TrackingActivity.model.x);
+	}
+	
+	/**
+	 * Returns the Y coordinate of the point from which the object's animation starts, in nautical miles.
+	 */
+	public float getAnimationStartY() {
+		return (float)(((graphicalIcon.getY()-TrackingActivity.mapOffsetY)/TrackingActivity.mapHeight)*TrackingActivity.model.y);
+	}
+	
+	/**
+	 * Returns the X coordinate of the center of the object's icon at its current position along its path,
+	 * as of the last update of the moving objects' map positions.
+	 */
+	@Override
+	public double getCurrentX() {
+		return (TrackingActivity.moverState.getX(object.id)*(TrackingActivity.mapWidth/TrackingActivity.model.x))+TrackingActivity.mapOffsetX;
+	}
+	
+	/**
+	 * Returns the Y coordinate of the center of the object's icon at its current position along its path,
+	 * as of the last update of the moving objects' map positions.
+	 */
+	@Override
+	public double getCurrentY() {
+		return (TrackingActivity.moverState.getY(object.id)*(TrackingActivity.mapHeight/TrackingActivity.model.y))+TrackingActivity.mapOffsetY;
+	}
+	
 	/**
 	 * Returns the coordinates of a label placed relative to a target object.
 	 * @param target : The Text object which the label is to be placed relative to.
@@ -130,6 +163,20 @@ class GraphicalMovingObject extends GraphicalObject {
 		}
 	}
 	
+	/**
+	 * Moves the mouse pointer over the object's label, as a participant would to view a masked identity.
+	 * Must be called on the JavaFX thread.
+	 * @return : False if the label is not masked, so moving the pointer over it has no effect.
+	 */
+	boolean pointAtLabel() {
+		if (label == null || label.getOnMouseMoved() == null) {
+			return false;
+		}
+		label.fireEvent(new MouseEvent(MouseEvent.MOUSE_MOVED, 0, 0, 0, 0, MouseButton.NONE, 0,
+				false, false, false, false, false, false, false, true, false, true, null));
+		return true;
+	}
+	
 	/**
 	 * Shows or hides the object's label.
 	 * @param show : True to show the label, false to mask it.
@@ -162,4 +209,41 @@ class GraphicalMovingObject extends GraphicalObject {
 			}
 		}
 	}
+	
+	/**
+	 * Moves an object along its on-screen path according to its precomputed speed profile,
+	 * by mapping the fraction of the travel time elapsed to the fraction of the on-screen path travelled.
+	 */
+	private static class ProfileInterpolator extends Interpolator {
+		private float[] progress = new float[SpeedProfile.SAMPLES];
+		
+		/**
+		 * Converts a speed profile's table of distances along the path into a table of on-screen path fractions.
+		 * @param profile : The speed profile of the moving object.
+		 * @param screenLengths : The on-screen length of the lead-in to the first waypoint, followed by the on-screen length of each path segment.
+		 */
+		ProfileInterpolator(SpeedProfile profile, double[] screenLengths) {
+			double screenLength = 0;
+			for (double length : screenLengths) {
+				screenLength += length;
+			}
+			int segment = 0;
+			double segmentStart = 0, screenSegmentStart = screenLengths[0];
+			for (int i=0; i<SpeedProfile.SAMPLES; i++) {
+				double distance = profile.progress[i]*profile.length;
+				while (segment < profile.segmentLengths.length-1 && distance > segmentStart+profile.segmentLengths[segment]) {
+					segmentStart += profile.segmentLengths[segment];
+					screenSegmentStart += screenLengths[++segment];
+				}
+				/* A segment between two waypoints at the same place is finished as soon as it is reached */
+				double segmentFraction = profile.segmentLengths[segment] > 0 ? Math.min(1, (distance-segmentStart)/profile.segmentLengths[segment]) : 1;
+				progress[i] = screenLength > 0 ? (float)((screenSegmentStart+(segmentFraction*screenLengths[segment+1]))/screenLength) : 1;
+			}
+		}
+		
+		@Override
+		protected double curve(double t) {
+			return SpeedProfile.lookup(progress, t);
+		}
+	}
 }
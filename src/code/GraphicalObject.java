@@ -11,7 +11,7 @@ import javafx.scene.text.TextBoundsType;
  * @author Graham Home
  */
 abstract class GraphicalObject {
-	private TextObject baseIcon;
+	TextObject baseIcon;
 	public Text graphicalIcon;
 	public double x, y;
 	
@@ -20,8 +20,8 @@ abstract class GraphicalObject {
 	 * @param icon : The TextObject representing the object to be displayed graphically.
 	 */
 	public GraphicalObject(TextObject icon) {
-		x = (icon.x*(TrackingActivity.mapWidth/ExperimentModel.x))+TrackingActivity.mapOffsetX;
-		y = (icon.y*(TrackingActivity.mapHeight/ExperimentModel.y))+TrackingActivity.mapOffsetY;
+		x = (icon.x*(TrackingActivity.mapWidth/TrackingActivity.model.x))+TrackingActivity.mapOffsetX;
+		y = (icon.y*(TrackingActivity.mapHeight/TrackingActivity.model.y))+TrackingActivity.mapOffsetY;
 		this.baseIcon = icon;
 		this.graphicalIcon = drawText(baseIcon);
 	}
@@ -53,4 +53,18 @@ abstract class GraphicalObject {
 		}
 		return text;
 	}
+	
+	/**
+	 * Returns the X coordinate of the center of the object as currently displayed on screen.
+	 */
+	public double getCurrentX() {
+		return x;
+	}
+	
+	/**
+	 * Returns the Y coordinate of the center of the object as currently displayed on screen.
+	 */
+	public double getCurrentY() {
+		return y;
+	}
 }
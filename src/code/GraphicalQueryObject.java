@@ -1,9 +1,14 @@
 package code;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import code.ExperimentModel.BinaryQuery;
 import code.ExperimentModel.FindQuery;
 import code.ExperimentModel.Query;
 import code.ExperimentModel.TextResponseQuery;
+import code.SessionLog.Type;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Point2D;
@@ -11,26 +16,45 @@ import javafx.geometry.Pos;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseButton;
 import javafx.scene.layout.Background;
 import javafx.scene.layout.BackgroundFill;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Circle;
 import javafx.scene.text.Font;
-import javafx.scene.text.Text;
 
 /**
  * A visual representation of a 'text entry' or 'click object' query which
  * appears and disappears at specified times.
+ * The box in which a query is shown is only taken when the query appears, from a pool of boxes kept for each
+ * type of query, and is returned to the pool when the query disappears. This keeps the controls of experiments
+ * with many queries from being created, and kept in memory, long before they are needed.
  * @author Graham Home
  */
 class GraphicalQueryObject extends SchedulableEvent {
 	
-	private VBox queryBox;
+	/* Most unused boxes kept for each type of query */
+	private static final int POOL_SIZE = 4;
+	/* Unused boxes for each type of query, guarded by the pool itself */
+	private static final HashMap<Class<? extends Query>, ArrayDeque<QueryBox>> pool = new HashMap<>();
+	private static Font queryFont;
+	
+	/**
+	 * The visual elements of a query: its instructions and, for 'text entry' queries, a text input field.
+	 */
+	private static class QueryBox {
+		VBox box;
+		Label instructions;
+		TextField field;
+	}
+	
+	private QueryBox queryBox; // Only held while the query is shown
+	/* Set when the query is shown, and cleared by whichever of the event scheduler and JavaFX threads removes it first */
+	private final AtomicBoolean shown = new AtomicBoolean(false);
 	private Query query;
-	private TextField queryField;
+	private long shownTime; // Session time at which the query appeared, in milliseconds
 	
 	/**
 	 * Constructs a graphical representation of a given Query object and
@@ -38,23 +62,6 @@ class GraphicalQueryObject extends SchedulableEvent {
 	 * @param query : The Query object to be represented graphically.
 	 */
 	public GraphicalQueryObject(Query query) {
-		/* Create the visual elements of the query */
-		queryBox = new VBox(5);
-		queryBox.setPadding(new Insets(5));
-		queryBox.setBackground(new Background(new BackgroundFill(Color.WHITE, null, null)));
-		queryBox.setAlignment(Pos.CENTER);
-		queryBox.setMaxWidth(Region.USE_PREF_SIZE);
-		queryBox.setMaxHeight(Region.USE_PREF_SIZE);
-		Label queryInstructions = new Label(query.text + (query instanceof BinaryQuery ? System.lineSeparator() + "Left-click for \"yes\", right-click for \"no\"" : ""));
-		queryInstructions.setMinWidth(Region.USE_PREF_SIZE);
-		queryInstructions.setMaxWidth(Region.USE_PREF_SIZE);
-		queryInstructions.setFont(Font.loadFont(TrackingActivity.textFontURL.toString(), 15));
-		queryBox.getChildren().add(queryInstructions);
-		/* Only 'text input' queries have a text input field */
-		queryField = new TextField();
-		if (query instanceof TextResponseQuery) {
-				queryBox.getChildren().add(queryField);
-		}
 		loopNumber = query.loopNumber;
 		delay = (long)query.startTime;
 		if (!query.wait) {
@@ -62,7 +69,63 @@ class GraphicalQueryObject extends SchedulableEvent {
 			scheduledTermination = true;
 		}
 		this.query = query;
-		TrackingActivity.queries.put(query, this);
+	}
+	
+	/**
+	 * Takes an unused box for a type of query from the pool, creating one if there are none.
+	 * @param type : The type of query.
+	 */
+	private static QueryBox takeBox(Class<? extends Query> type) {
+		synchronized (pool) {
+			ArrayDeque<QueryBox> unused = pool.get(type);
+			if (unused != null && !unused.isEmpty()) {
+				return unused.pollFirst();
+			}
+			if (queryFont == null) {
+				queryFont = Font.loadFont(TrackingActivity.textFontURL.toString(), 15);
+			}
+		}
+		/* Create the visual elements of the query */
+		QueryBox queryBox = new QueryBox();
+		queryBox.box = new VBox(5);
+		queryBox.box.setPadding(new Insets(5));
+		queryBox.box.setBackground(new Background(new BackgroundFill(Color.WHITE, null, null)));
+		queryBox.box.setAlignment(Pos.CENTER);
+		queryBox.box.setMaxWidth(Region.USE_PREF_SIZE);
+		queryBox.box.setMaxHeight(Region.USE_PREF_SIZE);
+		queryBox.instructions = new Label();
+		queryBox.instructions.setMinWidth(Region.USE_PREF_SIZE);
+		queryBox.instructions.setMaxWidth(Region.USE_PREF_SIZE);
+		queryBox.instructions.setFont(queryFont);
+		queryBox.box.getChildren().add(queryBox.instructions);
+		/* Only 'text input' queries have a text input field */
+		if (type == TextResponseQuery.class) {
+			queryBox.field = new TextField();
+			queryBox.box.getChildren().add(queryBox.field);
+		}
+		return queryBox;
+	}
+	
+	/**
+	 * Returns a box which is no longer shown to the pool, unless the pool for its type of query is full.
+	 * @param type : The type of query the box was created for.
+	 */
+	private static void returnBox(Class<? extends Query> type, QueryBox queryBox) {
+		if (queryBox.field != null) {
+			queryBox.field.setOnKeyPressed(null);
+			queryBox.field.clear();
+		}
+		synchronized (pool) {
+			ArrayDeque<QueryBox> unused = pool.computeIfAbsent(type, t -> new ArrayDeque<>());
+			if (unused.size() < POOL_SIZE) {
+				unused.addFirst(queryBox);
+			}
+		}
+	}
+	
+	@Override
+	public String getDescription() {
+		return "Query " + query.text;
 	}
 	
 	/**
@@ -70,20 +133,24 @@ class GraphicalQueryObject extends SchedulableEvent {
 	 */
 	@Override
 	public void show() {
+		shownTime = SessionClock.elapsedMillis();
 		ReportWriter.reportQuery(query, true);
 		TrackingActivity.activeQuery = this;
-		/* Position query elements on screen using specified coordinates and length of query string */
+		QueryBox shownBox = queryBox = takeBox(query.getClass());
+		shown.set(true);
+		shownBox.instructions.setText(query.text + (query instanceof BinaryQuery ? System.lineSeparator() + "Left-click for \"yes\", right-click for \"no\"" : ""));
+		/* Position query elements on screen using specified coordinates */
 		Platform.runLater(() -> { 
-			queryBox.relocate(((query.positionX*(TrackingActivity.mapWidth/ExperimentModel.x))+TrackingActivity.mapOffsetX)-(queryBox.getWidth()/2), 
-					((query.positionY*(TrackingActivity.mapHeight/ExperimentModel.y))+TrackingActivity.mapOffsetY)-(query instanceof TextResponseQuery ? 20 : 10));
-			TrackingActivity.root.getChildren().add(queryBox);
-			queryBox.toFront();
+			shownBox.box.relocate((query.positionX*(TrackingActivity.mapWidth/TrackingActivity.model.x))+TrackingActivity.mapOffsetX, 
+					((query.positionY*(TrackingActivity.mapHeight/TrackingActivity.model.y))+TrackingActivity.mapOffsetY)-(query instanceof TextResponseQuery ? 20 : 10));
+			TrackingActivity.root.getChildren().add(shownBox.box);
+			shownBox.box.toFront();
 		});
 		if (query.maskIdentities) {
 			// Mask all moving object labels
-			TrackingActivity.objects.values().forEach(o -> {
-				o.maskLabel(true);
-			});
+			for (GraphicalMovingObject object : TrackingActivity.objects) {
+				object.maskLabel(true);
+			}
 			ReportWriter.reportIdentityMask(true);
 		}
 		if (query.freeze) {
@@ -93,10 +160,13 @@ class GraphicalQueryObject extends SchedulableEvent {
 		}
 		/* Allow 'text entry' query to be closed by pressing the 'enter' button */
 		if (query instanceof TextResponseQuery) {
+			TextField queryField = shownBox.field;
 			queryField.setOnKeyPressed(e -> {
 				if (e.getCode().equals(KeyCode.ENTER)) {
-					((TextResponseQuery)query).respond(queryField.getText(), query.startTime-(TrackingActivity.experimentStartTime-System.currentTimeMillis()));
+					SessionLog.current.record(Type.KEY_ENTRY, false, 0, 0, queryField.getText());
+					((TextResponseQuery)query).respond(queryField.getText(), SessionClock.elapsedMillis()-shownTime);
 					ReportWriter.reportTextEntry((TextResponseQuery)query);
+					Monitor.recordResponse(query.responseTime);
 					responseReceived = true;
 					hide();
 					if (next != null && loopNumber == TrackingActivity.loop) {
@@ -107,36 +177,35 @@ class GraphicalQueryObject extends SchedulableEvent {
 		} else {
 			/* Allow 'click object' query to be closed by clicking the screen */
 			TrackingActivity.root.setOnMouseClicked(e -> {
+				if (query instanceof FindQuery) {
+					SessionLog.current.record(Type.OBJECTS_INDEXED, false, TrackingActivity.indexedTravelTime, 0, null);
+				}
+				SessionLog.current.record(Type.MOUSE_CLICK, e.getButton().equals(MouseButton.PRIMARY), e.getX(), e.getY(), null);
 				if (query instanceof FindQuery) {
 					// Ensure click is within map boundaries
 					if ((TrackingActivity.map.mapImage == null ? TrackingActivity.map.mapShape : TrackingActivity.map.mapImage).contains(new Point2D(e.getX(), e.getY()))) {
-						double nmX = ((e.getX()-TrackingActivity.mapOffsetX)/TrackingActivity.map.mapShape.getWidth())*ExperimentModel.x;
-						double nmY = ((e.getY()-TrackingActivity.mapOffsetY)/TrackingActivity.map.mapShape.getHeight())*ExperimentModel.y;
-						((FindQuery)query).respond((float)nmX, (float)nmY, query.startTime-(TrackingActivity.experimentStartTime-System.currentTimeMillis()));
-						Circle selectedArea = new Circle(e.getX(), e.getY(), Math.sqrt((((ExperimentModel.clickRadius/100)*TrackingActivity.mapHeight*TrackingActivity.mapWidth))/Math.PI));
-						// Check waypoints
-						TrackingActivity.waypoints.entrySet().forEach(entry -> {
-							if (selectedArea.contains(new Point2D(entry.getValue().x, entry.getValue().y))) {
-								((FindQuery)query).nearbyObjects.add(entry.getKey());
-							}
-						});
-						// Check moving objects
-						TrackingActivity.objects.entrySet().forEach(entry -> {
-							Text objectIcon = entry.getValue().graphicalIcon;
-							if (selectedArea.contains(new Point2D(objectIcon.getX() + objectIcon.getTranslateX(), objectIcon.getY() + objectIcon.getTranslateY()))) { 
-								((FindQuery)query).nearbyObjects.add(entry.getKey());
-							}
-						});
+						double nmX = ((e.getX()-TrackingActivity.mapOffsetX)/TrackingActivity.map.mapShape.getWidth())*TrackingActivity.model.x;
+						double nmY = ((e.getY()-TrackingActivity.mapOffsetY)/TrackingActivity.map.mapShape.getHeight())*TrackingActivity.model.y;
+						((FindQuery)query).respond((float)nmX, (float)nmY, SessionClock.elapsedMillis()-shownTime);
+						// Find waypoints & moving objects within the click radius
+						SpatialIndex index = TrackingActivity.objectIndex;
+						int hitCount = index.query(e.getX(), e.getY(), TrackingActivity.getClickRadius());
+						for (int i=0; i<hitCount; i++) {
+							((FindQuery)query).nearbyObjects.add(index.getHit(i).baseIcon);
+						}
 						ReportWriter.reportClick((FindQuery)query);
-						// Report hit objects
-						((FindQuery)query).nearbyObjects.forEach(o -> {
-							GraphicalMovingObject movingObj = TrackingActivity.objects.get(o);
-							if (movingObj != null) {
+						// Report hit objects, measuring distance from each object's current position
+						for (int i=0; i<hitCount; i++) {
+							if (index.getHit(i) instanceof GraphicalMovingObject) {
+								GraphicalMovingObject movingObj = (GraphicalMovingObject)index.getHit(i);
+								double distanceX = ((index.getHitX(i)-e.getX())/TrackingActivity.mapWidth)*TrackingActivity.model.x;
+								double distanceY = ((index.getHitY(i)-e.getY())/TrackingActivity.mapHeight)*TrackingActivity.model.y;
 								ReportWriter.reportObjectHit(
 										(movingObj.label != null ? movingObj.label.getText() : "No label"), 
-										Math.sqrt(Math.pow((nmX-o.x),2) + Math.pow((nmY-o.y), 2)));
+										Math.sqrt(Math.pow(distanceX,2) + Math.pow(distanceY, 2)));
 							}
-						});
+						}
+						Monitor.recordResponse(query.responseTime);
 						responseReceived = true;
 						hide();
 						// Execute the next scheduled event in the loop
@@ -146,8 +215,9 @@ class GraphicalQueryObject extends SchedulableEvent {
 					}
 				} else {
 					// Record left or right mouse button click
-					((BinaryQuery)query).respond(e.getButton().equals(MouseButton.PRIMARY), query.startTime-(TrackingActivity.experimentStartTime-System.currentTimeMillis()));
+					((BinaryQuery)query).respond(e.getButton().equals(MouseButton.PRIMARY), SessionClock.elapsedMillis()-shownTime);
 					ReportWriter.reportBinaryQueryResponse((BinaryQuery)query);
+					Monitor.recordResponse(query.responseTime);
 					responseReceived = true;
 					hide();
 					if (next != null && loopNumber == TrackingActivity.loop) {
@@ -157,6 +227,30 @@ class GraphicalQueryObject extends SchedulableEvent {
 				
 			});
 		}
+		if (SyntheticParticipant.current != null) {
+			SyntheticParticipant.current.queryShown(this);
+		}
+	}
+	
+	/**
+	 * Returns the query which this object represents.
+	 */
+	Query getQuery() {
+		return query;
+	}
+	
+	/**
+	 * Types a response into the text field of a 'text entry' query and presses the 'enter' button, as a participant would.
+	 * Must be called on the JavaFX thread.
+	 * @param text : The response.
+	 */
+	void enterText(String text) {
+		if (queryBox == null || queryBox.field == null) {
+			return;
+		}
+		TextField queryField = queryBox.field;
+		queryField.setText(text);
+		queryField.fireEvent(new KeyEvent(KeyEvent.KEY_PRESSED, "", "", KeyCode.ENTER, false, false, false, false));
 	}
 	
 	/**
@@ -170,17 +264,20 @@ class GraphicalQueryObject extends SchedulableEvent {
 	}
 	
 	/**
-	 * Removes the query.
+	 * Removes the query, if it is shown. Its box is taken off the screen by the JavaFX thread, after the box
+	 * has been put on it by show(), since both are queued in turn.
 	 */
 	public void remove() {
-		if (TrackingActivity.root.getChildren().contains(queryBox)) {
-			sendToBack();
+		if (shown.compareAndSet(true, false)) {
+			QueryBox shownBox = queryBox;
+			queryBox = null;
 			Platform.runLater(() -> {
-				TrackingActivity.root.getChildren().remove(queryBox);
+				TrackingActivity.root.getChildren().remove(shownBox.box);
+				returnBox(query.getClass(), shownBox);
 			});
 			ReportWriter.reportQuery(query, false);
 			if (query.maskIdentities) {
-				for (GraphicalMovingObject object : TrackingActivity.objects.values()) {
+				for (GraphicalMovingObject object : TrackingActivity.objects) {
 					object.maskLabel(false);
 				}
 				ReportWriter.reportIdentityMask(false);
@@ -192,27 +289,39 @@ class GraphicalQueryObject extends SchedulableEvent {
 		}
 	}
 	
+	@Override
+	public void reset() {
+		super.reset();
+		query.clearResponse();
+	}
+	
 	/**
 	 * Brings the query to the front of the view hierarchy.
 	 */
 	public void bringToFront() {
-		Platform.runLater(new Runnable() {
-			@Override
-			public void run() {
-				queryBox.toFront();
-			}
-		});
+		QueryBox shownBox = queryBox;
+		if (shownBox != null) {
+			Platform.runLater(new Runnable() {
+				@Override
+				public void run() {
+					shownBox.box.toFront();
+				}
+			});
+		}
 	}
 	
 	/**
 	 * Sends the query to the back of the view hierarchy.
 	 */
 	public void sendToBack() {
-		Platform.runLater(new Runnable() {
-			@Override
-			public void run() {
-				queryBox.toBack();
-			}
-		});
+		QueryBox shownBox = queryBox;
+		if (shownBox != null) {
+			Platform.runLater(new Runnable() {
+				@Override
+				public void run() {
+					shownBox.box.toBack();
+				}
+			});
+		}
 	}
 }
@@ -23,7 +23,7 @@ public class GraphicalStationaryObject extends GraphicalObject {
 	 */
 	void drawConnectors(WaypointObject waypoint) {
 		for (Connector connector: waypoint.connectors) {
-			GraphicalStationaryObject destination = TrackingActivity.waypoints.get(connector.destination);
+			GraphicalStationaryObject destination = TrackingActivity.waypoints[connector.destination.id];
 			Line line = new Line(x, y, destination.x, destination.y);
 			line.setStroke(connector.color);
 			line.setStrokeWidth(connector.width);
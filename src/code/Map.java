@@ -1,6 +1,11 @@
 package code;
 
 import java.util.ArrayList;
+
+import code.ExperimentModel.Query;
+import code.ExperimentModel.ScreenMaskEvent;
+import code.ExperimentModel.TimedEvent;
+import code.ExperimentModel.WaypointObject;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.paint.Color;
@@ -19,21 +24,18 @@ class Map {
 	/* A visual element which surrounds the map image or shape to hide any object positioned outside the map itself. */
 	public Shape frame;
 	
-	/* A list of queries which are currently being displayed */
-	private ArrayList<GraphicalQueryObject> queries = new ArrayList<>();
-	
 	/**
 	 * Draws a map using a specified image or color. Draws map as large as possible for given screen size.
 	 */
 	public void drawMap() {
 		/* Fill map with specified color (if any) */
 		mapShape = new Rectangle(TrackingActivity.mapOffsetX,TrackingActivity.mapOffsetY,TrackingActivity.mapWidth,TrackingActivity.mapHeight);
-		if (ExperimentModel.mapColor != null) {
-			mapShape.setFill(ExperimentModel.mapColor);
+		if (TrackingActivity.model.mapColor != null) {
+			mapShape.setFill(TrackingActivity.model.mapColor);
 			TrackingActivity.root.getChildren().add(mapShape);
 		} else {
 			/* Fill map with specified image, preserving image ratio */
-			Image map = new Image(ExperimentModel.mapImage.toURI().toString());
+			Image map = new Image(TrackingActivity.model.mapImage.toURI().toString());
 			mapImage = new ImageView(map);
 			mapImage.setPreserveRatio(true);
 			mapImage.setFitWidth(TrackingActivity.mapWidth);
@@ -49,18 +51,19 @@ class Map {
 		 * Adjust map dimensions to ensure waypoints & objects will be placed entirely within map, 
 		 * even if they are placed at its edges (e.g. at (0,0)).
 		 */
-		TrackingActivity.mapWidth -= ExperimentModel.largestFontSize;
-		TrackingActivity.mapHeight -= ExperimentModel.largestFontSize*1.4;
-		TrackingActivity.mapOffsetY += ExperimentModel.largestFontSize/2;
-		TrackingActivity.mapOffsetX += ExperimentModel.largestFontSize/2;
+		TrackingActivity.mapWidth -= TrackingActivity.model.largestFontSize;
+		TrackingActivity.mapHeight -= TrackingActivity.model.largestFontSize*1.4;
+		TrackingActivity.mapOffsetY += TrackingActivity.model.largestFontSize/2;
+		TrackingActivity.mapOffsetX += TrackingActivity.model.largestFontSize/2;
 	}
 	
 	/**
 	 * Draws all waypoints on map.
 	 */
 	void drawWaypoints() {
-		ExperimentModel.waypoints.values().forEach(w -> {
-			TrackingActivity.waypoints.put(w, new GraphicalStationaryObject(w));
+		TrackingActivity.waypoints = new GraphicalStationaryObject[TrackingActivity.model.waypointsById.size()];
+		TrackingActivity.model.waypointsById.forEach(w -> {
+			TrackingActivity.waypoints[w.id] = new GraphicalStationaryObject(w);
 		});
 	}
 	
@@ -68,35 +71,48 @@ class Map {
 	 * Draws all waypoint connectors on map.
 	 */
 	void drawConnectors() {
-		TrackingActivity.waypoints.entrySet().forEach(e -> {
-			e.getValue().drawConnectors(e.getKey());
-		});
+		for (GraphicalStationaryObject waypoint : TrackingActivity.waypoints) {
+			waypoint.drawConnectors((WaypointObject)waypoint.baseIcon);
+		}
 	}
 	
 	/**
 	 * Draws all moving objects on map.
 	 */
 	void drawObjects() {
-		ExperimentModel.objects.values().forEach(o -> {
-			new GraphicalMovingObject(o);
-		});
-	}
-	
-	/**
-	 * Creates all scheduled mask appearances.
-	 */
-	public void scheduleMaskAppearances() {
-		ExperimentModel.screenMaskEvents.forEach(m -> {
-			new GraphicalMaskObject(m);
+		TrackingActivity.objects = new GraphicalMovingObject[TrackingActivity.model.objectsById.size()];
+		TrackingActivity.model.objectsById.forEach(o -> {
+			TrackingActivity.objects[o.id] = new GraphicalMovingObject(o);
 		});
 	}
 	
 	/**
-	 * Creates all scheduled query appearances.
+	 * Creates the mask appearances and queries of each loop, linking the events of each loop
+	 * so that each is executed after the one before it.
+	 * @return : The first event of each loop, or null for loops with no events.
 	 */
-	public void scheduleQueryAppearances() {
-		ExperimentModel.queries.forEach(q -> {
-			queries.add(new GraphicalQueryObject(q));
+	public ArrayList<SchedulableEvent> scheduleEvents() {
+		ArrayList<SchedulableEvent> events = new ArrayList<>();
+		TrackingActivity.model.schedule.forEach(loopEvents -> {
+			SchedulableEvent first = null, last = null;
+			for (TimedEvent event : loopEvents) {
+				SchedulableEvent scheduled;
+				if (event instanceof ScreenMaskEvent) {
+					GraphicalMaskObject mask = new GraphicalMaskObject((ScreenMaskEvent)event);
+					((ScreenMaskEvent)event).concurrentQueries.forEach(q -> mask.concurrentEvents.add(new GraphicalQueryObject(q)));
+					scheduled = mask;
+				} else {
+					scheduled = new GraphicalQueryObject((Query)event);
+				}
+				if (first == null) {
+					first = scheduled;
+				} else {
+					last.next = scheduled;
+				}
+				last = scheduled;
+			}
+			events.add(first);
 		});
+		return events;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,226 @@
+package code;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Publishes the progress of the running experiment over HTTP, so that the experimenter can follow each
+ * station from another computer while the participant's screen is taken up by the experiment.
+ * "/metrics" gives the current state as JSON, for dashboards which watch several stations, and "/" gives
+ * the same state as text which a browser refreshes every second.
+ *
+ * The figures are kept as counters which are updated where things happen: once per frame, once per response and
+ * once per scheduled event. Each counter has a single writer, so updating one is a plain write. The statistics are
+ * only calculated when the state is requested, and at most once per update interval however many clients ask,
+ * so monitoring costs next to nothing while no one is watching. When monitoring is disabled the counters are not updated.
+ */
+class Monitor {
+	
+	static final boolean enabled = Options.monitorPort > 0;
+	/* Shortest time between calculations of the published state */
+	private static final long UPDATE_INTERVAL = 250000000; // Nanoseconds
+	/* Number of recent frames whose times are kept */
+	private static final int FRAME_WINDOW = 256; // Must be a power of 2
+	
+	/* Updated by the JavaFX thread */
+	private static final int[] frameTimes = new int[FRAME_WINDOW]; // Microseconds
+	private static volatile long frames = 0;
+	private static long lastFrame = 0;
+	private static volatile long responses = 0, responseTotal = 0, responseMax = 0; // Milliseconds
+	/* Updated by the event scheduler thread */
+	private static volatile long scheduledEvents = 0, lagTotal = 0, lagMax = 0; // Microseconds
+	
+	/* The published state, as JSON and as text, and when it was calculated */
+	private static String state = "{}";
+	private static String stateText = "";
+	private static long stateTime = 0;
+	
+	/**
+	 * Records that a frame has been drawn. Called by the JavaFX thread for every frame.
+	 * @param now : The time of the frame, in nanoseconds.
+	 */
+	static void recordFrame(long now) {
+		if (enabled) {
+			if (lastFrame > 0) {
+				frameTimes[(int)(frames & (FRAME_WINDOW-1))] = (int)Math.min(Integer.MAX_VALUE, (now-lastFrame)/1000);
+				frames = frames+1;
+			}
+			lastFrame = now;
+		}
+	}
+	
+	/**
+	 * Records the response of the participant to a query. Called by the JavaFX thread.
+	 * @param time : The time taken to respond, in milliseconds.
+	 */
+	static void recordResponse(double time) {
+		if (enabled) {
+			responseTotal = responseTotal+(long)time;
+			responseMax = Math.max(responseMax, (long)time);
+			responses = responses+1;
+		}
+	}
+	
+	/**
+	 * Records how late a scheduled event appeared. Called by the event scheduler thread.
+	 * @param lag : The time between when the event should have appeared and when it did, in nanoseconds.
+	 */
+	static void recordSchedulingLag(long lag) {
+		if (enabled) {
+			long micros = Math.max(0, lag/1000);
+			lagTotal = lagTotal+micros;
+			lagMax = Math.max(lagMax, micros);
+			scheduledEvents = scheduledEvents+1;
+		}
+	}
+	
+	/**
+	 * Starts publishing the state of the experiment on every network interface.
+	 * @param port : The port to publish on.
+	 * @throws IOException : If the port cannot be opened.
+	 */
+	static void start(int port) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/metrics", exchange -> respond(exchange, "application/json", getState()));
+		server.createContext("/", exchange -> {
+			exchange.getResponseHeaders().add("Refresh", "1");
+			respond(exchange, "text/plain", getStateText());
+		});
+		server.setExecutor(Executors.newSingleThreadExecutor(task -> {
+			Thread thread = new Thread(task, "Monitor");
+			thread.setDaemon(true);
+			return thread;
+		}));
+		server.start();
+	}
+	
+	private static void respond(HttpExchange exchange, String type, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", type + "; charset=utf-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+	
+	/**
+	 * Returns the state of the experiment as JSON, calculating it again if it is older than the update interval.
+	 */
+	static synchronized String getState() {
+		update();
+		return state;
+	}
+	
+	/**
+	 * Returns the state of the experiment as text, one "name: value" line per figure,
+	 * calculating it again if it is older than the update interval.
+	 */
+	static synchronized String getStateText() {
+		update();
+		return stateText;
+	}
+	
+	private static void update() {
+		long now = System.nanoTime();
+		if (stateTime == 0 || now-stateTime >= UPDATE_INTERVAL) {
+			calculateState();
+			stateTime = now;
+		}
+	}
+	
+	/**
+	 * Calculates the published state, writing each figure to both the JSON and the text.
+	 */
+	private static void calculateState() {
+		ExperimentModel model = TrackingActivity.model;
+		GraphicalQueryObject query = TrackingActivity.activeQuery;
+		long frameCount = frames;
+		int window = (int)Math.min(frameCount, FRAME_WINDOW);
+		int[] recent = Arrays.copyOf(frameTimes, window);
+		Arrays.sort(recent);
+		long responseCount = responses, lagCount = scheduledEvents;
+		StringBuilder json = new StringBuilder(), text = new StringBuilder();
+		addText(json, text, "station", Options.station);
+		addText(json, text, "experiment", ReportWriter.experimentName);
+		addText(json, text, "participant", ReportWriter.participantId);
+		addNumber(json, text, "loop", TrackingActivity.loop+1);
+		addNumber(json, text, "loops", model == null ? 0 : model.loopCount+1);
+		addText(json, text, "activeQuery", query == null ? null : query.getDescription());
+		addNumber(json, text, "eventsProcessed", ReportWriter.getEventsProcessed());
+		addNumber(json, text, "responses", responseCount);
+		addNumber(json, text, "meanResponseMs", responseCount == 0 ? 0 : responseTotal/responseCount);
+		addNumber(json, text, "maxResponseMs", responseMax);
+		addNumber(json, text, "scheduledEvents", lagCount);
+		addNumber(json, text, "meanSchedulingLagMs", milliseconds(lagCount == 0 ? 0 : lagTotal/lagCount));
+		addNumber(json, text, "maxSchedulingLagMs", milliseconds(lagMax));
+		addNumber(json, text, "frames", frameCount);
+		addNumber(json, text, "frameMedianMs", milliseconds(window == 0 ? 0 : recent[(window-1)/2]));
+		addNumber(json, text, "frameP99Ms", milliseconds(window == 0 ? 0 : recent[(int)((window-1)*0.99)]));
+		addNumber(json, text, "frameMaxMs", milliseconds(window == 0 ? 0 : recent[window-1]));
+		state = "{" + json + "}";
+		stateText = text.toString();
+	}
+	
+	/**
+	 * Adds a text figure to the JSON and text forms of the state.
+	 */
+	private static void addText(StringBuilder json, StringBuilder text, String name, String value) {
+		addField(json, text, name, quote(value), value);
+	}
+	
+	/**
+	 * Adds a numeric figure to the JSON and text forms of the state.
+	 */
+	private static void addNumber(StringBuilder json, StringBuilder text, String name, Object value) {
+		addField(json, text, name, String.valueOf(value), String.valueOf(value));
+	}
+	
+	private static void addField(StringBuilder json, StringBuilder text, String name, String jsonValue, String textValue) {
+		if (json.length() > 0) {
+			json.append(',');
+		}
+		json.append('"').append(name).append("\":").append(jsonValue);
+		text.append(name).append(": ").append(textValue).append(System.lineSeparator());
+	}
+	
+	/**
+	 * Clears the response and scheduling figures at the end of a session.
+	 */
+	static void reset() {
+		responses = 0;
+		responseTotal = 0;
+		responseMax = 0;
+		scheduledEvents = 0;
+		lagTotal = 0;
+		lagMax = 0;
+	}
+	
+	private static String milliseconds(long micros) {
+		return String.format(Locale.ROOT, "%.3f", micros/1000.0);
+	}
+	
+	private static String quote(String value) {
+		if (value == null) {
+			return "null";
+		}
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int)c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
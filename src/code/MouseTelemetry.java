@@ -0,0 +1,226 @@
+package code;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import javafx.event.EventHandler;
+import javafx.scene.Scene;
+import javafx.scene.input.MouseEvent;
+
+/**
+ * Records the path of the mouse pointer while the experiment runs, and writes it to a compact binary file.
+ * Pointer events are received at the rate at which the platform delivers them, and a movement is only recorded
+ * if the pointer has moved far enough and enough time has passed since the last recorded movement. Button presses
+ * and releases are always recorded. Records are encoded on the JavaFX thread into preallocated buffers, which are
+ * written to disk by a background thread (BufferedChannelWriter). The binary file can be converted to CSV by
+ * running this class with the path of the file as its argument.
+ *
+ * File format: a header containing the map position and size on screen in pixels and the map size in nautical miles,
+ * then one variable-length record per event containing the time since the previous record in microseconds
+ * and the kind of event, followed by the change in the pointer's position since the previous record in tenths
+ * of a pixel. Each value is written as a variable-length integer, 7 bits per byte with the highest bit set on
+ * all but the last byte; position changes are zigzag-encoded so that small negative values are also short.
+ */
+public class MouseTelemetry {
+	
+	static final int MAGIC = 0x4D544C31; // "MTL1"
+	/* Kinds of record, stored in the lowest 2 bits of the time value */
+	static final int MOVE = 0, DRAG = 1, PRESS = 2, RELEASE = 3;
+	private static final String[] KIND_NAMES = {"Move", "Drag", "Press", "Release"};
+	/* The largest possible record: three 64-bit variable-length integers */
+	static final int MAX_RECORD_SIZE = 30;
+	private static final int BUFFER_COUNT = 4;
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private Scene scene;
+	private EventHandler<MouseEvent> handler = e -> record(e);
+	private double minDistance; // Tenths of a pixel
+	private long minInterval; // Microseconds
+	
+	/* The last recorded time (microseconds) and position (tenths of a pixel) */
+	private long lastTime = 0;
+	private long lastX = 0, lastY = 0;
+	
+	private BufferedChannelWriter output;
+	
+	/**
+	 * Starts recording the pointer's movements within a scene and writes the header of the telemetry file.
+	 * Must be called on the JavaFX thread.
+	 * @param file : The file to record the pointer's movements to.
+	 * @param scene : The scene in which to record the pointer's movements.
+	 * @param minDistance : The distance the pointer must move before a movement is recorded, in pixels.
+	 * @param minInterval : The time which must pass before another movement is recorded, in milliseconds.
+	 * @throws IOException : If the telemetry file cannot be written.
+	 */
+	public MouseTelemetry(File file, Scene scene, double minDistance, double minInterval) throws IOException {
+		this.scene = scene;
+		this.minDistance = minDistance*10;
+		this.minInterval = (long)(minInterval*1000);
+		output = new BufferedChannelWriter(file, buildHeader(), BUFFER_COUNT, BUFFER_SIZE, "Mouse Telemetry Writer");
+		scene.addEventFilter(MouseEvent.ANY, handler);
+	}
+	
+	/**
+	 * Creates the file header, which describes the position and scale of the map.
+	 */
+	private byte[] buildHeader() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(MAGIC);
+		header.writeDouble(TrackingActivity.mapOffsetX);
+		header.writeDouble(TrackingActivity.mapOffsetY);
+		header.writeDouble(TrackingActivity.mapWidth);
+		header.writeDouble(TrackingActivity.mapHeight);
+		header.writeDouble(TrackingActivity.model.x);
+		header.writeDouble(TrackingActivity.model.y);
+		header.close();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Records a pointer event if it passes the distance and time thresholds. Runs on the JavaFX thread.
+	 */
+	private void record(MouseEvent e) {
+		int kind;
+		if (e.getEventType() == MouseEvent.MOUSE_MOVED) {
+			kind = MOVE;
+		} else if (e.getEventType() == MouseEvent.MOUSE_DRAGGED) {
+			kind = DRAG;
+		} else if (e.getEventType() == MouseEvent.MOUSE_PRESSED) {
+			kind = PRESS;
+		} else if (e.getEventType() == MouseEvent.MOUSE_RELEASED) {
+			kind = RELEASE;
+		} else {
+			return;
+		}
+		long time = SessionClock.elapsedNanos()/1000;
+		long x = Math.round(e.getSceneX()*10);
+		long y = Math.round(e.getSceneY()*10);
+		long dx = x-lastX, dy = y-lastY;
+		if ((kind == MOVE || kind == DRAG) && (time-lastTime < minInterval || Math.sqrt((dx*dx)+(dy*dy)) < minDistance)) {
+			return;
+		}
+		ByteBuffer buffer = output.getBuffer();
+		if (buffer == null) {
+			return;
+		}
+		putRecord(buffer, time-lastTime, kind, dx, dy);
+		lastTime = time;
+		lastX = x;
+		lastY = y;
+		output.finishRecord(MAX_RECORD_SIZE);
+	}
+	
+	/**
+	 * Encodes a record into a buffer, which must have room for the largest possible record.
+	 * @param interval : The time since the previous record, in microseconds.
+	 * @param kind : The kind of event (MOVE, DRAG, PRESS or RELEASE).
+	 * @param dx : The change in the pointer's horizontal position since the previous record, in tenths of a pixel.
+	 * @param dy : The change in the pointer's vertical position since the previous record, in tenths of a pixel.
+	 */
+	static void putRecord(ByteBuffer buffer, long interval, int kind, long dx, long dy) {
+		putVarint(buffer, (interval << 2) | kind);
+		putVarint(buffer, (dx << 1) ^ (dx >> 63));
+		putVarint(buffer, (dy << 1) ^ (dy >> 63));
+	}
+	
+	/**
+	 * Writes a non-negative value as a variable-length integer.
+	 */
+	private static void putVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+	
+	/**
+	 * Reads a variable-length integer.
+	 * @throws EOFException : If the end of the stream is reached before the first byte of the value.
+	 */
+	private static long readVarint(InputStream input) throws IOException {
+		long value = 0;
+		for (int shift=0; ; shift+=7) {
+			int b = input.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+	
+	/**
+	 * Stops recording, writes any remaining records to disk and closes the telemetry file.
+	 * Waits for the file to be closed, so that it is complete if the program then exits.
+	 * Must be called on the JavaFX thread.
+	 */
+	public void stop() {
+		scene.removeEventFilter(MouseEvent.ANY, handler);
+		int droppedEvents = output.stop();
+		if (droppedEvents > 0) {
+			System.err.println(droppedEvents + " mouse events were dropped because the disk could not keep up");
+		}
+	}
+	
+	/**
+	 * Converts a binary telemetry file to CSV.
+	 * @param telemetryFile : The binary file written by a MouseTelemetry recorder.
+	 * @param csvFile : The CSV file to be written.
+	 * @throws IOException : If either file cannot be read or written, or the telemetry file is not valid.
+	 */
+	public static void exportCsv(File telemetryFile, File csvFile) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(telemetryFile)));
+				PrintWriter output = new PrintWriter(csvFile, "UTF-8")) {
+			if (input.readInt() != MAGIC) {
+				throw new IOException(telemetryFile.getName() + " is not a mouse telemetry file");
+			}
+			double offsetX = input.readDouble(), offsetY = input.readDouble();
+			double scaleX = input.readDouble(), scaleY = input.readDouble();
+			scaleX = input.readDouble()/scaleX;
+			scaleY = input.readDouble()/scaleY;
+			output.write("Time (ms),Event,Screen X (pixels),Screen Y (pixels),X Value in Nautical Miles,Y Value in Nautical Miles" + System.lineSeparator());
+			long time = 0, x = 0, y = 0;
+			while (true) {
+				long value;
+				try {
+					value = readVarint(input);
+				} catch (EOFException e) {
+					break;
+				}
+				time += value >>> 2;
+				long dx = readVarint(input), dy = readVarint(input);
+				x += (dx >>> 1) ^ -(dx & 1);
+				y += (dy >>> 1) ^ -(dy & 1);
+				output.write(String.format(Locale.ROOT, "%.3f", time/1000.0) + "," + KIND_NAMES[(int)(value & 3)] + "," +
+						(x/10.0) + "," + (y/10.0) + "," +
+						String.format(Locale.ROOT, "%2.3f", ((x/10.0)-offsetX)*scaleX) + "," + String.format(Locale.ROOT, "%2.3f", ((y/10.0)-offsetY)*scaleY) + System.lineSeparator());
+			}
+		}
+	}
+	
+	/**
+	 * Converts the binary telemetry files named on the command line to CSV files alongside them.
+	 * @param args : The paths of the telemetry files to convert.
+	 * @throws IOException : If a file cannot be converted.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String path : args) {
+			File telemetryFile = new File(path);
+			exportCsv(telemetryFile, new File(path.replaceAll("\\.bin$", "") + ".csv"));
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package code;
+
+import code.ExperimentModel.MovingObject;
+import code.ExperimentModel.SpeedProfile;
+import code.ExperimentModel.WaypointObject;
+
+/**
+ * The map positions of all moving objects, kept in parallel arrays of primitives rather than in objects,
+ * so that all of the objects can be moved once per frame by a loop over contiguous memory.
+ * Positions follow the same paths and timing as the objects' animations, and are in nautical miles.
+ *
+ * Each update finds how far along its path every object has travelled at the given time, then places the
+ * object at the start of its current segment plus that fraction of the segment. Positions are calculated
+ * from the time alone rather than by adding up movements, so rounding errors do not build up between frames.
+ * Objects which travel their whole path at one speed are moved a constant distance on screen per millisecond,
+ * as their linear animations are, starting from the point at which their animations start.
+ * Objects which change speed are placed using their speed profiles.
+ */
+class MoverState {
+	
+	MovingObject[] objects;
+	private int count;
+	
+	/* Points of every object's path, stored one path after another */
+	private float[] pointX, pointY;
+	/* Distance along its path to each point, in nautical miles for objects placed by their speed profiles, otherwise in screen units */
+	private double[] pointDistance;
+	private int[] pathStart, pathEnd;
+	
+	/* The state of each object */
+	private float[] x, y; // Nautical miles
+	private double[] distance; // Distance travelled along the path, in the units of pointDistance
+	private int[] segment; // Index of the point at the start of the current segment
+	private double[] pathLength; // In the units of pointDistance
+	private double[] inverseDuration; // Inverse of the time taken to travel the whole path, in milliseconds
+	
+	/* Objects which are placed by their speed profiles rather than moved at a constant rate */
+	private int[] profiled;
+	private int profiledCount = 0;
+	
+	/* Elapsed travel time at the last update, in milliseconds */
+	private double time = 0;
+	
+	/**
+	 * Creates the state of a set of moving objects, each placed at the start of its path.
+	 * @param objects : The moving objects, whose paths and speeds have already been validated.
+	 * @param startX : The X coordinate of the point at which each object's animation starts, in nautical miles,
+	 * or null if the animations start at each object's first waypoint.
+	 * @param startY : The Y coordinate of the point at which each object's animation starts, in nautical miles.
+	 * @param aspectRatio : The on-screen width of a nautical mile divided by its on-screen height.
+	 */
+	public MoverState(MovingObject[] objects, float[] startX, float[] startY, double aspectRatio) {
+		this.objects = objects;
+		count = objects.length;
+		pathStart = new int[count];
+		pathEnd = new int[count];
+		profiled = new int[count];
+		for (int i=0; i<count; i++) {
+			if (!objects[i].hasConstantSpeed()) {
+				profiled[profiledCount++] = i;
+			}
+		}
+		/* Linear animations start with a lead-in from the start of the animation to the first waypoint */
+		int points = count;
+		for (MovingObject object : objects) {
+			points += object.pathPoints.size();
+		}
+		pointX = new float[points];
+		pointY = new float[points];
+		pointDistance = new double[points];
+		pathLength = new double[count];
+		inverseDuration = new double[count];
+		points = 0;
+		int p = 0;
+		for (int i=0; i<count; i++) {
+			boolean linear = p == profiledCount || profiled[p] != i;
+			if (!linear) {
+				p++;
+			}
+			pathStart[i] = points;
+			if (linear) {
+				pointX[points] = startX != null ? startX[i] : objects[i].pathPoints.get(0).x;
+				pointY[points++] = startY != null ? startY[i] : objects[i].pathPoints.get(0).y;
+			}
+			for (WaypointObject waypoint : objects[i].pathPoints) {
+				pointX[points] = waypoint.x;
+				pointY[points] = waypoint.y;
+				if (points > pathStart[i]) {
+					double dx = pointX[points]-pointX[points-1], dy = pointY[points]-pointY[points-1];
+					if (linear) {
+						dx *= aspectRatio;
+					}
+					pointDistance[points] = pointDistance[points-1]+Math.sqrt((dx*dx)+(dy*dy));
+				}
+				points++;
+			}
+			pathEnd[i] = points;
+			pathLength[i] = pointDistance[points-1];
+			inverseDuration[i] = 1/objects[i].speedProfile.duration;
+		}
+		x = new float[count];
+		y = new float[count];
+		distance = new double[count];
+		segment = new int[count];
+		reset();
+	}
+	
+	/**
+	 * Returns the number of moving objects.
+	 */
+	public int size() {
+		return count;
+	}
+	
+	/**
+	 * Returns the X coordinate of an object's position on the map, in nautical miles.
+	 */
+	public float getX(int object) {
+		return x[object];
+	}
+	
+	/**
+	 * Returns the Y coordinate of an object's position on the map, in nautical miles.
+	 */
+	public float getY(int object) {
+		return y[object];
+	}
+	
+	/**
+	 * Places every object at the start of its path.
+	 */
+	public void reset() {
+		time = 0;
+		for (int i=0; i<count; i++) {
+			distance[i] = 0;
+			segment[i] = pathStart[i];
+			place(i);
+		}
+	}
+	
+	/**
+	 * Moves every object to its position at a given time. Times earlier than the last update
+	 * restart the objects from the start of their paths, as happens at the start of each loop.
+	 * @param travelTime : The time since the objects started moving, in milliseconds.
+	 */
+	public void update(double travelTime) {
+		if (travelTime < time) {
+			reset();
+		}
+		time = travelTime;
+		for (int i=0; i<count; i++) {
+			distance[i] = Math.min(1, travelTime*inverseDuration[i])*pathLength[i];
+		}
+		for (int p=0; p<profiledCount; p++) {
+			int i = profiled[p];
+			SpeedProfile profile = objects[i].speedProfile;
+			distance[i] = profile.progressAt(travelTime/profile.duration)*pathLength[i];
+		}
+		for (int i=0; i<count; i++) {
+			while (distance[i] > pointDistance[segment[i]+1] && segment[i] < pathEnd[i]-2) {
+				segment[i]++;
+			}
+			place(i);
+		}
+	}
+	
+	/**
+	 * Sets an object's position from its segment and the distance it has travelled along its path.
+	 */
+	private void place(int i) {
+		int start = segment[i];
+		double length = pointDistance[start+1]-pointDistance[start];
+		double fraction = length > 0 ? Math.min(1, (distance[i]-pointDistance[start])/length) : 1;
+		x[i] = (float)(pointX[start]+((pointX[start+1]-pointX[start])*fraction));
+		y[i] = (float)(pointY[start]+((pointY[start+1]-pointY[start])*fraction));
+	}
+}
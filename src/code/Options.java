@@ -0,0 +1,75 @@
+package code;
+
+/**
+ * Optional features of the program, which are enabled by passing system properties to the JVM
+ * when the program is launched, e.g. "java -Dtracker.trajectoryRate=60 -jar Tracker.jar".
+ * All optional features are disabled by default.
+ */
+class Options {
+	
+	/* Number of times per second that the positions of the moving objects are recorded, or 0 to disable recording */
+	static final double trajectoryRate = getDouble("tracker.trajectoryRate", 0);
+	
+	/* Whether the report is written to disk continuously while the experiment runs, rather than when it ends */
+	static final boolean streamReport = Boolean.getBoolean("tracker.streamReport");
+	
+	/* Seconds between forcing the streamed report to the disk, or 0 to leave it to the operating system.
+	 * The report is written to the file more often than this, but forcing each write to the disk is slow */
+	static final double syncInterval = getDouble("tracker.syncInterval", 5);
+	
+	/* How the report is compressed: "none", "gzip", or "delta" for a compact encoding of the events, see CompressedReport */
+	static final String reportCompression = System.getProperty("tracker.reportCompression", "none");
+	
+	/* Whether a typed binary copy of the report is written alongside it, see ColumnarLog */
+	static final boolean columnarLog = Boolean.getBoolean("tracker.columnarLog");
+	
+	/* Whether the path of the mouse pointer is recorded, see MouseTelemetry */
+	static final boolean mouseTelemetry = Boolean.getBoolean("tracker.mouseTelemetry");
+	
+	/* Distance in pixels and time in milliseconds which must separate recorded mouse pointer movements */
+	static final double mouseDistance = getDouble("tracker.mouseDistance", 2);
+	static final double mouseInterval = getDouble("tracker.mouseInterval", 4);
+	
+	/* Whether the program returns to the subject number screen after each session rather than closing, so that
+	 * several participants can be run without restarting it */
+	static final boolean sessionLoop = Boolean.getBoolean("tracker.sessionLoop");
+	
+	/* Host and port of an EventCollector to stream the report to, e.g. "lab-server:7070", see CollectorSink */
+	static final String collector = System.getProperty("tracker.collector", "");
+	
+	/* Name which identifies this station's events in the collector, and the most megabytes of events kept while it cannot be reached */
+	static final String station = System.getProperty("tracker.station", getHostName());
+	static final double collectorSpool = getDouble("tracker.collectorSpool", 64);
+	
+	/* Port on which the progress of the experiment is published over HTTP, or 0 to disable monitoring, see Monitor */
+	static final int monitorPort = Integer.getInteger("tracker.monitorPort", 0);
+	
+	/**
+	 * Returns the value of a numeric system property, or a default if it is not set or is not a number.
+	 * @param name : The name of the property.
+	 * @param defaultValue : The value to use if the property is not set or is not a number.
+	 */
+	private static double getDouble(String name, double defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			System.err.println("Ignoring " + name + "=" + value + ", which is not a number; using " + defaultValue);
+			return defaultValue;
+		}
+	}
+	
+	/**
+	 * Returns the name of this computer, or "station" if it cannot be determined.
+	 */
+	private static String getHostName() {
+		try {
+			return java.net.InetAddress.getLocalHost().getHostName();
+		} catch (java.io.IOException e) {
+			return "station";
+		}
+	}
+}
@@ -1,27 +1,124 @@
 package code;
 
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 
 import code.ExperimentModel.BinaryQuery;
 import code.ExperimentModel.FindQuery;
 import code.ExperimentModel.Query;
 import code.ExperimentModel.ScreenMaskEvent;
 import code.ExperimentModel.TextResponseQuery;
+import code.SessionLog.Type;
 
 /**
  * Builds a report of all events which occur during an experiment and writes it to disk.
+ * Events may be reported from any thread. Each event is placed in a preallocated record in a lock-free queue,
+ * and a single report writer thread formats the queued events in order and adds them to the report.
+ * There is one report per process, for the session set by setSession().
  * @author Graham Home
  *
  */
 public class ReportWriter {
 	
+	/* The experiment and participant of the session being reported, which name the report files */
+	static volatile String experimentName;
+	static volatile String participantId;
+	
+	/* Reported events are passed to the report writer thread through a ring of preallocated event records */
+	private static final int QUEUE_SIZE = 8192; // Must be a power of 2
+	private static final ReportEvent[] queue = new ReportEvent[QUEUE_SIZE];
+	/* The sequence number of the event most recently published in each slot of the queue */
+	private static final AtomicLongArray published = new AtomicLongArray(QUEUE_SIZE);
+	/* The sequence number of the next event to be claimed by a reporting thread */
+	private static final AtomicLong claimed = new AtomicLong();
+	/* The sequence number of the next event to be written by the report writer thread */
+	private static volatile long consumed = 0;
+	/* Time the report writer thread waits before checking an empty queue again */
+	private static final long IDLE_WAIT = 1000000; // Nanoseconds
+	
+	/* The following fields are only used by the report writer thread */
 	private static StringBuilder report = new StringBuilder();
-
-	private static String getReportFileName() {
+	/* The session time of the last click, which is also the time of the object hits it produced */
+	private static long lastClickTime;
+	/* Reused buffers in which times and numbers are formatted */
+	private static final char[] timeText = "00:00:00:000.000,".toCharArray();
+	private static final char[] decimalText = new char[3];
+	/* When streaming, the report is periodically moved from the report buffer to the report file */
+	private static final long STREAM_INTERVAL = 250000000; // Nanoseconds
+	private static FileOutputStream stream;
+	private static OutputStream streamOutput;
+	private static Writer streamWriter;
+	private static long lastStreamWrite;
+	/* Forcing the file to the disk is much slower than writing to it, so it is done less often */
+	private static final long SYNC_INTERVAL = (long)(Options.syncInterval*1000000000); // Nanoseconds
+	private static long lastSync;
+	private static boolean unsynced = false;
+	private static char[] chunk = new char[8192];
+	/* Typed binary copy of the report, written alongside it if enabled */
+	private static ColumnarLog columnarLog = Options.columnarLog ? new ColumnarLog() : null;
+	/* Statistics of the session, updated as each event is written and saved alongside the report */
+	private static SessionSummary summary = new SessionSummary();
+	/* Compact encoding of the report, written instead of the text if delta compression is enabled */
+	private static CompressedReport compressedReport = Options.reportCompression.equals(CompressedReport.DELTA) ? new CompressedReport() : null;
+	/* Sends the events to a collector as they are written, if enabled */
+	private static CollectorSink collector = Options.collector.isEmpty() ? null : new CollectorSink(Options.collector, Options.station, (long)(Options.collectorSpool*1048576));
+	/* Time to wait for the collector to receive the last events when the program closes */
+	private static final long COLLECTOR_EXIT_WAIT = 3000; // Milliseconds
+	
+	static {
+		for (int i=0; i<QUEUE_SIZE; i++) {
+			queue[i] = new ReportEvent();
+			published.set(i, -1);
+		}
+		Thread writer = new Thread(() -> writeEvents(), "Report Writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	/**
+	 * A reported event waiting in the queue, or a command to be run by the report writer thread.
+	 * The meaning of the flag, numeric and text values depends on the type of event.
+	 */
+	private static class ReportEvent {
+		long time;
+		Type type;
+		boolean flag;
+		double a, b;
+		String text, secondText;
+		Runnable command;
+		CountDownLatch done;
+	}
+	
+	/**
+	 * Sets the experiment and participant of the session being reported.
+	 * @param experiment : The name of the experiment.
+	 * @param participant : The ID of the participant.
+	 */
+	public static void setSession(String experiment, String participant) {
+		experimentName = experiment;
+		participantId = participant;
+	}
+	
+	/**
+	 * Returns the name of a file belonging to the report of the current experiment.
+	 * @param suffix : The text to follow the experiment name and participant ID in the file name.
+	 */
+	static String getReportFileName(String suffix) {
 		Calendar cal = Calendar.getInstance();
 		return new StringBuilder()
 				.append(cal.get(Calendar.MONTH)+1)
@@ -30,33 +127,300 @@ public class ReportWriter {
 				.append("-")
 				.append(cal.get(Calendar.YEAR))
 				.append("-")
-				.append(ExperimentModel.name)
+				.append(experimentName)
 				.append("-")
-				.append(ExperimentModel.participantId)
-				.append(".csv").toString();
+				.append(participantId)
+				.append(suffix).toString();
+	}
+	
+	/**
+	 * Returns the report file of the current experiment, whose name depends on the compression of the report.
+	 */
+	static File getReportFile() {
+		return new File(getReportFileName(CompressedReport.getSuffix(Options.reportCompression)));
+	}
+	
+	/**
+	 * Claims the next slot in the queue, waiting for the report writer thread to free it if the queue is full.
+	 * @return : The sequence number of the claimed slot.
+	 */
+	private static long claim() {
+		long sequence = claimed.getAndIncrement();
+		while (sequence-consumed >= QUEUE_SIZE) {
+			Thread.yield();
+		}
+		return sequence;
+	}
+	
+	/**
+	 * Places an event in the queue, stamped with the current session time.
+	 */
+	private static void publish(Type type, boolean flag, double a, double b, String text, String secondText) {
+		long sequence = claim();
+		int slot = (int)(sequence & (QUEUE_SIZE-1));
+		ReportEvent event = queue[slot];
+		event.time = SessionClock.elapsedNanos();
+		event.type = type;
+		event.flag = flag;
+		event.a = a;
+		event.b = b;
+		event.text = text;
+		event.secondText = secondText;
+		published.lazySet(slot, sequence);
+	}
+	
+	/**
+	 * Runs a command on the report writer thread after all events reported before it have been written,
+	 * and waits for the command to finish.
+	 */
+	private static void runOnWriterThread(Runnable command) {
+		CountDownLatch done = new CountDownLatch(1);
+		long sequence = claim();
+		int slot = (int)(sequence & (QUEUE_SIZE-1));
+		queue[slot].command = command;
+		queue[slot].done = done;
+		published.lazySet(slot, sequence);
+		boolean interrupted = false;
+		while (done.getCount() > 0) {
+			try {
+				done.await();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Returns the number of events and commands which the report writer thread has processed.
+	 */
+	static long getEventsProcessed() {
+		return consumed;
+	}
+	
+	/**
+	 * Waits until all events reported so far have been added to the report.
+	 */
+	static void drain() {
+		runOnWriterThread(() -> {});
+	}
+	
+	/**
+	 * Takes events from the queue in order and adds them to the report. Runs on the report writer thread.
+	 */
+	private static void writeEvents() {
+		while (true) {
+			long sequence = consumed;
+			int slot = (int)(sequence & (QUEUE_SIZE-1));
+			if (published.get(slot) == sequence) {
+				ReportEvent event = queue[slot];
+				CountDownLatch done = event.done;
+				try {
+					if (event.command != null) {
+						event.command.run();
+					} else {
+						writeEvent(event);
+						summary.add(event.time, event.type, event.flag, event.a, event.text);
+						if (compressedReport != null) {
+							compressedReport.add(event.time, event.type, event.flag, event.a, event.b, event.text, event.secondText);
+						}
+						if (columnarLog != null) {
+							columnarLog.add(event.time, event.type, event.flag, event.a, event.b, event.text, event.secondText);
+						}
+						if (collector != null) {
+							collector.add(event.time, event.type, event.flag, event.a, event.b, event.text, event.secondText);
+						}
+						SessionLog.current.record(event.time, event.type, event.flag, event.a, event.b,
+								event.secondText == null ? event.text : event.text + "\n" + event.secondText);
+					}
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+				event.text = null;
+				event.secondText = null;
+				event.command = null;
+				event.done = null;
+				consumed = sequence+1;
+				if (done != null) {
+					done.countDown();
+				}
+			} else {
+				LockSupport.parkNanos(IDLE_WAIT);
+			}
+			if (stream != null && System.nanoTime()-lastStreamWrite >= STREAM_INTERVAL) {
+				writeBatch();
+			}
+			if (collector != null) {
+				collector.flushIfDue(System.nanoTime());
+			}
+		}
+	}
+	
+	/**
+	 * Add the elapsed time to the current line of the experiment report, as hours:minutes:seconds:milliseconds.microseconds.
+	 * The time is formatted in a reused buffer so that no objects are created for each event.
+	 * @param time : The session time of the event being reported, in nanoseconds.
+	 */
+	private static void reportTime(long time) {
+		long micros = Math.max(0, time/1000);
+		long hours = micros/3600000000L;
+		if (hours > 99) {
+			report.append(hours/100);
+		}
+		putDigits(timeText, 0, 2, hours%100);
+		putDigits(timeText, 3, 2, (micros/60000000)%60);
+		putDigits(timeText, 6, 2, (micros/1000000)%60);
+		putDigits(timeText, 9, 3, (micros/1000)%1000);
+		putDigits(timeText, 13, 3, micros%1000);
+		report.append(timeText);
+	}
+	
+	/**
+	 * Writes the digits of a value into a buffer, padded with leading zeros.
+	 * @param buffer : The buffer to write into.
+	 * @param position : The position of the first digit in the buffer.
+	 * @param width : The number of digits to write.
+	 * @param value : The non-negative value to write, which must fit in the given number of digits.
+	 */
+	private static void putDigits(char[] buffer, int position, int width, long value) {
+		for (int i=position+width-1; i>=position; i--) {
+			buffer[i] = (char)('0' + (value%10));
+			value /= 10;
+		}
+	}
+	
+	/**
+	 * Add a number to the current line of the experiment report, rounded to 3 decimal places.
+	 * Equivalent to String.format("%2.3f", value), which rounds the decimal digits given by Double.toString() half up.
+	 * @param value : The number to add.
+	 */
+	private static void reportDecimal(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= Long.MAX_VALUE/1000) {
+			report.append(String.format(Locale.ROOT, "%2.3f", value));
+			return;
+		}
+		long thousandths = roundThousandths(value);
+		if (Double.doubleToRawLongBits(value) < 0) {
+			report.append('-'); // Negative values, including those which round to zero
+		}
+		report.append(thousandths/1000).append('.');
+		putDigits(decimalText, 0, 3, thousandths%1000);
+		report.append(decimalText);
+	}
+	
+	/**
+	 * Returns the size of a number in thousandths, rounded as the report rounds it: the decimal digits given by
+	 * Double.toString() are rounded half up. No objects are created unless the value is within rounding error of
+	 * halfway between two thousandths, where the digits of the value decide which way it is rounded.
+	 * @param value : A finite number smaller in size than Long.MAX_VALUE/1000.
+	 * @return : The absolute value of the number in thousandths, rounded.
+	 */
+	static long roundThousandths(double value) {
+		double scaled = Math.abs(value)*1000;
+		long thousandths = Math.round(scaled);
+		/* The digits of the value and the scaled value differ by less than 1.5 units in the last place of the scaled value */
+		if (Math.abs(scaled-Math.floor(scaled)-0.5) <= 2*Math.ulp(scaled)) {
+			thousandths = new BigDecimal(Double.toString(Math.abs(value))).setScale(3, RoundingMode.HALF_UP).unscaledValue().longValue();
+		}
+		return thousandths;
 	}
 	
 	/**
-	 * Add the elapsed time to the current line of the experiment report.
+	 * Adds a line describing a queued event to the report.
 	 */
-	private static String reportTime() {
-		long elapsedMillis = System.currentTimeMillis()-ExperimentModel.startTime;
-		long hours = elapsedMillis/3600000;
-		long remainder = elapsedMillis%3600000;
-		long minutes = remainder/60000;
-		remainder = remainder%60000;
-		long seconds = remainder/1000;
-		long millis = Math.round((double)remainder%1000);
-		
-		StringBuilder time = new StringBuilder();
-		for (long value : Arrays.asList(hours, minutes, seconds)) {
-			time.append(value > 0 ? value : "00");
-			time.append(":");
+	private static void writeEvent(ReportEvent event) {
+		switch (event.type) {
+			case FREEZE:
+				reportTime(event.time);
+				report.append("Moving Objects ")
+				.append(event.flag ? "Frozen" : "Unfrozen");
+				break;
+			case STATUS:
+				reportTime(event.flag ? 0 : event.time);
+				report.append("Experiment ")
+				.append(event.flag ? "Started" : "Stopped");
+				break;
+			case LOOP:
+				reportTime(event.time);
+				report.append("Loop ")
+				.append((int)event.a)
+				.append(" Started")
+				.append(",");
+				break;
+			case MASK:
+				reportTime(event.time);
+				report.append("Mask ")
+				.append(event.flag ? "Appearance" : "Disappearance")
+				.append(",")
+				.append(event.text);
+				break;
+			case IDENTITY_MASK:
+				reportTime(event.time);
+				report.append("Identity Mask ")
+				.append(event.flag ? "Appearance" : "Disappearance");
+				break;
+			case QUERY:
+				reportTime(event.time);
+				report.append(event.a == 0 ? "Click Query " : 
+					event.a == 1 ? "Text Query " : "Yes/No Query ")
+				.append(event.flag ? "Appearance" : "Disappearance")
+				.append(",")
+				.append(event.text);
+				break;
+			case TEXT_ENTRY:
+				reportTime(event.time);
+				report.append("Text Entry")
+				.append(",")
+				.append(event.text.replaceAll(",", ""));
+				break;
+			case CLICK:
+				lastClickTime = event.time;
+				reportTime(event.time);
+				report.append("Click")
+				.append(",");
+				reportDecimal((float)event.a);
+				report.append(",");
+				reportDecimal((float)event.b);
+				break;
+			case BINARY_RESPONSE:
+				reportTime(event.time);
+				report.append("Yes/No Response")
+				.append(",")
+				.append(event.flag ? "Yes" : "No");
+				break;
+			case OBJECT_HIT:
+				reportTime(lastClickTime);
+				report.append("Object Hit")
+				.append(",")
+				.append(event.text)
+				.append(",");
+				reportDecimal(event.a);
+				break;
+			case IDENTITY_VIEWED:
+				reportTime(event.time);
+				report.append("Object Identity Viewed")
+				.append(",")
+				.append(event.text);
+				break;
+			case CONFLICT:
+				reportTime(event.time);
+				report.append("Conflict ")
+				.append(event.flag ? "Start" : "End")
+				.append(",")
+				.append(event.text)
+				.append(",")
+				.append(event.secondText);
+				if (event.flag) {
+					report.append(",");
+					reportDecimal(event.a);
+				}
+				break;
+			default:
+				return;
 		}
-		time.append(millis > 0 ? millis : "000");
-		time.append(",");
-		report.append(time.toString());
-		return time.toString();
+		report.append(System.lineSeparator());
 	}
 	
 	/**
@@ -64,10 +428,7 @@ public class ReportWriter {
 	 * @param frozen : True to report freeze, False to report un-freeze.
 	 */
 	public static void reportFreeze(boolean frozen) {
-		reportTime();
-		report.append("Moving Objects ")
-		.append(frozen ? "Frozen" : "Unfrozen")
-		.append(System.lineSeparator());
+		publish(Type.FREEZE, frozen, 0, 0, null, null);
 	}
 	
 	/**
@@ -76,14 +437,11 @@ public class ReportWriter {
 	 */
 	public static void reportStatus(boolean started) {
 		if (started) {
-			ExperimentModel.startTime = System.currentTimeMillis();
-			report.append("00:00:00:000,");
-		} else {
-			reportTime();
+			SessionClock.start();
+			SessionLog.current.experimentName = experimentName;
+			SessionLog.current.participantId = participantId;
 		}
-		report.append("Experiment ")
-		.append(started ? "Started" : "Stopped")
-		.append(System.lineSeparator());
+		publish(Type.STATUS, started, 0, 0, null, null);
 	}
 	
 	/**
@@ -91,12 +449,7 @@ public class ReportWriter {
 	 * @param loopNumber : The number of the loop to report.
 	 */
 	public static void reportLoop(int loopNumber) {
-		reportTime();
-		report.append("Loop ")
-		.append(loopNumber)
-		.append(" Started")
-		.append(",")
-		.append(System.lineSeparator());
+		publish(Type.LOOP, false, loopNumber, 0, null, null);
 	}
 	
 	/**
@@ -105,12 +458,7 @@ public class ReportWriter {
 	 * @param start : True to log the mask appearance, False to log the mask disappearance.
 	 */
 	public static void reportMask(ScreenMaskEvent mask, boolean show) {
-		reportTime();
-		report.append("Mask ")
-		.append(show ? "Appearance" : "Disappearance")
-		.append(",")
-		.append(mask.image.getName())
-		.append(System.lineSeparator());
+		publish(Type.MASK, show, 0, 0, mask.image.getName(), null);
 	}
 	
 	/**
@@ -119,10 +467,7 @@ public class ReportWriter {
 	 * @param start : True to log the mask appearance, False to log the mask disappearance.
 	 */
 	public static void reportIdentityMask(boolean show) {
-		reportTime();
-		report.append("Identity Mask ")
-		.append(show ? "Appearance" : "Disappearance")
-		.append(System.lineSeparator());
+		publish(Type.IDENTITY_MASK, show, 0, 0, null, null);
 	}
 	
 	/**
@@ -131,13 +476,7 @@ public class ReportWriter {
 	 * @param show : True to log the query appearance, False to log the query disappearance.
 	 */
 	public static void reportQuery(Query query, boolean show) {
-		reportTime();
-		report.append(query instanceof FindQuery ? "Click Query " : 
-			query instanceof TextResponseQuery ? "Text Query " : "Yes/No Query ")
-		.append(show ? "Appearance" : "Disappearance")
-		.append(",")
-		.append(query.text)
-		.append(System.lineSeparator());
+		publish(Type.QUERY, show, query instanceof FindQuery ? 0 : query instanceof TextResponseQuery ? 1 : 2, 0, query.text, null);
 	}
 	
 	/**
@@ -145,11 +484,7 @@ public class ReportWriter {
 	 * @param value : The text entered by the user.
 	 */
 	public static void reportTextEntry(TextResponseQuery query) {
-		reportTime();
-		report.append("Text Entry")
-		.append(",")
-		.append(query.value.replaceAll(",", ""))
-		.append(System.lineSeparator());
+		publish(Type.TEXT_ENTRY, false, 0, 0, query.value, null);
 	}
 	
 	/**
@@ -157,24 +492,14 @@ public class ReportWriter {
 	 * @param click : The Click to report.
 	 */
 	public static void reportClick(FindQuery query) {
-		ExperimentModel.lastClickTime = reportTime();
-		report.append("Click")
-		.append(",")
-		.append(String.format("%2.3f", query.x))
-		.append(",")
-		.append(String.format("%2.3f",query.y))
-		.append(System.lineSeparator());
+		publish(Type.CLICK, false, query.x, query.y, null, null);
 	}
 	
 	/**
 	 * Report a yes/no response event.
 	 */
 	public static void reportBinaryQueryResponse(BinaryQuery query) {
-		reportTime();
-		report.append("Yes/No Response")
-		.append(",")
-		.append(query.response ? "Yes" : "No")
-		.append(System.lineSeparator());
+		publish(Type.BINARY_RESPONSE, query.response, 0, 0, null, null);
 	}
 	
 	/**
@@ -183,13 +508,7 @@ public class ReportWriter {
 	 * @param distance : The distance to the object from the click location.
 	 */
 	public static void reportObjectHit(String label, double distance) {
-		report.append(ExperimentModel.lastClickTime)
-		.append("Object Hit")
-		.append(",")
-		.append(label)
-		.append(",")
-		.append(String.format("%2.3f", distance))
-		.append(System.lineSeparator());
+		publish(Type.OBJECT_HIT, false, distance, 0, label, null);
 	}
 	
 	/**
@@ -197,17 +516,205 @@ public class ReportWriter {
 	 * @param label : The text of the label which was viewed.
 	 */
 	public static void reportIdentityViewed(String label) {
-		reportTime();
-		report.append("Object Identity Viewed")
-		.append(",")
-		.append(label)
-		.append(System.lineSeparator());
+		publish(Type.IDENTITY_VIEWED, false, 0, 0, label, null);
 	}
 	
 	/**
-	 * Writes the report to the report file.
+	 * Report the start or end of a conflict between two moving objects.
+	 * @param first : The label of the first object in the conflict.
+	 * @param second : The label of the second object in the conflict.
+	 * @param started : True to report the start of the conflict, False to report its end.
+	 * @param distance : The distance between the objects, in nautical miles.
+	 */
+	public static void reportConflict(String first, String second, boolean started, double distance) {
+		publish(Type.CONFLICT, started, distance, 0, first, second);
+	}
+	
+	/**
+	 * Discards all events reported so far.
+	 */
+	public static void reset() {
+		runOnWriterThread(() -> {
+			report.setLength(0);
+			lastClickTime = 0;
+			summary.clear();
+			if (columnarLog != null) {
+				columnarLog.clear();
+			}
+			if (compressedReport != null) {
+				compressedReport.clear();
+			}
+		});
+	}
+	
+	/**
+	 * Starts writing the report to a file while the experiment runs. The headers are written immediately,
+	 * and reported events are appended to the file in batches by the report writer thread.
+	 * @param file : The file to write the report to.
+	 * @throws IOException : If the report file cannot be written.
+	 */
+	public static void startStreaming(File file) throws IOException {
+		FileOutputStream fileStream = new FileOutputStream(file);
+		OutputStream output = CompressedReport.open(fileStream, Options.reportCompression);
+		runOnWriterThread(() -> {
+			try {
+				if (compressedReport != null) {
+					compressedReport.writeHeader(output);
+				} else {
+					streamWriter = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"));
+					writeHeaders(streamWriter);
+				}
+				stream = fileStream;
+				streamOutput = output;
+				lastSync = System.nanoTime();
+				if (columnarLog != null) {
+					columnarLog.experimentName = experimentName;
+					columnarLog.participantId = participantId;
+					columnarLog.startStreaming(new File(getReportFileName("-events.tcl")));
+				}
+				writeBatch();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+	}
+	
+	/**
+	 * Moves the contents of the report buffer to the report file, and forces the file to the disk
+	 * if it has not been for the sync interval. Runs on the report writer thread.
+	 */
+	private static void writeBatch() {
+		lastStreamWrite = System.nanoTime();
+		SessionLog.current.flush();
+		if (report.length() > 0) {
+			try {
+				if (compressedReport != null) {
+					compressedReport.writeTo(streamOutput);
+					streamOutput.flush();
+				} else {
+					for (int start=0; start<report.length(); start+=chunk.length) {
+						int end = Math.min(report.length(), start+chunk.length);
+						report.getChars(start, end, chunk, 0);
+						streamWriter.write(chunk, 0, end-start);
+					}
+					streamWriter.flush();
+				}
+				report.setLength(0);
+				unsynced = true;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (unsynced && SYNC_INTERVAL > 0 && lastStreamWrite-lastSync >= SYNC_INTERVAL) {
+			sync();
+		}
+	}
+	
+	/**
+	 * Ensures that everything written to the report file has reached the disk in case of power loss.
+	 * Runs on the report writer thread.
+	 */
+	private static void sync() {
+		try {
+			stream.getFD().sync();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		lastSync = System.nanoTime();
+		unsynced = false;
+	}
+	
+	/**
+	 * Writes the report to the report file, or finishes writing it if it is being streamed.
+	 * The summary of the session and the columnar log, if enabled, are also written, or finished if being streamed.
 	 */
 	public static void writeReport() {
+		runOnWriterThread(() -> {
+			if (stream != null) {
+				writeBatch();
+				if (unsynced && SYNC_INTERVAL > 0) {
+					sync();
+				}
+				try {
+					(streamWriter != null ? streamWriter : streamOutput).close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				stream = null;
+				streamOutput = null;
+				streamWriter = null;
+			} else {
+				writeReportFile(getReportFile(), true);
+			}
+			try {
+				summary.save(new File(getReportFileName("-summary.csv")));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			if (columnarLog != null) {
+				try {
+					columnarLog.experimentName = experimentName;
+					columnarLog.participantId = participantId;
+					columnarLog.save(new File(getReportFileName("-events.tcl")));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Sends any events not yet sent to the collector, if enabled, and waits a short time for it to receive them.
+	 */
+	static void finishCollecting() {
+		if (collector != null) {
+			runOnWriterThread(() -> collector.seal());
+			try {
+				if (!collector.awaitDelivery(COLLECTOR_EXIT_WAIT)) {
+					System.err.println("Some events could not be sent to the collector; they are in the local results file");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the report to the specified file.
+	 * @param file : The file to write the report to.
+	 */
+	public static void writeReport(File file) {
+		runOnWriterThread(() -> writeReportFile(file, false));
+	}
+	
+	/**
+	 * Writes the headers and the contents of the report buffer to a file. Runs on the report writer thread.
+	 * @param file : The file to write the report to.
+	 * @param compress : True to write the report with the compression given by the options, False to write text.
+	 */
+	private static void writeReportFile(File file, boolean compress) {
+		try (OutputStream output = compress ? CompressedReport.open(new FileOutputStream(file), Options.reportCompression) 
+				: new BufferedOutputStream(new FileOutputStream(file))) {
+			if (compress && compressedReport != null) {
+				compressedReport.writeHeader(output);
+				compressedReport.writeTo(output);
+			} else {
+				Writer reportWriter = new OutputStreamWriter(output, "UTF-8");
+				writeHeaders(reportWriter);
+				reportWriter.write(report.toString());
+				reportWriter.flush();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Writes the header lines which describe the columns of each type of event in the report.
+	 * @param writer : A writer for the report file.
+	 * @throws IOException : If the headers cannot be written.
+	 */
+	private static void writeHeaders(Writer writer) throws IOException {
 		String commonHeader = "Time (all events), Event Type (all events)" + System.lineSeparator();
 		String maskHeader = ",Mask Image Name (mask events)" + System.lineSeparator();
 		String queryHeader = ",,Query Text (query events)" + System.lineSeparator();
@@ -216,16 +723,9 @@ public class ReportWriter {
 		String hitHeader =",,Label of Hit Object (object hit events),Distance to Object in Nautical Miles (object hit events)" + System.lineSeparator();
 		String identityViewedEvent = ",,Label of Object Viewed (identity viewed events)" + System.lineSeparator();
 		String binaryResponseHeader = ",,Response" + System.lineSeparator();
-		try {
-			PrintWriter reportWriter = new PrintWriter(getReportFileName(), "UTF-8");
-			for (String header : Arrays.asList(commonHeader, maskHeader, queryHeader, textEntryHeader, clickHeader, binaryResponseHeader, hitHeader, identityViewedEvent)) {
-				reportWriter.write(header);
-			}
-			reportWriter.write(report.toString());
-			reportWriter.close();
-		} catch (FileNotFoundException | UnsupportedEncodingException e) {
-			e.printStackTrace();
+		String conflictHeader = ",,Label of First Object (conflict events),Label of Second Object (conflict events),Distance Between Objects in Nautical Miles (conflict start events)" + System.lineSeparator();
+		for (String header : Arrays.asList(commonHeader, maskHeader, queryHeader, textEntryHeader, clickHeader, binaryResponseHeader, hitHeader, identityViewedEvent, conflictHeader)) {
+			writer.write(header);
 		}
-		
 	}
 }
@@ -1,10 +1,32 @@
 package code;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.ArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import code.SessionLog.Type;
+
 abstract class SchedulableEvent {
+	/* Runs the appearances and removals of all events at their scheduled times */
+	private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, task -> {
+		Thread thread = new Thread(task, "Event Scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/* While a session is replayed, appearances and removals are held here until the replay reaches the time at which they happened */
+	private static final ArrayList<HeldTask> heldTasks = new ArrayList<>();
+	
+	/**
+	 * An appearance or removal of an event which is waiting to be run by a replay.
+	 */
+	private static class HeldTask {
+		SchedulableEvent event;
+		boolean removal;
+		long dueTime; // Session time at which the task was due, in nanoseconds
+		Runnable task;
+	}
+	
 	public SchedulableEvent next = null;
 	public int loopNumber;
 	public long delay;
@@ -12,24 +34,29 @@ abstract class SchedulableEvent {
 	public boolean scheduledTermination = false;
 	public boolean responseReceived = false;
 	public void execute() {
+		SessionLog.current.record(Type.EVENT_SCHEDULED, false, delay, scheduledTermination ? duration : -1, getDescription());
+		long dueTime = System.nanoTime()+SessionClock.toRealNanos(delay);
 		// Schedule event appearance
-		ScheduledExecutorService addEventService = Executors.newSingleThreadScheduledExecutor();
-		addEventService.schedule(new Runnable() {
+		schedule(new Runnable() {
 			@Override
 			public void run() {
+				Monitor.recordSchedulingLag(System.nanoTime()-dueTime);
 				if (TrackingActivity.loop == loopNumber) {
+					SessionLog.current.record(Type.EVENT_SHOWN, false, loopNumber, 0, getDescription());
 					if (TrackingActivity.activeQuery != null) {
 						TrackingActivity.activeQuery.hide();
 					}
 					show();
+				} else {
+					SessionLog.current.record(Type.EVENT_SKIPPED, false, loopNumber, 0, getDescription());
 				}
 				if (scheduledTermination) {
 					// Schedule event removal
-					ScheduledExecutorService removeMaskService = Executors.newSingleThreadScheduledExecutor();
-					removeMaskService.schedule(new Runnable() {
+					schedule(new Runnable() {
 						@Override
 						public void run() {
 							if (!responseReceived) {
+								SessionLog.current.record(Type.EVENT_EXPIRED, false, loopNumber, 0, getDescription());
 								hide();
 								if (next != null && loopNumber == TrackingActivity.loop) {
 									if (next instanceof GraphicalMaskObject) {
@@ -40,11 +67,101 @@ abstract class SchedulableEvent {
 								}
 							}
 						}
-					}, duration, TimeUnit.MILLISECONDS);
+					}, duration, true);
+				}
+			}
+		}, delay, false);
+	}
+	
+	/**
+	 * Schedules the appearance or removal of this event to run after a period of session time.
+	 * While a session is replayed the task is held instead, to be run by runHeld().
+	 * @param task : The appearance or removal.
+	 * @param delay : The period of session time after which the task is run, in milliseconds.
+	 * @param removal : True if the task removes the event, false if it shows the event.
+	 */
+	private void schedule(Runnable task, long delay, boolean removal) {
+		if (SessionClock.isReplaying()) {
+			HeldTask held = new HeldTask();
+			held.event = this;
+			held.removal = removal;
+			held.dueTime = SessionClock.elapsedNanos()+TimeUnit.MILLISECONDS.toNanos(delay);
+			held.task = task;
+			synchronized (heldTasks) {
+				heldTasks.add(held);
+			}
+		} else {
+			scheduler.schedule(task, SessionClock.toRealNanos(delay), TimeUnit.NANOSECONDS);
+		}
+	}
+	
+	/**
+	 * Runs a held appearance or removal while a session is replayed, at the time the session log shows it happened.
+	 * If several events with the same description are held, the task which was due first is run.
+	 * @param description : The description of the event in the session log.
+	 * @param removal : True to run the removal of the event, false to run its appearance.
+	 * @return : False if no such appearance or removal is held.
+	 */
+	static boolean runHeld(String description, boolean removal) {
+		HeldTask next = null;
+		synchronized (heldTasks) {
+			for (HeldTask held : heldTasks) {
+				if (held.removal == removal && held.event.getDescription().equals(description) && (next == null || held.dueTime < next.dueTime)) {
+					next = held;
 				}
 			}
-		}, delay, TimeUnit.MILLISECONDS);
+			heldTasks.remove(next);
+		}
+		if (next == null) {
+			return false;
+		}
+		next.task.run();
+		return true;
+	}
+	
+	/**
+	 * Returns the number of appearances, and removals of events which have not been responded to,
+	 * which are held by a replay and were due before a given time.
+	 * @param time : The session time, in nanoseconds.
+	 */
+	static int countHeld(long time) {
+		int count = 0;
+		synchronized (heldTasks) {
+			for (HeldTask held : heldTasks) {
+				if (held.dueTime < time && !(held.removal && held.event.responseReceived)) {
+					count++;
+				}
+			}
+		}
+		return count;
 	}
 	public void show() {}
 	public void hide() {}
+	
+	/**
+	 * Returns the event to its state before the experiment started, so it can be executed again in the next session.
+	 */
+	public void reset() {
+		responseReceived = false;
+	}
+	
+	/**
+	 * Cancels every appearance and removal which has been scheduled but has not yet happened.
+	 */
+	static void cancelScheduled() {
+		for (Runnable task : scheduler.getQueue()) {
+			((Future<?>)task).cancel(false);
+		}
+		scheduler.purge();
+		synchronized (heldTasks) {
+			heldTasks.clear();
+		}
+	}
+	
+	/**
+	 * Returns a short description of the event for the session log.
+	 */
+	public String getDescription() {
+		return getClass().getSimpleName();
+	}
 }
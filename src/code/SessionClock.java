@@ -0,0 +1,90 @@
+package code;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time elapsed since the start of the experiment session. The clock is monotonic, so it is
+ * unaffected by adjustments to the system clock. When a session is replayed, the clock is instead set to
+ * the recorded time of each event as it is replayed. The clock can also be set to run faster than real time,
+ * so that synthetic participants can run whole experiments in a fraction of their length; the scheduled events
+ * and the moving objects follow the same scale.
+ */
+class SessionClock {
+	
+	/* Read by every thread which reports events or records entries in the session log */
+	private static volatile long origin = System.nanoTime();
+	private static volatile boolean replaying = false;
+	private static volatile long replayTime = 0;
+	private static volatile double scale = 1; // Multiple of real time
+	
+	/**
+	 * Starts measuring time from the current moment.
+	 */
+	static void start() {
+		origin = System.nanoTime();
+	}
+	
+	/**
+	 * Returns the time elapsed since the start of the session, in nanoseconds.
+	 */
+	static long elapsedNanos() {
+		if (replaying) {
+			return replayTime;
+		}
+		return scale == 1 ? System.nanoTime()-origin : (long)((System.nanoTime()-origin)*scale);
+	}
+	
+	/**
+	 * Returns the time elapsed since the start of the session, in milliseconds.
+	 */
+	static long elapsedMillis() {
+		return elapsedNanos()/1000000;
+	}
+	
+	/**
+	 * Sets how many times faster than real time the clock runs. Must be set before the display is shown.
+	 * @param multiple : The multiple of real time.
+	 */
+	static void setScale(double multiple) {
+		scale = multiple;
+	}
+	
+	/**
+	 * Returns how many times faster than real time the clock runs.
+	 */
+	static double getScale() {
+		return scale;
+	}
+	
+	/**
+	 * Converts a period of session time to the real time which passes while it elapses.
+	 * @param millis : The period of session time, in milliseconds.
+	 * @return : The real time, in nanoseconds.
+	 */
+	static long toRealNanos(long millis) {
+		return (long)(TimeUnit.MILLISECONDS.toNanos(millis)/scale);
+	}
+	
+	/**
+	 * Fixes the clock at a recorded time while a session is replayed.
+	 * @param time : The recorded time, in nanoseconds since the start of the session.
+	 */
+	static void setReplayTime(long time) {
+		replaying = true;
+		replayTime = time;
+	}
+	
+	/**
+	 * Determines whether the clock is fixed at recorded times because a session is being replayed.
+	 */
+	static boolean isReplaying() {
+		return replaying;
+	}
+	
+	/**
+	 * Returns the clock to measuring real time after a session has been replayed.
+	 */
+	static void endReplay() {
+		replaying = false;
+	}
+}
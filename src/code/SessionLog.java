@@ -0,0 +1,246 @@
+package code;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+/**
+ * A record of everything which happened during an experiment session: every event written to the report,
+ * every input from the participant and every scheduling decision, each stamped with the session clock.
+ * The log is saved alongside the report so that the session can be audited or replayed later.
+ *
+ * When the report is streamed, the log is streamed to its file too, so that its entries are not kept in memory.
+ * A streamed log has no entry count; its entries follow the header in the order in which they were recorded,
+ * up to the end of the file, and are sorted by time when the log is loaded.
+ */
+class SessionLog {
+	
+	private static final int MAGIC = 0x534C4731; // "SLG1"
+	private static final int STREAM_MAGIC = 0x534C4732; // "SLG2"
+	
+	/**
+	 * The kinds of entry in the log. Report events correspond one-to-one with the lines of the report
+	 * and are replayed to regenerate it; the rest describe the inputs and scheduling decisions behind those lines.
+	 * Types are stored in log files by their position in this list, so new types must be added to the end.
+	 */
+	enum Type {
+		/* Report events */
+		STATUS, LOOP, MASK, IDENTITY_MASK, QUERY, FREEZE, TEXT_ENTRY, CLICK, BINARY_RESPONSE, OBJECT_HIT, IDENTITY_VIEWED,
+		/* Participant inputs */
+		START_PRESSED, MOUSE_CLICK, KEY_ENTRY,
+		/* Scheduling decisions */
+		EVENT_SCHEDULED, EVENT_SHOWN, EVENT_SKIPPED, EVENT_EXPIRED, LOOP_FINISHED,
+		/* Report events */
+		CONFLICT,
+		/* The time along their paths at which the moving objects were placed when they were last indexed for hit-testing, recorded before each click on a map */
+		OBJECTS_INDEXED;
+		
+		/**
+		 * Determines whether entries of this type correspond to lines of the report.
+		 */
+		boolean isReported() {
+			return ordinal() <= IDENTITY_VIEWED.ordinal() || this == CONFLICT;
+		}
+	}
+	
+	/**
+	 * A single entry in the log. The meaning of the flag, numeric and text values depends on the type of entry.
+	 */
+	static class Entry {
+		long time; // Nanoseconds since the start of the session
+		Type type;
+		boolean flag;
+		double a, b;
+		String text;
+	}
+	
+	/* The log of the current session */
+	static SessionLog current = new SessionLog();
+	
+	String experimentName;
+	String participantId;
+	ArrayList<Entry> entries = new ArrayList<>();
+	/* Whether new entries are accepted; disabled while a log is being replayed */
+	boolean recording = true;
+	/* The file the log is being streamed to, or null if entries are kept in memory */
+	private DataOutputStream stream;
+	
+	/**
+	 * Adds an entry to the log, stamped with the current session time. The time is taken while the log is locked,
+	 * so that entries recorded directly by different threads are added in order of time.
+	 * @return : The time at which the entry was recorded, in nanoseconds since the start of the session.
+	 */
+	synchronized long record(Type type, boolean flag, double a, double b, String text) {
+		long time = SessionClock.elapsedNanos();
+		record(time, type, flag, a, b, text);
+		return time;
+	}
+	
+	/**
+	 * Adds an entry to the log with the given time.
+	 */
+	synchronized void record(long time, Type type, boolean flag, double a, double b, String text) {
+		if (recording) {
+			Entry entry = new Entry();
+			entry.time = time;
+			entry.type = type;
+			entry.flag = flag;
+			entry.a = a;
+			entry.b = b;
+			entry.text = text;
+			if (stream != null) {
+				try {
+					write(stream, entry);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			} else {
+				entries.add(entry);
+			}
+		}
+	}
+	
+	/**
+	 * Adds an entry with no values to the log.
+	 */
+	long record(Type type) {
+		return record(type, false, 0, 0, null);
+	}
+	
+	/**
+	 * Determines whether the log has no entries and is not being streamed.
+	 */
+	synchronized boolean isEmpty() {
+		return entries.isEmpty() && stream == null;
+	}
+	
+	/**
+	 * Starts writing the log to a file as entries are recorded, instead of keeping them in memory.
+	 * Entries recorded so far are written immediately.
+	 * @param file : The file to write the log to.
+	 * @throws IOException : If the file cannot be written.
+	 */
+	synchronized void startStreaming(File file) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		output.writeInt(STREAM_MAGIC);
+		output.writeUTF(String.valueOf(experimentName));
+		output.writeUTF(String.valueOf(participantId));
+		for (Entry entry : entries) {
+			write(output, entry);
+		}
+		entries.clear();
+		stream = output;
+	}
+	
+	/**
+	 * Writes the entries recorded so far to the file, if the log is being streamed.
+	 */
+	synchronized void flush() {
+		if (stream != null) {
+			try {
+				stream.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Writes the log to a file, with its entries in order of time. Report events are only added to the log
+	 * once they have been written to the report, after entries recorded directly at later times, so the
+	 * entries are sorted first. If the log is being streamed, its file is closed instead.
+	 * @param file : The file to write the log to, if it is not being streamed.
+	 * @throws IOException : If the file cannot be written.
+	 */
+	synchronized void save(File file) throws IOException {
+		if (stream != null) {
+			stream.close();
+			stream = null;
+			return;
+		}
+		entries.sort(Comparator.comparingLong(entry -> entry.time));
+		try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			output.writeInt(MAGIC);
+			output.writeUTF(String.valueOf(experimentName));
+			output.writeUTF(String.valueOf(participantId));
+			output.writeInt(entries.size());
+			for (Entry entry : entries) {
+				write(output, entry);
+			}
+		}
+	}
+	
+	/**
+	 * Writes one entry to a log file.
+	 */
+	private static void write(DataOutputStream output, Entry entry) throws IOException {
+		output.writeLong(entry.time);
+		output.writeByte(entry.type.ordinal());
+		output.writeBoolean(entry.flag);
+		output.writeDouble(entry.a);
+		output.writeDouble(entry.b);
+		output.writeBoolean(entry.text != null);
+		if (entry.text != null) {
+			output.writeUTF(entry.text);
+		}
+	}
+	
+	/**
+	 * Reads one entry from a log file.
+	 */
+	private static Entry read(DataInputStream input) throws IOException {
+		Entry entry = new Entry();
+		entry.time = input.readLong();
+		entry.type = Type.values()[input.readByte()];
+		entry.flag = input.readBoolean();
+		entry.a = input.readDouble();
+		entry.b = input.readDouble();
+		entry.text = input.readBoolean() ? input.readUTF() : null;
+		return entry;
+	}
+	
+	/**
+	 * Reads a log from a file written by save() or while streaming. If the program stopped while a log was
+	 * being streamed, the entries which were completely written are read.
+	 * @param file : The file to read the log from.
+	 * @return : The log, which does not accept new entries.
+	 * @throws IOException : If the file cannot be read or is not a session log.
+	 */
+	static SessionLog load(File file) throws IOException {
+		SessionLog log = new SessionLog();
+		log.recording = false;
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int magic = input.readInt();
+			if (magic != MAGIC && magic != STREAM_MAGIC) {
+				throw new IOException(file.getName() + " is not a session log");
+			}
+			log.experimentName = input.readUTF();
+			log.participantId = input.readUTF();
+			if (magic == MAGIC) {
+				int count = input.readInt();
+				log.entries.ensureCapacity(count);
+				for (int i=0; i<count; i++) {
+					log.entries.add(read(input));
+				}
+			} else {
+				try {
+					while (true) {
+						log.entries.add(read(input));
+					}
+				} catch (EOFException e) {
+					/* The end of the log, or an entry cut short when the program stopped */
+				}
+				log.entries.sort(Comparator.comparingLong(entry -> entry.time));
+			}
+		}
+		return log;
+	}
+}
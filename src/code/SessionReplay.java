@@ -0,0 +1,403 @@
+package code;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+
+import code.ExperimentModel.BinaryQuery;
+import code.ExperimentModel.FindQuery;
+import code.ExperimentModel.Query;
+import code.ExperimentModel.ScreenMaskEvent;
+import code.ExperimentModel.TextResponseQuery;
+import code.SessionLog.Entry;
+import code.SessionLog.Type;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.stage.Stage;
+
+/**
+ * Replays a recorded session log in one of two ways.
+ * Without a display, each recorded report event is fed back into the ReportWriter at its recorded session time
+ * to regenerate the session's report.
+ * Given the experiment's configuration, the session is instead re-run: the display is built, but not shown, at the
+ * size of the screen it was recorded on, and the recorded inputs of the participant and the recorded times at which
+ * events appeared, expired and loops finished are fed to the same scheduling, query and hit-testing code as in the
+ * live session, under the recorded session times. The report of the re-run is then compared with the report events
+ * recorded in the log. Conflicts are found once per frame, and frame times are not recorded, so recorded conflicts
+ * are reported as they were rather than found again.
+ * Re-runs need a log in the format written by SessionLog: its entries in order of time, as save() writes them and load()
+ * returns them, the size of the screen recorded when the start button was pressed, and, before every click on the map,
+ * the time along their paths at which the moving objects were placed for hit-testing.
+ * Run this class with the path of a session log, then either an optional replay speed (a multiple of real time,
+ * or 0 to replay as fast as possible) or the configuration folder of the experiment, then an optional path for the report.
+ */
+public class SessionReplay {
+	
+	/* Largest difference between the times of a re-run report event and the recorded event it matches */
+	private static final long TIME_TOLERANCE = 100000000; // Nanoseconds
+	/* Largest difference between the numbers of matching report events, which are written to the report to 3 decimal places */
+	private static final double VALUE_TOLERANCE = 0.0005;
+	/* Most differences between the reports which are printed */
+	private static final int DIFFERENCES_SHOWN = 10;
+	
+	/* The session to re-run, and where to write its report */
+	private static SessionLog recordedLog;
+	private static File configDirectory;
+	private static File reportFile;
+	
+	/* Recorded inputs and scheduling decisions which the re-run session did not accept */
+	private static int unreplayed;
+	
+	/**
+	 * Replays a session log into the ReportWriter, replacing any events it already contains.
+	 * @param log : The session log to replay.
+	 * @param speed : The speed of the replay as a multiple of real time, or 0 to replay as fast as possible.
+	 * @throws InterruptedException : If the replay is interrupted while waiting for the next event.
+	 */
+	public static void replay(SessionLog log, double speed) throws InterruptedException {
+		SessionLog liveLog = SessionLog.current;
+		SessionLog.current = log;
+		ReportWriter.setSession(log.experimentName, log.participantId);
+		ReportWriter.reset();
+		long replayStart = System.nanoTime();
+		try {
+			for (Entry entry : log.entries) {
+				if (speed > 0) {
+					long wait = replayStart+(long)(entry.time/speed)-System.nanoTime();
+					if (wait > 0) {
+						Thread.sleep(wait/1000000, (int)(wait%1000000));
+					}
+				}
+				SessionClock.setReplayTime(entry.time);
+				replayEntry(entry);
+			}
+		} finally {
+			/* Wait for the replayed events to be written before the live session log is restored */
+			ReportWriter.drain();
+			SessionClock.endReplay();
+			SessionLog.current = liveLog;
+		}
+	}
+	
+	/**
+	 * Reports the event described by a log entry. Entries which describe inputs and scheduling
+	 * decisions do not appear in the report and are skipped.
+	 */
+	private static void replayEntry(Entry entry) {
+		switch (entry.type) {
+			case STATUS:
+				ReportWriter.reportStatus(entry.flag);
+				break;
+			case LOOP:
+				ReportWriter.reportLoop((int)entry.a);
+				break;
+			case MASK:
+				ScreenMaskEvent mask = new ScreenMaskEvent();
+				mask.image = new File(entry.text);
+				ReportWriter.reportMask(mask, entry.flag);
+				break;
+			case IDENTITY_MASK:
+				ReportWriter.reportIdentityMask(entry.flag);
+				break;
+			case QUERY:
+				Query query = entry.a == 0 ? new FindQuery() : entry.a == 1 ? new TextResponseQuery() : new BinaryQuery();
+				query.text = entry.text;
+				ReportWriter.reportQuery(query, entry.flag);
+				break;
+			case FREEZE:
+				ReportWriter.reportFreeze(entry.flag);
+				break;
+			case TEXT_ENTRY:
+				TextResponseQuery textQuery = new TextResponseQuery();
+				textQuery.value = entry.text;
+				ReportWriter.reportTextEntry(textQuery);
+				break;
+			case CLICK:
+				FindQuery findQuery = new FindQuery();
+				findQuery.x = (float)entry.a;
+				findQuery.y = (float)entry.b;
+				ReportWriter.reportClick(findQuery);
+				break;
+			case BINARY_RESPONSE:
+				BinaryQuery binaryQuery = new BinaryQuery();
+				binaryQuery.response = entry.flag;
+				ReportWriter.reportBinaryQueryResponse(binaryQuery);
+				break;
+			case OBJECT_HIT:
+				ReportWriter.reportObjectHit(entry.text, entry.a);
+				break;
+			case IDENTITY_VIEWED:
+				ReportWriter.reportIdentityViewed(entry.text);
+				break;
+			case CONFLICT:
+				reportConflict(entry);
+				break;
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * Re-runs a recorded session on a display which has been built, but not shown, for the session's experiment.
+	 * Must not be called on the JavaFX thread.
+	 * @param log : The session log to re-run.
+	 * @return : The session log of the re-run.
+	 * @throws InterruptedException : If the re-run is interrupted while waiting for the display.
+	 */
+	static SessionLog rerun(SessionLog log) throws InterruptedException {
+		SessionLog liveLog = SessionLog.current;
+		SessionLog rerunLog = SessionLog.current = new SessionLog();
+		ReportWriter.setSession(log.experimentName, log.participantId);
+		ReportWriter.reset();
+		unreplayed = 0;
+		ArrayList<Entry> entries = log.entries;
+		try {
+			for (Entry entry : entries) {
+				SessionClock.setReplayTime(entry.time);
+				switch (entry.type) {
+					case START_PRESSED:
+						ReportWriter.reportStatus(true);
+						SessionLog.current.record(Type.START_PRESSED, false, entry.a, entry.b, null);
+						TrackingActivity.startLoop();
+						break;
+					case LOOP_FINISHED:
+						TrackingActivity.finishLoop();
+						break;
+					case EVENT_SHOWN:
+					case EVENT_SKIPPED:
+						accept(SchedulableEvent.runHeld(entry.text, false));
+						break;
+					case EVENT_EXPIRED:
+						accept(SchedulableEvent.runHeld(entry.text, true));
+						break;
+					case OBJECTS_INDEXED:
+						TrackingActivity.placeObjects(entry.a);
+						break;
+					case MOUSE_CLICK:
+						accept(onDisplay(() -> {
+							if (TrackingActivity.root.getOnMouseClicked() == null) {
+								return false;
+							}
+							TrackingActivity.click(entry.a, entry.b, entry.flag);
+							return true;
+						}));
+						break;
+					case KEY_ENTRY:
+						accept(onDisplay(() -> {
+							GraphicalQueryObject query = TrackingActivity.activeQuery;
+							if (query == null || !(query.getQuery() instanceof TextResponseQuery)) {
+								return false;
+							}
+							query.enterText(entry.text);
+							return true;
+						}));
+						break;
+					case IDENTITY_VIEWED:
+						accept(onDisplay(() -> {
+							for (GraphicalMovingObject object : TrackingActivity.objects) {
+								if (object.label != null && object.label.getText().equals(entry.text) && object.pointAtLabel()) {
+									return true;
+								}
+							}
+							return false;
+						}));
+						break;
+					case CONFLICT:
+						reportConflict(entry);
+						break;
+					default:
+						break;
+				}
+				/* Let the display finish the work caused by the entry, such as removing a mask, before the clock moves on */
+				onDisplay(() -> true);
+			}
+			/* Appearances and expiries which were due before the session ended, but which the log does not show */
+			if (!entries.isEmpty()) {
+				unreplayed += SchedulableEvent.countHeld(entries.get(entries.size()-1).time-TIME_TOLERANCE);
+			}
+		} finally {
+			ReportWriter.drain();
+			SchedulableEvent.cancelScheduled();
+			SessionClock.endReplay();
+			SessionLog.current = liveLog;
+		}
+		return rerunLog;
+	}
+	
+	/**
+	 * A step of a re-run which is taken on the JavaFX thread.
+	 */
+	private interface DisplayStep {
+		/**
+		 * Takes the step.
+		 * @return : False if the display could not accept the recorded input.
+		 */
+		boolean take();
+	}
+	
+	/**
+	 * Takes a step of a re-run on the JavaFX thread, once all work already waiting for the thread is done,
+	 * and waits for it to finish.
+	 * @return : False if the display could not accept the recorded input.
+	 */
+	private static boolean onDisplay(DisplayStep step) throws InterruptedException {
+		boolean[] accepted = new boolean[1];
+		CountDownLatch done = new CountDownLatch(1);
+		Platform.runLater(() -> {
+			try {
+				accepted[0] = step.take();
+			} finally {
+				done.countDown();
+			}
+		});
+		done.await();
+		return accepted[0];
+	}
+	
+	/**
+	 * Counts a recorded input or scheduling decision which the re-run session did not accept.
+	 */
+	private static void accept(boolean accepted) {
+		if (!accepted) {
+			unreplayed++;
+		}
+	}
+	
+	/**
+	 * Reports a recorded conflict.
+	 */
+	private static void reportConflict(Entry entry) {
+		String[] labels = entry.text.split("\n", 2);
+		ReportWriter.reportConflict(labels[0], labels[1], entry.flag, entry.a);
+	}
+	
+	/**
+	 * Compares the report events of a re-run session with those recorded in the log of the original session, in order.
+	 * Events match if they have the same type and values, with numbers equal to the precision of the report,
+	 * and happened within a tenth of a second of each other. The first differences are printed.
+	 * @param recorded : The log of the original session.
+	 * @param rerun : The log of the re-run session.
+	 * @return : The number of report events which do not match.
+	 */
+	static int compare(SessionLog recorded, SessionLog rerun) {
+		ArrayList<Entry> expected = reportEvents(recorded), actual = reportEvents(rerun);
+		int differences = 0;
+		long largestTimeDifference = 0;
+		for (int i=0; i<Math.max(expected.size(), actual.size()); i++) {
+			Entry first = i < expected.size() ? expected.get(i) : null;
+			Entry second = i < actual.size() ? actual.get(i) : null;
+			if (first != null && second != null && first.type == second.type && first.flag == second.flag
+					&& Math.abs(first.a-second.a) < VALUE_TOLERANCE && Math.abs(first.b-second.b) < VALUE_TOLERANCE
+					&& String.valueOf(first.text).equals(String.valueOf(second.text))
+					&& Math.abs(first.time-second.time) <= TIME_TOLERANCE) {
+				largestTimeDifference = Math.max(largestTimeDifference, Math.abs(first.time-second.time));
+			} else if (++differences <= DIFFERENCES_SHOWN) {
+				System.out.println("Report event " + (i+1) + ": recorded " + describe(first) + ", re-run " + describe(second));
+			}
+		}
+		System.out.println(String.format("%d of %d recorded report events were reproduced; matching events were at most %.3f ms apart",
+				expected.size()-differences, expected.size(), largestTimeDifference/1000000.0));
+		return differences;
+	}
+	
+	/**
+	 * Returns the entries of a log which correspond to lines of the report, in order of time.
+	 */
+	private static ArrayList<Entry> reportEvents(SessionLog log) {
+		ArrayList<Entry> events = new ArrayList<>();
+		for (Entry entry : log.entries) {
+			if (entry.type.isReported()) {
+				events.add(entry);
+			}
+		}
+		events.sort(Comparator.comparingLong(entry -> entry.time));
+		return events;
+	}
+	
+	/**
+	 * Describes a log entry for a list of differences.
+	 */
+	private static String describe(Entry entry) {
+		if (entry == null) {
+			return "nothing";
+		}
+		return String.format("%s at %.3f ms (%b, %.3f, %.3f, %s)", entry.type, entry.time/1000000.0, entry.flag, entry.a, entry.b,
+				entry.text == null ? "" : entry.text.replace("\n", " / "));
+	}
+	
+	/**
+	 * Re-runs a recorded session from its experiment's configuration.
+	 */
+	public static class SessionRerun extends Application {
+		
+		/**
+		 * Imports the configuration, then builds the display and re-runs the session on a separate thread,
+		 * since the re-run waits for the JavaFX thread. The program closes when the reports have been compared,
+		 * with an exit status of 2 if they differ.
+		 */
+		@Override
+		public void start(Stage stage) throws Exception {
+			ConfigImporter importer = new ConfigImporter(configDirectory);
+			ExperimentModel model = importer.run();
+			if (!importer.errors.isEmpty()) {
+				System.err.println("The following errors were encountered in the configuration file:");
+				importer.errors.forEach(error -> System.err.println(error));
+				System.exit(1);
+			}
+			Entry start = null;
+			for (Entry entry : recordedLog.entries) {
+				if (entry.type == Type.START_PRESSED) {
+					start = entry;
+				}
+			}
+			if (start == null) {
+				System.err.println("The session log does not record the start of the experiment, so the session cannot be re-run.");
+				System.exit(1);
+			}
+			double displayWidth = start.a, displayHeight = start.b;
+			Thread replayer = new Thread(() -> {
+				int status = 1;
+				try {
+					new TrackingActivity(model).buildHidden(displayWidth, displayHeight);
+					SessionLog rerunLog = rerun(recordedLog);
+					ReportWriter.writeReport(reportFile);
+					if (unreplayed > 0) {
+						System.out.println(unreplayed + " recorded inputs and scheduling decisions could not be replayed");
+					}
+					status = compare(recordedLog, rerunLog) == 0 && unreplayed == 0 ? 0 : 2;
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+				System.exit(status);
+			}, "Session Replay");
+			replayer.start();
+		}
+	}
+	
+	/**
+	 * Regenerates the report of a recorded session, or re-runs the session if a configuration folder is given.
+	 * @param args : The path of the session log, optionally followed by the replay speed or the configuration folder,
+	 * and the path of the report to write.
+	 * @throws IOException : If the session log cannot be read.
+	 * @throws InterruptedException : If the replay is interrupted.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length == 0) {
+			System.err.println("Usage: SessionReplay <session log> [speed | configuration folder] [report file]");
+			return;
+		}
+		SessionLog log = SessionLog.load(new File(args[0]));
+		File report = new File(args.length > 2 ? args[2] : args[0].replaceAll("-session\\.log$", "") + "-replay.csv");
+		if (args.length > 1 && new File(args[1]).isDirectory()) {
+			recordedLog = log;
+			configDirectory = new File(args[1]);
+			reportFile = report;
+			Application.launch(SessionRerun.class, args);
+			return;
+		}
+		replay(log, args.length > 1 ? Double.parseDouble(args[1]) : 0);
+		ReportWriter.writeReport(report);
+	}
+}
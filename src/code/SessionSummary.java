@@ -0,0 +1,303 @@
+package code;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import code.SessionLog.Type;
+
+/**
+ * Summary statistics of a session which are updated as each event is reported, so that they do not have
+ * to be computed from the report afterwards: the response times of each kind of query, the objects hit
+ * by clicks and their distances from the clicks, and the number of times each identity was viewed.
+ * The summary is written to a file alongside the report.
+ */
+class SessionSummary {
+	
+	private static final String[] QUERY_KINDS = {"Click Query", "Text Query", "Yes/No Query"};
+	
+	/**
+	 * The running count, mean, variance, extremes and quantiles of a series of values. The mean and
+	 * variance are updated with Welford's method and the quantiles are estimated with the P-squared
+	 * algorithm, so the values themselves are not stored.
+	 */
+	static class RunningStatistic {
+		
+		long count = 0;
+		double mean = 0, sumOfSquares = 0;
+		double min = Double.NaN, max = Double.NaN;
+		QuantileEstimate median = new QuantileEstimate(0.5);
+		QuantileEstimate ninetieth = new QuantileEstimate(0.9);
+		
+		/**
+		 * Adds a value to the series.
+		 */
+		void add(double value) {
+			count++;
+			double delta = value-mean;
+			mean += delta/count;
+			sumOfSquares += delta*(value-mean);
+			min = count == 1 ? value : Math.min(min, value);
+			max = count == 1 ? value : Math.max(max, value);
+			median.add(value);
+			ninetieth.add(value);
+		}
+		
+		/**
+		 * Returns the sample variance of the series.
+		 */
+		double variance() {
+			return count > 1 ? sumOfSquares/(count-1) : 0;
+		}
+	}
+	
+	/**
+	 * Estimates a quantile of a series of values using five markers, as described by Jain and Chlamtac in
+	 * "The P-Squared Algorithm for Dynamic Calculation of Quantiles and Histograms Without Storing Observations".
+	 */
+	static class QuantileEstimate {
+		
+		private double quantile;
+		private int count = 0;
+		private double[] heights = new double[5];
+		private double[] positions = {0, 1, 2, 3, 4};
+		private double[] desiredPositions;
+		private double[] increments;
+		
+		/**
+		 * @param quantile : The quantile to estimate, between 0 and 1.
+		 */
+		QuantileEstimate(double quantile) {
+			this.quantile = quantile;
+			desiredPositions = new double[] {0, 2*quantile, 4*quantile, 2+2*quantile, 4};
+			increments = new double[] {0, quantile/2, quantile, (1+quantile)/2, 1};
+		}
+		
+		/**
+		 * Adds a value to the series.
+		 */
+		void add(double value) {
+			if (count < 5) {
+				heights[count++] = value;
+				if (count == 5) {
+					Arrays.sort(heights);
+				}
+				return;
+			}
+			count++;
+			/* Find the cell containing the value, extending the extreme markers if necessary */
+			int cell;
+			if (value < heights[0]) {
+				heights[0] = value;
+				cell = 0;
+			} else if (value >= heights[4]) {
+				heights[4] = value;
+				cell = 3;
+			} else {
+				cell = 0;
+				while (value >= heights[cell+1]) {
+					cell++;
+				}
+			}
+			for (int i=cell+1; i<5; i++) {
+				positions[i]++;
+			}
+			for (int i=0; i<5; i++) {
+				desiredPositions[i] += increments[i];
+			}
+			/* Move the middle markers towards their desired positions */
+			for (int i=1; i<4; i++) {
+				double offset = desiredPositions[i]-positions[i];
+				if ((offset >= 1 && positions[i+1]-positions[i] > 1) || (offset <= -1 && positions[i-1]-positions[i] < -1)) {
+					int step = offset > 0 ? 1 : -1;
+					double height = parabolic(i, step);
+					if (heights[i-1] < height && height < heights[i+1]) {
+						heights[i] = height;
+					} else {
+						heights[i] += step*(heights[i+step]-heights[i])/(positions[i+step]-positions[i]);
+					}
+					positions[i] += step;
+				}
+			}
+		}
+		
+		/**
+		 * Returns the adjusted height of a marker moved by one position, using the piecewise-parabolic formula.
+		 */
+		private double parabolic(int i, int step) {
+			return heights[i] + step/(positions[i+1]-positions[i-1])
+					* ((positions[i]-positions[i-1]+step)*(heights[i+1]-heights[i])/(positions[i+1]-positions[i])
+					+ (positions[i+1]-positions[i]-step)*(heights[i]-heights[i-1])/(positions[i]-positions[i-1]));
+		}
+		
+		/**
+		 * Returns the estimated quantile, or NaN if no values have been added.
+		 */
+		double estimate() {
+			if (count == 0) {
+				return Double.NaN;
+			} else if (count < 5) {
+				/* Too few values for the markers; use the nearest value of those seen so far */
+				double[] values = Arrays.copyOf(heights, count);
+				Arrays.sort(values);
+				return values[(int)Math.round(quantile*(count-1))];
+			}
+			return heights[2];
+		}
+	}
+	
+	private RunningStatistic[] responseTimes = new RunningStatistic[QUERY_KINDS.length];
+	private int[] unanswered = new int[QUERY_KINDS.length];
+	/* Session time at which the visible query of each kind appeared, or -1 if none is visible */
+	private long[] queryShownTimes = new long[QUERY_KINDS.length];
+	private boolean[] queryAnswered = new boolean[QUERY_KINDS.length];
+	
+	private int clicks = 0, clicksWithHits = 0;
+	private int hitsForLastClick = 0;
+	private RunningStatistic hitsPerClick = new RunningStatistic();
+	private RunningStatistic hitDistances = new RunningStatistic();
+	private Map<String, Integer> hitCounts = new TreeMap<>();
+	private Map<String, Integer> identityViews = new TreeMap<>();
+	
+	SessionSummary() {
+		clear();
+	}
+	
+	/**
+	 * Removes all events from the summary.
+	 */
+	void clear() {
+		for (int kind=0; kind<QUERY_KINDS.length; kind++) {
+			responseTimes[kind] = new RunningStatistic();
+			unanswered[kind] = 0;
+			queryShownTimes[kind] = -1;
+			queryAnswered[kind] = false;
+		}
+		clicks = 0;
+		clicksWithHits = 0;
+		hitsForLastClick = 0;
+		hitsPerClick = new RunningStatistic();
+		hitDistances = new RunningStatistic();
+		hitCounts.clear();
+		identityViews.clear();
+	}
+	
+	/**
+	 * Adds a reported event to the summary. Events must be added in the order in which they appear in the report.
+	 * The meaning of the flag, numeric and text values depends on the type of event, as in the ReportWriter.
+	 */
+	void add(long time, Type type, boolean flag, double a, String text) {
+		switch (type) {
+			case QUERY:
+				int kind = (int)a;
+				if (flag) {
+					queryShownTimes[kind] = time;
+					queryAnswered[kind] = false;
+				} else {
+					if (queryShownTimes[kind] >= 0 && !queryAnswered[kind]) {
+						unanswered[kind]++;
+					}
+					queryShownTimes[kind] = -1;
+				}
+				break;
+			case CLICK:
+				finishClick();
+				clicks++;
+				addResponse(0, time);
+				break;
+			case TEXT_ENTRY:
+				addResponse(1, time);
+				break;
+			case BINARY_RESPONSE:
+				addResponse(2, time);
+				break;
+			case OBJECT_HIT:
+				hitsForLastClick++;
+				hitDistances.add(a);
+				hitCounts.merge(text, 1, Integer::sum);
+				break;
+			case IDENTITY_VIEWED:
+				identityViews.merge(text, 1, Integer::sum);
+				break;
+			default:
+				break;
+		}
+	}
+	
+	/**
+	 * Records the response time of a query, measured from its appearance.
+	 */
+	private void addResponse(int kind, long time) {
+		if (queryShownTimes[kind] >= 0 && !queryAnswered[kind]) {
+			responseTimes[kind].add((time-queryShownTimes[kind])/1000000.0);
+			queryAnswered[kind] = true;
+		}
+	}
+	
+	/**
+	 * Records the number of objects hit by the previous click, once all of its hits have been reported.
+	 */
+	private void finishClick() {
+		if (clicks > hitsPerClick.count) {
+			hitsPerClick.add(hitsForLastClick);
+			if (hitsForLastClick > 0) {
+				clicksWithHits++;
+			}
+		}
+		hitsForLastClick = 0;
+	}
+	
+	/**
+	 * Writes the summary to a file.
+	 * @param file : The file to write the summary to.
+	 * @throws IOException : If the file cannot be written.
+	 */
+	void save(File file) throws IOException {
+		finishClick();
+		try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+			writer.println("Measure,Group,Count,Mean,Variance,Minimum,Median,90th Percentile,Maximum");
+			for (int kind=0; kind<QUERY_KINDS.length; kind++) {
+				writeStatistic(writer, "Response Time (milliseconds)", QUERY_KINDS[kind], responseTimes[kind]);
+			}
+			for (int kind=0; kind<QUERY_KINDS.length; kind++) {
+				writeCount(writer, "Unanswered Queries", QUERY_KINDS[kind], unanswered[kind]);
+			}
+			writeCount(writer, "Clicks", "All", clicks);
+			writeCount(writer, "Clicks With Hits", "All", clicksWithHits);
+			writer.println("Hit Rate,All," + clicks + "," + (clicks > 0 ? String.format(Locale.ROOT, "%2.3f", (double)clicksWithHits/clicks) : ""));
+			writeStatistic(writer, "Objects Hit Per Click", "All", hitsPerClick);
+			writeStatistic(writer, "Hit Distance (nautical miles)", "All", hitDistances);
+			for (Map.Entry<String, Integer> hits : hitCounts.entrySet()) {
+				writeCount(writer, "Object Hits", hits.getKey(), hits.getValue());
+			}
+			for (Map.Entry<String, Integer> views : identityViews.entrySet()) {
+				writeCount(writer, "Identity Views", views.getKey(), views.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Writes a line describing a series of values.
+	 */
+	private static void writeStatistic(PrintWriter writer, String measure, String group, RunningStatistic statistic) {
+		writer.print(measure + "," + group + "," + statistic.count);
+		if (statistic.count > 0) {
+			for (double value : new double[] {statistic.mean, statistic.variance(), statistic.min,
+					statistic.median.estimate(), statistic.ninetieth.estimate(), statistic.max}) {
+				writer.print("," + String.format(Locale.ROOT, "%2.3f", value));
+			}
+		}
+		writer.println();
+	}
+	
+	/**
+	 * Writes a line containing a count.
+	 */
+	private static void writeCount(PrintWriter writer, String measure, String group, int count) {
+		writer.println(measure + "," + group.replaceAll(",", "") + "," + count);
+	}
+}
@@ -0,0 +1,176 @@
+package code;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid laid over the screen which indexes the on-screen positions of waypoints and moving objects,
+ * so that the objects near a point can be found without checking every object on the map.
+ * The grid is rebuilt from the current object positions once per frame.
+ */
+class SpatialIndex {
+	
+	private GraphicalObject[] members = new GraphicalObject[64];
+	private int size = 0;
+	
+	/* Grid dimensions */
+	private double cellSize;
+	private int columns, rows;
+	
+	/* Position of each member as of the last refresh */
+	private double[] positionsX = new double[64];
+	private double[] positionsY = new double[64];
+	private int[] memberCells = new int[64];
+	
+	/* Members sorted by grid cell; the members of cell c are stored from cellStarts[c] to cellStarts[c+1] */
+	private int[] cellStarts;
+	private int[] cellMembers = new int[64];
+	private int[] cellCursors;
+	
+	/* Results of the most recent query */
+	private int[] hits = new int[64];
+	private int hitCount = 0;
+	
+	/**
+	 * Creates an empty index covering an area of the given size.
+	 * @param width : The width of the indexed area, in pixels.
+	 * @param height : The height of the indexed area, in pixels.
+	 * @param cellSize : The width and height of a grid cell, in pixels. Queries are fastest when this is the query radius.
+	 */
+	public SpatialIndex(double width, double height, double cellSize) {
+		this.cellSize = Math.max(cellSize, 1);
+		columns = Math.max(1, (int)Math.ceil(width/this.cellSize));
+		rows = Math.max(1, (int)Math.ceil(height/this.cellSize));
+		cellStarts = new int[(columns*rows)+1];
+		cellCursors = new int[columns*rows];
+	}
+	
+	/**
+	 * Adds an object to the index. The object will be placed in the grid on the next refresh.
+	 * @param object : The visual object to be indexed.
+	 */
+	public void add(GraphicalObject object) {
+		if (size == members.length) {
+			int capacity = size*2;
+			members = Arrays.copyOf(members, capacity);
+			positionsX = Arrays.copyOf(positionsX, capacity);
+			positionsY = Arrays.copyOf(positionsY, capacity);
+			memberCells = Arrays.copyOf(memberCells, capacity);
+			cellMembers = Arrays.copyOf(cellMembers, capacity);
+			hits = Arrays.copyOf(hits, capacity);
+		}
+		members[size++] = object;
+	}
+	
+	/**
+	 * Reads the current position of every indexed object and rebuilds the grid.
+	 */
+	public void refresh() {
+		Arrays.fill(cellStarts, 0);
+		/* Count the members of each cell */
+		for (int i=0; i<size; i++) {
+			double x = members[i].getCurrentX();
+			double y = members[i].getCurrentY();
+			positionsX[i] = x;
+			positionsY[i] = y;
+			int cell = (row(y)*columns)+column(x);
+			memberCells[i] = cell;
+			cellStarts[cell+1]++;
+		}
+		/* Convert counts to starting offsets, then place each member in its cell */
+		for (int cell=0; cell<cellStarts.length-1; cell++) {
+			cellStarts[cell+1] += cellStarts[cell];
+		}
+		System.arraycopy(cellStarts, 0, cellCursors, 0, cellCursors.length);
+		for (int i=0; i<size; i++) {
+			cellMembers[cellCursors[memberCells[i]]++] = i;
+		}
+		hitCount = 0;
+	}
+	
+	/**
+	 * Finds all indexed objects within a given distance of a point.
+	 * The results can be read with getHit(), getHitX() and getHitY() until the next query or refresh.
+	 * @param x : The X coordinate of the point, in pixels.
+	 * @param y : The Y coordinate of the point, in pixels.
+	 * @param radius : The maximum distance from the point, in pixels.
+	 * @return : The number of objects found.
+	 */
+	public int query(double x, double y, double radius) {
+		hitCount = 0;
+		int firstColumn = column(x-radius), lastColumn = column(x+radius);
+		int firstRow = row(y-radius), lastRow = row(y+radius);
+		double radiusSquared = radius*radius;
+		for (int row=firstRow; row<=lastRow; row++) {
+			for (int column=firstColumn; column<=lastColumn; column++) {
+				int cell = (row*columns)+column;
+				for (int slot=cellStarts[cell]; slot<cellStarts[cell+1]; slot++) {
+					int member = cellMembers[slot];
+					double dx = positionsX[member]-x;
+					double dy = positionsY[member]-y;
+					if ((dx*dx)+(dy*dy) <= radiusSquared) {
+						hits[hitCount++] = member;
+					}
+				}
+			}
+		}
+		return hitCount;
+	}
+	
+	/**
+	 * Returns the order in which an object found by the most recent query was added to the index.
+	 */
+	public int getHitIndex(int index) {
+		return hits[index];
+	}
+	
+	/**
+	 * Returns the X coordinate, in pixels, at which an object was indexed by the last refresh.
+	 * @param member : The order in which the object was added to the index.
+	 */
+	public double getX(int member) {
+		return positionsX[member];
+	}
+	
+	/**
+	 * Returns the Y coordinate, in pixels, at which an object was indexed by the last refresh.
+	 * @param member : The order in which the object was added to the index.
+	 */
+	public double getY(int member) {
+		return positionsY[member];
+	}
+	
+	/**
+	 * Returns an object found by the most recent query.
+	 */
+	public GraphicalObject getHit(int index) {
+		return members[hits[index]];
+	}
+	
+	/**
+	 * Returns the X coordinate, in pixels, at which an object found by the most recent query was indexed.
+	 */
+	public double getHitX(int index) {
+		return positionsX[hits[index]];
+	}
+	
+	/**
+	 * Returns the Y coordinate, in pixels, at which an object found by the most recent query was indexed.
+	 */
+	public double getHitY(int index) {
+		return positionsY[hits[index]];
+	}
+	
+	/**
+	 * Returns the grid column containing an X coordinate. Coordinates outside the grid are placed in the nearest column.
+	 */
+	private int column(double x) {
+		return Math.min(columns-1, Math.max(0, (int)(x/cellSize)));
+	}
+	
+	/**
+	 * Returns the grid row containing a Y coordinate. Coordinates outside the grid are placed in the nearest row.
+	 */
+	private int row(double y) {
+		return Math.min(rows-1, Math.max(0, (int)(y/cellSize)));
+	}
+}
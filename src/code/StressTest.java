@@ -0,0 +1,301 @@
+package code;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import javafx.animation.Animation;
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+
+/**
+ * Measures how smoothly the object tracking display is drawn as experiments grow, to find the number of
+ * moving objects at which a machine can no longer draw a frame for every refresh of the screen.
+ *
+ * A generated configuration is shown for each combination of moving object count, label ratio and mode,
+ * and the time between frames is recorded for a fixed period. The median, 99th percentile and maximum frame
+ * times and the number of dropped frames of each scene are written to a CSV file.
+ * JavaFX can only be launched once per JVM, so each scene is shown by a separate JVM which is given the
+ * same JVM arguments as this one. This also keeps one scene's garbage from slowing down the next.
+ */
+public class StressTest {
+	
+	/**
+	 * The ways in which the moving objects are shown during a scene.
+	 */
+	enum Mode {
+		MOVING, // Objects move and their labels are visible
+		MASKED, // Objects move and their labels are masked, as during a query which masks identities
+		FROZEN, // Objects are paused, as during a query which freezes them
+		TOGGLING // Labels are masked and objects are paused, then restored, every second
+	}
+	
+	/* Prefix of the line in which a scene reports its results */
+	private static final String RESULT_PREFIX = "RESULT,";
+	/* Frames drawn during this time at the start of each scene are not measured */
+	private static final long WARMUP_NANOS = 2000000000L;
+	/* Fraction of frames which may be dropped before the refresh rate is considered not to be held */
+	private static final double DROPPED_LIMIT = 0.01;
+	
+	/* Settings of the scene being shown by this JVM */
+	private static File sceneDirectory;
+	private static Mode sceneMode;
+	private static double sceneSeconds;
+	private static double sceneRefreshRate;
+	
+	/**
+	 * Shows one scene in this JVM and prints its results.
+	 */
+	public static class SceneDisplay extends Application {
+		
+		/* Times between frames, in nanoseconds */
+		private long[] intervals = new long[1024];
+		private int frames = 0;
+		
+		/**
+		 * Shows the scene's configuration and records the time between frames until the scene ends.
+		 */
+		@Override
+		public void start(Stage stage) throws Exception {
+			ConfigImporter importer = new ConfigImporter(sceneDirectory);
+			ExperimentModel model = importer.run();
+			if (!importer.errors.isEmpty()) {
+				System.err.println("Generated configuration is not valid: " + importer.errors.get(0));
+				System.exit(1);
+			}
+			SessionLog.current.recording = false;
+			new TrackingActivity(model).showDisplay(stage);
+			stage.show();
+			/* Keep the objects moving for the whole scene */
+			TrackingActivity.masterTransition.setCycleCount(Animation.INDEFINITE);
+			TrackingActivity.masterTransition.play();
+			switch (sceneMode) {
+				case MASKED:
+					maskLabels(true);
+					break;
+				case FROZEN:
+					TrackingActivity.masterTransition.pause();
+					break;
+				case TOGGLING:
+					Timeline toggle = new Timeline(new KeyFrame(Duration.seconds(1), e -> {
+						boolean masked = TrackingActivity.masterTransition.getStatus() == Animation.Status.RUNNING;
+						maskLabels(masked);
+						if (masked) {
+							TrackingActivity.masterTransition.pause();
+						} else {
+							TrackingActivity.masterTransition.play();
+						}
+					}));
+					toggle.setCycleCount(Animation.INDEFINITE);
+					toggle.play();
+					break;
+				default:
+					break;
+			}
+			long labels = model.objectsById.stream().filter(o -> o.label != null).count();
+			new AnimationTimer() {
+				private long start = 0, last = 0;
+				
+				@Override
+				public void handle(long now) {
+					if (start == 0) {
+						start = now;
+					} else if (now-start > WARMUP_NANOS) {
+						if (last > 0) {
+							if (frames == intervals.length) {
+								intervals = Arrays.copyOf(intervals, frames*2);
+							}
+							intervals[frames++] = now-last;
+						}
+						last = now;
+						if (now-start > WARMUP_NANOS+(long)(sceneSeconds*1000000000L)) {
+							stop();
+							System.out.println(RESULT_PREFIX + labels + "," + summarize(Arrays.copyOf(intervals, frames), sceneRefreshRate));
+							Platform.exit();
+							System.exit(0);
+						}
+					}
+				}
+			}.start();
+		}
+		
+		/**
+		 * Masks or shows the labels of all moving objects.
+		 */
+		private static void maskLabels(boolean mask) {
+			for (GraphicalMovingObject object : TrackingActivity.objects) {
+				object.maskLabel(mask);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of frames, the median, 99th percentile and maximum times between frames in milliseconds,
+	 * and the number of dropped frames, separated by commas.
+	 * @param intervals : The times between frames, in nanoseconds.
+	 * @param refreshRate : The refresh rate of the screen, in frames per second.
+	 */
+	static String summarize(long[] intervals, double refreshRate) {
+		if (intervals.length == 0) {
+			return "0,0,0,0,0";
+		}
+		double period = 1000000000/refreshRate;
+		long dropped = 0;
+		for (long interval : intervals) {
+			/* Every refresh of the screen which passed without a new frame was dropped */
+			dropped += Math.max(0, Math.round(interval/period)-1);
+		}
+		Arrays.sort(intervals);
+		return intervals.length + "," + milliseconds(intervals[(int)((intervals.length-1)*0.5)]) + ","
+				+ milliseconds(intervals[(int)((intervals.length-1)*0.99)]) + "," + milliseconds(intervals[intervals.length-1]) + "," + dropped;
+	}
+	
+	private static String milliseconds(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos/1000000.0);
+	}
+	
+	/**
+	 * Shows one scene in a new JVM and returns the results it reports, or null if it fails.
+	 */
+	private static String runScene(File directory, Mode mode, double seconds, double refreshRate) throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), StressTest.class.getName(),
+				"scene", directory.getPath(), mode.name(), Double.toString(seconds), Double.toString(refreshRate)));
+		Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+		String result = null;
+		try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+			String line;
+			while ((line = output.readLine()) != null) {
+				if (line.startsWith(RESULT_PREFIX)) {
+					result = line.substring(RESULT_PREFIX.length());
+				} else {
+					System.err.println("  " + line);
+				}
+			}
+		}
+		return process.waitFor() == 0 ? result : null;
+	}
+	
+	/**
+	 * Parses a comma-separated list of numbers.
+	 */
+	private static double[] parseList(String list) {
+		return Arrays.stream(list.split(",")).mapToDouble(Double::parseDouble).toArray();
+	}
+	
+	/**
+	 * Runs the stress test from the command line, e.g. "StressTest results=stress.csv movers=100,1000,10000 seconds=10".
+	 * Each parameter is optional.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length == 5 && args[0].equals("scene")) {
+			sceneDirectory = new File(args[1]);
+			sceneMode = Mode.valueOf(args[2]);
+			sceneSeconds = Double.parseDouble(args[3]);
+			sceneRefreshRate = Double.parseDouble(args[4]);
+			Application.launch(SceneDisplay.class, args);
+			return;
+		}
+		File results = new File("stress.csv");
+		double[] movers = {100, 250, 500, 1000, 2000, 5000, 10000};
+		double[] labelRatios = {0, 1};
+		Mode[] modes = Mode.values();
+		double seconds = 10, refreshRate = 60;
+		long seed = 42;
+		for (String arg : args) {
+			String[] parameter = arg.split("=", 2);
+			switch (parameter.length == 2 ? parameter[0] : "") {
+				case "results":
+					results = new File(parameter[1]);
+					break;
+				case "movers":
+					movers = parseList(parameter[1]);
+					break;
+				case "labelRatios":
+					labelRatios = parseList(parameter[1]);
+					break;
+				case "modes":
+					modes = Arrays.stream(parameter[1].split(",")).map(m -> Mode.valueOf(m.toUpperCase())).toArray(Mode[]::new);
+					break;
+				case "seconds":
+					seconds = Double.parseDouble(parameter[1]);
+					break;
+				case "refreshRate":
+					refreshRate = Double.parseDouble(parameter[1]);
+					break;
+				case "seed":
+					seed = Long.parseLong(parameter[1]);
+					break;
+				default:
+					System.err.println("Usage: StressTest [results=file] [movers=n,n,...] [labelRatios=r,r,...] [modes=moving,masked,frozen,toggling] [seconds=s] [refreshRate=hz] [seed=n]");
+					System.exit(1);
+			}
+		}
+		/* The smallest number of moving objects at which the refresh rate was not held, for each label ratio and mode */
+		int[][] limits = new int[labelRatios.length][modes.length];
+		try (PrintWriter writer = new PrintWriter(results, "UTF-8")) {
+			writer.println("Moving Objects,Labels,Mode,Frames,Median Frame Time (ms),99th Percentile Frame Time (ms),Maximum Frame Time (ms),Dropped Frames");
+			for (double count : movers) {
+				for (int r=0; r<labelRatios.length; r++) {
+					ConfigGenerator.Parameters parameters = new ConfigGenerator.Parameters();
+					parameters.seed = seed;
+					parameters.movers = (int)count;
+					parameters.waypoints = Math.max(16, parameters.movers/4);
+					parameters.labelRatio = labelRatios[r];
+					parameters.masksPerLoop = 0;
+					parameters.queriesPerLoop = 0;
+					parameters.loops = 1;
+					File directory = Files.createTempDirectory("tracker-stress").toFile();
+					try {
+						ConfigGenerator.generate(directory, parameters);
+						for (int m=0; m<modes.length; m++) {
+							System.out.println(parameters.movers + " moving objects, label ratio " + labelRatios[r] + ", " + modes[m].name().toLowerCase());
+							String result = runScene(directory, modes[m], seconds, refreshRate);
+							if (result == null) {
+								System.err.println("  Scene failed");
+								continue;
+							}
+							writer.println(parameters.movers + "," + result.replaceFirst(",", "," + modes[m].name().toLowerCase() + ","));
+							writer.flush();
+							String[] values = result.split(",");
+							int frames = Integer.parseInt(values[1]);
+							long dropped = Long.parseLong(values[5]);
+							if (limits[r][m] == 0 && dropped > (frames+dropped)*DROPPED_LIMIT) {
+								limits[r][m] = parameters.movers;
+							}
+						}
+					} finally {
+						try (Stream<Path> paths = Files.walk(directory.toPath())) {
+							paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+						}
+					}
+				}
+			}
+		}
+		System.out.println("Wrote " + results);
+		for (int r=0; r<labelRatios.length; r++) {
+			for (int m=0; m<modes.length; m++) {
+				System.out.println("Label ratio " + labelRatios[r] + ", " + modes[m].name().toLowerCase() + ": "
+						+ (limits[r][m] == 0 ? "refresh rate held for every scene" : "refresh rate not held at " + limits[r][m] + " moving objects"));
+			}
+		}
+	}
+}
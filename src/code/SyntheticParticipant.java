@@ -0,0 +1,322 @@
+package code;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import code.ExperimentModel.FindQuery;
+import code.ExperimentModel.Query;
+import code.ExperimentModel.TextResponseQuery;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.geometry.Bounds;
+import javafx.stage.Stage;
+
+/**
+ * A scripted participant which takes part in an experiment in place of a person, so that the scheduling of events,
+ * click hit-testing and the report writer can be tested under load before an experiment is run with participants.
+ *
+ * The participant presses the button of each dialog, and responds to each query by clicking or typing through the same
+ * event handlers as a person's clicks and key presses. The time taken to respond is drawn from a log-normal distribution,
+ * as human response times roughly are. A given fraction of responses is accurate: clicks land on a moving object and
+ * typed responses are the label of one, while the other clicks land anywhere on the map and the other labels are misspelled.
+ * A given fraction of queries is left unanswered, so that they expire.
+ *
+ * The session clock runs faster than real time, so a whole experiment takes a fraction of its length. Every time in the
+ * results is session time, so the results read as though a person had taken part at normal speed, but the delay between
+ * a response being chosen and its click being handled is also multiplied, by up to a few hundred milliseconds at 100 times real time.
+ *
+ * Run this class with a configuration folder and any parameters, e.g.
+ * "java -cp Tracker.jar code.SyntheticParticipant configs/demo speed=50 accuracy=0.8".
+ */
+public class SyntheticParticipant {
+	
+	/* The participant taking part in the running experiment, or null if the participant is a person */
+	static SyntheticParticipant current;
+	
+	/* Settings of the experiment being run by this JVM */
+	private static File configDirectory;
+	private static Parameters sessionParameters;
+	
+	/* Time taken to read a dialog before pressing its button */
+	private static final long READING_TIME = 2000; // Milliseconds of session time
+	
+	/* Waits for the time taken to respond to each query and dialog */
+	private static final ScheduledThreadPoolExecutor responder = new ScheduledThreadPoolExecutor(1, task -> {
+		Thread thread = new Thread(task, "Synthetic Participant");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	/**
+	 * The behaviour of a synthetic participant. Every parameter has a default, so only
+	 * the ones which matter to a test need to be set.
+	 */
+	public static class Parameters {
+		public long seed = 42;
+		public String participant = "synthetic"; // Subject number under which the results are written
+		public double speed = 50; // Multiple of real time at which the experiment runs
+		public double latencyMedian = 1500; // Median time taken to respond to a query, in milliseconds
+		public double latencySpread = 0.4; // Standard deviation of the logarithm of the response time
+		public double accuracy = 0.9; // Fraction of clicks and typed responses which are on target
+		public double yesRatio = 0.5; // Fraction of yes/no queries answered "yes"
+		public double omissionRate = 0; // Fraction of queries left unanswered
+		
+		/**
+		 * Sets a parameter from its name and a text value, as given on the command line.
+		 * @throws IllegalArgumentException : If there is no parameter with the given name, or the value is not a number.
+		 */
+		public void set(String name, String value) throws IllegalArgumentException {
+			switch (name) {
+				case "seed":
+					seed = Long.parseLong(value);
+					break;
+				case "participant":
+					participant = value;
+					break;
+				case "speed":
+					speed = Double.parseDouble(value);
+					break;
+				case "latencyMedian":
+					latencyMedian = Double.parseDouble(value);
+					break;
+				case "latencySpread":
+					latencySpread = Double.parseDouble(value);
+					break;
+				case "accuracy":
+					accuracy = Double.parseDouble(value);
+					break;
+				case "yesRatio":
+					yesRatio = Double.parseDouble(value);
+					break;
+				case "omissionRate":
+					omissionRate = Double.parseDouble(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown parameter " + name);
+			}
+		}
+		
+		/**
+		 * Checks that the parameters describe a possible participant.
+		 * @throws IllegalArgumentException : If a parameter is out of range.
+		 */
+		void check() throws IllegalArgumentException {
+			if (speed <= 0) throw new IllegalArgumentException("Speed must be greater than 0");
+			if (latencyMedian < 0 || latencySpread < 0) throw new IllegalArgumentException("Response times may not be negative");
+			if (accuracy < 0 || accuracy > 1 || yesRatio < 0 || yesRatio > 1 || omissionRate < 0 || omissionRate > 1) {
+				throw new IllegalArgumentException("Accuracy, yes ratio and omission rate must be between 0 and 1");
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return "seed=" + seed + " participant=" + participant + " speed=" + speed + " latencyMedian=" + latencyMedian
+					+ " latencySpread=" + latencySpread + " accuracy=" + accuracy + " yesRatio=" + yesRatio + " omissionRate=" + omissionRate;
+		}
+	}
+	
+	private final Parameters parameters;
+	/* Used only by the event scheduler thread; each response is drawn from a generator seeded by it */
+	private final Random random;
+	
+	/* Updated by the JavaFX thread */
+	private int clicks = 0, textResponses = 0, binaryResponses = 0;
+	private int expired = 0; // Queries which were hidden before their response was given
+	private long startTime; // System time at which the experiment was started
+	/* Updated by the event scheduler thread */
+	private volatile int omitted = 0;
+	
+	/**
+	 * Creates a synthetic participant.
+	 * @param parameters : The behaviour of the participant.
+	 */
+	SyntheticParticipant(Parameters parameters) {
+		this.parameters = parameters;
+		random = new Random(parameters.seed);
+	}
+	
+	/**
+	 * Chooses whether and when to respond to a query which has just been shown, and gives the response once the
+	 * response time has passed. Called by the event scheduler thread. The response itself is drawn on the JavaFX
+	 * thread from a generator seeded here, so that the session depends only on the seed of the participant.
+	 * @param event : The query.
+	 */
+	void queryShown(GraphicalQueryObject event) {
+		if (random.nextDouble() < parameters.omissionRate) {
+			omitted = omitted+1;
+			return;
+		}
+		long latency = Math.round(parameters.latencyMedian*Math.exp(parameters.latencySpread*random.nextGaussian()));
+		long responseSeed = random.nextLong();
+		responder.schedule(() -> Platform.runLater(() -> respond(event, new Random(responseSeed))), SessionClock.toRealNanos(latency), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Presses the button of a dialog which has just been shown, once it has been read. Called by the JavaFX thread.
+	 * @param dialog : The dialog.
+	 */
+	void dialogShown(GraphicalDialogWindow dialog) {
+		boolean finished = TrackingActivity.loop > TrackingActivity.model.loopCount;
+		responder.schedule(() -> Platform.runLater(() -> {
+			if (finished) {
+				printSummary();
+			} else {
+				startTime = System.nanoTime();
+			}
+			dialog.press();
+		}), SessionClock.toRealNanos(READING_TIME), TimeUnit.NANOSECONDS);
+	}
+	
+	/**
+	 * Responds to a query by clicking or typing, unless it has already been hidden.
+	 * @param draws : The generator from which the response is drawn.
+	 */
+	private void respond(GraphicalQueryObject event, Random draws) {
+		/* Only the active query receives clicks and key presses */
+		if (TrackingActivity.activeQuery != event) {
+			expired++;
+			return;
+		}
+		Query query = event.getQuery();
+		boolean accurate = draws.nextDouble() < parameters.accuracy;
+		Bounds map = (TrackingActivity.map.mapImage == null ? TrackingActivity.map.mapShape : TrackingActivity.map.mapImage).getBoundsInParent();
+		if (query instanceof TextResponseQuery) {
+			GraphicalMovingObject target = chooseObject(true, draws);
+			String label = target == null ? "" : target.label.getText();
+			event.enterText(accurate ? label : misspell(label, draws));
+			textResponses++;
+		} else if (query instanceof FindQuery) {
+			GraphicalMovingObject target = chooseObject(false, draws);
+			double x, y;
+			if (accurate && target != null) {
+				/* Land within the click radius of the object most of the time */
+				double spread = TrackingActivity.getClickRadius()/2;
+				x = target.getCurrentX()+draws.nextGaussian()*spread;
+				y = target.getCurrentY()+draws.nextGaussian()*spread;
+			} else {
+				x = map.getMinX()+draws.nextDouble()*map.getWidth();
+				y = map.getMinY()+draws.nextDouble()*map.getHeight();
+			}
+			/* Clicks outside the map are ignored, so keep every click on it */
+			TrackingActivity.click(Math.max(map.getMinX()+1, Math.min(map.getMaxX()-1, x)), Math.max(map.getMinY()+1, Math.min(map.getMaxY()-1, y)), true);
+			clicks++;
+		} else {
+			TrackingActivity.click(map.getMinX()+map.getWidth()/2, map.getMinY()+map.getHeight()/2, draws.nextDouble() < parameters.yesRatio);
+			binaryResponses++;
+		}
+	}
+	
+	/**
+	 * Returns a randomly chosen moving object, or null if there are none.
+	 * @param labelled : True to choose only among the objects which have labels.
+	 * @param random : The generator from which the choice is drawn.
+	 */
+	private static GraphicalMovingObject chooseObject(boolean labelled, Random random) {
+		GraphicalMovingObject[] objects = TrackingActivity.objects;
+		int count = 0;
+		for (GraphicalMovingObject object : objects) {
+			if (!labelled || object.label != null) {
+				count++;
+			}
+		}
+		if (count == 0) {
+			return null;
+		}
+		int choice = random.nextInt(count);
+		for (GraphicalMovingObject object : objects) {
+			if ((!labelled || object.label != null) && choice-- == 0) {
+				return object;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns a label with one of its characters replaced, or three random letters if it is too short to misspell.
+	 * @param random : The generator from which the misspelling is drawn.
+	 */
+	private static String misspell(String label, Random random) {
+		if (label.length() < 2) {
+			return "" + (char)('A'+random.nextInt(26)) + (char)('A'+random.nextInt(26)) + (char)('A'+random.nextInt(26));
+		}
+		int position = random.nextInt(label.length());
+		char replacement;
+		do {
+			replacement = (char)('A'+random.nextInt(26));
+		} while (replacement == label.charAt(position));
+		return label.substring(0, position) + replacement + label.substring(position+1);
+	}
+	
+	/**
+	 * Prints the number of responses given and how much faster than real time the experiment ran.
+	 */
+	private void printSummary() {
+		double realSeconds = (System.nanoTime()-startTime)/1000000000.0;
+		double sessionSeconds = SessionClock.elapsedMillis()/1000.0;
+		System.out.println("Participant " + parameters.participant + " clicked " + clicks + " times, typed " + textResponses
+				+ " responses and answered " + binaryResponses + " yes/no queries; " + omitted + " queries were left unanswered and "
+				+ expired + " expired before their response was given");
+		System.out.println(String.format("The experiment took %.1f s of session time in %.1f s (%.1f times real time)",
+				sessionSeconds, realSeconds, sessionSeconds/realSeconds));
+	}
+	
+	/**
+	 * Runs one experiment with a synthetic participant.
+	 */
+	public static class SessionDisplay extends Application {
+		
+		/**
+		 * Imports the configuration and shows the experiment, whose dialogs and queries the participant then responds to.
+		 * The program closes once the participant has pressed the button at the end of the experiment.
+		 */
+		@Override
+		public void start(Stage stage) throws Exception {
+			ConfigImporter importer = new ConfigImporter(configDirectory);
+			ExperimentModel model = importer.run();
+			if (!importer.errors.isEmpty()) {
+				System.err.println("The following errors were encountered in the configuration file:");
+				importer.errors.forEach(error -> System.err.println(error));
+				System.exit(1);
+			}
+			if (Monitor.enabled) {
+				try {
+					Monitor.start(Options.monitorPort);
+				} catch (IOException e) {
+					System.err.println("Could not start monitoring on port " + Options.monitorPort + " (" + e.getMessage() + "); continuing without monitoring");
+				}
+			}
+			current = new SyntheticParticipant(sessionParameters);
+			SessionClock.setScale(sessionParameters.speed);
+			ReportWriter.setSession(model.name, sessionParameters.participant);
+			new TrackingActivity(model).start(stage);
+		}
+	}
+	
+	/**
+	 * Runs an experiment with a synthetic participant from the command line, e.g.
+	 * "SyntheticParticipant configs/demo speed=100 latencyMedian=2000 omissionRate=0.1".
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.println("Usage: SyntheticParticipant <configuration folder> [parameter=value ...]");
+			System.err.println("Parameters and their defaults: " + new Parameters());
+			return;
+		}
+		Parameters parameters = new Parameters();
+		for (int i=1; i<args.length; i++) {
+			String[] parameter = args[i].split("=", 2);
+			if (parameter.length != 2) {
+				System.err.println("Parameters must be given as name=value: " + args[i]);
+				System.exit(1);
+			}
+			parameters.set(parameter[0], parameter[1]);
+		}
+		parameters.check();
+		configDirectory = new File(args[0]);
+		sessionParameters = parameters;
+		Application.launch(SessionDisplay.class, args);
+	}
+}
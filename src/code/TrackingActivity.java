@@ -1,11 +1,14 @@
 package code;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URL;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
-import code.ExperimentModel.Query;
 import code.ExperimentModel.MovingObject;
-import code.ExperimentModel.WaypointObject;
+import code.SessionLog.Type;
+import javafx.animation.AnimationTimer;
 import javafx.animation.ParallelTransition;
 import javafx.application.Application;
 import javafx.event.ActionEvent;
@@ -14,17 +17,23 @@ import javafx.geometry.Rectangle2D;
 import javafx.scene.Group;
 import javafx.scene.Scene;
 import javafx.scene.input.KeyCombination;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
 
 /**
  * Responsible for displaying animated map, interruptions & queries and collecting interaction data.
+ * The display is shared by the whole program, so only one experiment can be displayed per process; experiments
+ * are simulated without a display, in parallel, by ExperimentSimulation.
  * @author Graham Home
  *
  */
 public class TrackingActivity extends Application {
 	
+	static ExperimentModel model; // The experiment being displayed
+	static ArrayList<SchedulableEvent> events; // The first scheduled event of each loop
 	private static Stage stage;
 	private static Scene scene;
 	static Group root;
@@ -36,30 +45,81 @@ public class TrackingActivity extends Application {
 	static double mapOffsetY;
 	static double mapHeight;
 	static double mapWidth;
-	static HashMap<WaypointObject, GraphicalStationaryObject> waypoints = new HashMap<>();
-	static HashMap<MovingObject, GraphicalMovingObject> objects = new HashMap<>();
+	static GraphicalStationaryObject[] waypoints; // Indexed by waypoint ID
+	static GraphicalMovingObject[] objects; // Indexed by moving object ID
 	static URL iconFontURL = TrackingActivity.class.getResource("/Font-Awesome-5-Free-Solid-900.otf");
 	static URL textFontURL = TrackingActivity.class.getResource("/segoeui.ttf");
 	static ParallelTransition masterTransition = new ParallelTransition();
-	static HashMap<Query, GraphicalQueryObject> queries = new HashMap<>();
 	static double experimentStartTime;
 	static int loop = 0;
 	static GraphicalQueryObject activeQuery;
+	static SpatialIndex objectIndex;
+	static MoverState moverState;
+	static double indexedTravelTime; // Time along their paths at which the objects were last placed and indexed, in milliseconds
+	static TrajectoryRecorder trajectoryRecorder;
+	static MouseTelemetry mouseTelemetry;
+	static ConflictDetector conflictDetector;
+	/* Completes when the display has been built */
+	private static CompletableFuture<Void> construction;
+	
+	/* Performs work which must be repeated once for every frame drawn */
+	static AnimationTimer frameTimer = new AnimationTimer() {
+		@Override
+		public void handle(long now) {
+			Monitor.recordFrame(now);
+			placeObjects(masterTransition.getCurrentTime().toMillis());
+			if (trajectoryRecorder != null) {
+				trajectoryRecorder.sample(now);
+			}
+			if (conflictDetector != null) {
+				conflictDetector.update();
+			}
+		}
+	};
 	
 	/**
-	 * Creates all elements of the object tracking display.
+	 * Creates an activity which displays an experiment.
+	 * @param experiment : The experiment to display.
+	 * @throws IllegalStateException : If a different experiment has already been displayed in this process.
 	 */
-	@Override
-	public void start(Stage primaryStage) throws Exception {
-		// Set the stage
-		stage = primaryStage;
-		stage.hide();
-		stage.setFullScreenExitKeyCombination(KeyCombination.NO_MATCH);
-		stage.setFullScreen(true);
-		root = new Group();
-		scene = new Scene(root, stage.getWidth(), stage.getHeight(), Color.BLACK);
-		stage.setScene(scene);
+	public TrackingActivity(ExperimentModel experiment) {
+		if (model != null && model != experiment) {
+			throw new IllegalStateException("Only one experiment can be displayed per process; run other experiments in separate processes");
+		}
+		model = experiment;
+	}
+	
+	/**
+	 * Starts building all elements of the object tracking display on a background thread,
+	 * so that the display is ready, or nearly ready, when the experiment is started.
+	 * The elements are not part of a scene until the display is shown, so they may be created off the JavaFX thread.
+	 * Must be called on the JavaFX thread.
+	 */
+	public void prepare() {
 		bounds = Screen.getPrimary().getBounds();
+		construction = CompletableFuture.runAsync(() -> buildDisplay(), task -> {
+			Thread builder = new Thread(task, "Display Builder");
+			builder.setDaemon(true);
+			builder.start();
+		});
+	}
+	
+	/**
+	 * Builds the display on the calling thread for a screen of a given size, without showing it,
+	 * so that a session recorded on that screen can be replayed.
+	 * @param width : The width of the screen, in pixels.
+	 * @param height : The height of the screen, in pixels.
+	 */
+	void buildHidden(double width, double height) {
+		bounds = new Rectangle2D(0, 0, width, height);
+		buildDisplay();
+	}
+	
+	/**
+	 * Creates the map, the waypoints, the moving objects and their transitions, and the scheduled events.
+	 */
+	private void buildDisplay() {
+		root = new Group();
 		stageWidth = bounds.getWidth();
 		stageHeight = bounds.getHeight();
 		// Setup map
@@ -68,12 +128,86 @@ public class TrackingActivity extends Application {
 		map.drawWaypoints();
 		map.drawConnectors();
 		map.drawObjects();
+		events = map.scheduleEvents();
 		/* Move map frame to front so it will hide all objects which are outside map boundaries */
 		map.frame.toFront();
+		// Index waypoint & object positions for click hit-testing
+		indexObjects();
+	}
+	
+	/**
+	 * Shows the object tracking display, waiting for it to be built if necessary.
+	 */
+	@Override
+	public void start(Stage primaryStage) throws Exception {
+		showDisplay(primaryStage);
 		// Show intro text
 		showIntroTextScreen();
 	}
 	
+	/**
+	 * Places the object tracking display on the stage, waiting for it to be built if necessary,
+	 * and starts the work done for every frame. The stage itself is shown by the caller.
+	 * @param primaryStage : The stage to show the display on.
+	 */
+	void showDisplay(Stage primaryStage) {
+		if (construction == null) {
+			prepare();
+		}
+		construction.join();
+		// Set the stage
+		stage = primaryStage;
+		stage.hide();
+		stage.setFullScreenExitKeyCombination(KeyCombination.NO_MATCH);
+		stage.setFullScreen(true);
+		if (scene == null) {
+			scene = new Scene(root, stage.getWidth(), stage.getHeight(), Color.BLACK);
+		}
+		stage.setScene(scene);
+		// Move the objects at the speed of the session clock
+		masterTransition.setRate(SessionClock.getScale());
+		frameTimer.start();
+	}
+	
+	/**
+	 * Returns the display to its state before the experiment was started, so that the experiment can be
+	 * run again for the next participant without rebuilding the display.
+	 */
+	static void resetSession() {
+		frameTimer.stop();
+		SchedulableEvent.cancelScheduled();
+		if (activeQuery != null) {
+			activeQuery.hide();
+		}
+		masterTransition.stop();
+		masterTransition.setOnFinished(null);
+		stopRecording();
+		loop = 0;
+		moverState.reset();
+		indexedTravelTime = 0;
+		for (SchedulableEvent first : events) {
+			for (SchedulableEvent event = first; event != null; event = event.next) {
+				event.reset();
+			}
+		}
+		objectIndex.refresh();
+	}
+	
+	/**
+	 * Stops recording the positions of the moving objects and the mouse pointer, if they are being recorded,
+	 * and waits for their files to be written.
+	 */
+	static void stopRecording() {
+		if (trajectoryRecorder != null) {
+			trajectoryRecorder.stop();
+			trajectoryRecorder = null;
+		}
+		if (mouseTelemetry != null) {
+			mouseTelemetry.stop();
+			mouseTelemetry = null;
+		}
+	}
+	
 	/**
 	 * Determines map dimensions based on screen size.
 	 */
@@ -89,71 +223,174 @@ public class TrackingActivity extends Application {
 		}
 	}
 	
+	/**
+	 * Places the moving objects at their positions at a given time along their paths, and indexes them for hit-testing.
+	 * @param travelTime : The time since the objects started moving in the current loop, in milliseconds.
+	 */
+	static void placeObjects(double travelTime) {
+		indexedTravelTime = travelTime;
+		moverState.update(travelTime);
+		objectIndex.refresh();
+	}
+	
+	/**
+	 * Clicks the display at a point. Must be called on the JavaFX thread.
+	 * @param x : The X coordinate of the point, in pixels.
+	 * @param y : The Y coordinate of the point, in pixels.
+	 * @param primary : True to click the left mouse button, false to click the right.
+	 */
+	static void click(double x, double y, boolean primary) {
+		root.fireEvent(new MouseEvent(MouseEvent.MOUSE_CLICKED, x, y, x, y, primary ? MouseButton.PRIMARY : MouseButton.SECONDARY, 1,
+				false, false, false, false, false, false, false, true, false, true, null));
+	}
+	
+	/**
+	 * Returns the radius of the area around a click in which objects are considered to have been hit, in pixels.
+	 */
+	static double getClickRadius() {
+		return Math.sqrt(((model.clickRadius/100)*mapHeight*mapWidth)/Math.PI);
+	}
+	
+	/**
+	 * Adds all waypoints and moving objects to the spatial index used for click hit-testing,
+	 * which is refreshed along with the map positions of the moving objects on every frame.
+	 */
+	private void indexObjects() {
+		/* Moving objects are indexed at the positions given by their map positions, which follow their animations */
+		float[] startX = new float[objects.length], startY = new float[objects.length];
+		for (int i=0; i<objects.length; i++) {
+			startX[i] = objects[i].getAnimationStartX();
+			startY[i] = objects[i].getAnimationStartY();
+		}
+		moverState = new MoverState(model.objectsById.toArray(new MovingObject[0]), startX, startY, (mapWidth/model.x)/(mapHeight/model.y));
+		objectIndex = new SpatialIndex(stageWidth, stageHeight, getClickRadius());
+		for (GraphicalStationaryObject waypoint : waypoints) {
+			objectIndex.add(waypoint);
+		}
+		for (GraphicalMovingObject object : objects) {
+			objectIndex.add(object);
+		}
+		objectIndex.refresh();
+	}
+	
+	/**
+	 * Starts recording the positions of the moving objects, if trajectory recording is enabled.
+	 */
+	private void startTrajectoryRecording() {
+		if (Options.trajectoryRate > 0) {
+			try {
+				trajectoryRecorder = new TrajectoryRecorder(new File(ReportWriter.getReportFileName("-trajectory.bin")), Options.trajectoryRate);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Starts recording the path of the mouse pointer, if mouse telemetry is enabled.
+	 */
+	private void startMouseTelemetry() {
+		if (Options.mouseTelemetry) {
+			try {
+				mouseTelemetry = new MouseTelemetry(new File(ReportWriter.getReportFileName("-mouse.bin")), scene, Options.mouseDistance, Options.mouseInterval);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Reports the start of the current loop, starts the object animations and executes the loop's first scheduled event.
+	 */
+	static void startLoop() {
+		ReportWriter.reportLoop(loop+1);
+		// Start object animations
+		masterTransition.play();
+		// Execute the first scheduled event
+		SchedulableEvent event = events.get(loop);
+		if (event != null) {
+			if (event instanceof GraphicalMaskObject) {
+				// Mask objects have their own execute() method which overrides the default
+				((GraphicalMaskObject)event).execute();
+			} else {
+				event.execute();
+			}
+		}
+	}
+	
+	/**
+	 * Ends the current loop when the object animations complete, and starts the next loop
+	 * or ends the experiment if the last loop has been completed.
+	 * @return : True if the experiment has ended.
+	 */
+	static boolean finishLoop() {
+		masterTransition.stop();
+		SessionLog.current.record(Type.LOOP_FINISHED, false, loop, 0, null);
+		if (++loop > model.loopCount) {
+			// Maximum number of loops reached
+			// End experiment
+			if (conflictDetector != null) {
+				conflictDetector.stop();
+				conflictDetector = null;
+			}
+			ReportWriter.reportStatus(false);
+			stopRecording();
+			return true;
+		}
+		// Start next loop
+		if (activeQuery != null) {
+			activeQuery.hide();
+		}
+		startLoop();
+		return false;
+	}
+	
 	/**
 	 * Shows a dialog window with the specified instructional text. 
 	 * Starts the experiment when the button in the dialog box is pressed.
 	 */
 	private void showIntroTextScreen() {
 		/* Create dialog */
-		GraphicalDialogWindow startWindow = new GraphicalDialogWindow(ExperimentModel.introduction, "Start");
+		GraphicalDialogWindow startWindow = new GraphicalDialogWindow(model.introduction, "Start");
 		/* Set dialog action to start the experiment */
 		startWindow.setAction((e) -> {
 			// Start experiment
 			startWindow.hide();
 			experimentStartTime = System.currentTimeMillis();
 			ReportWriter.reportStatus(true);
-			ReportWriter.reportLoop(loop+1);
-			// Start object animations
-			masterTransition.play();
-			// Execute the first scheduled event
-			SchedulableEvent event = ExperimentModel.events.get(loop);
-			if (event != null) {
-				if (event instanceof GraphicalMaskObject) {
-					// Mask objects have their own execute() method which overrides the default
-					((GraphicalMaskObject)event).execute();
-				} else {
-					event.execute();
+			if (Options.streamReport) {
+				try {
+					ReportWriter.startStreaming(ReportWriter.getReportFile());
+					SessionLog.current.startStreaming(new File(ReportWriter.getReportFileName("-session.log")));
+				} catch (IOException e1) {
+					e1.printStackTrace();
 				}
 			}
+			/* The size of the screen is recorded so that clicks can be replayed on a display of the same size */
+			SessionLog.current.record(Type.START_PRESSED, false, stageWidth, stageHeight, null);
+			startTrajectoryRecording();
+			startMouseTelemetry();
+			if (model.separation > 0) {
+				conflictDetector = new ConflictDetector(moverState, model.x, model.y, model.separation, ReportWriter::reportConflict);
+			}
+			startLoop();
 			// Set action to be executed when object animations complete
 			masterTransition.setOnFinished(new EventHandler<ActionEvent>() {
 				@Override
 				public void handle(ActionEvent event) {
-					masterTransition.stop();
-					if (++loop > ExperimentModel.loopCount) {
-						// Maximum number of loops reached
-						// End experiment
-						ReportWriter.reportStatus(false);
-						GraphicalDialogWindow endWindow = new GraphicalDialogWindow("The experiment has ended.", "Exit");
+					if (finishLoop()) {
+						GraphicalDialogWindow endWindow = new GraphicalDialogWindow("The experiment has ended.", Options.sessionLoop ? "Next Participant" : "Exit");
 						endWindow.setAction((e2) -> {
 							try {
-								ConfigImportActivity.exit();
+								endWindow.hide();
+								ConfigImportActivity.endSession();
 							} catch (Exception e) {
 								e.printStackTrace();
 							}
-									
+							
 						});
 						endWindow.show();
-					} else {
-						// Start next loop
-						if (activeQuery != null) {
-							activeQuery.hide();
-						}
-						ReportWriter.reportLoop(loop+1);
-						// Restart object animations
-						masterTransition.play();
-						// Execute the first scheduled event
-						SchedulableEvent nextEvent = ExperimentModel.events.get(loop);
-						if (nextEvent != null) {
-							if (nextEvent instanceof GraphicalMaskObject) {
-								// Mask objects have their own execute() method which overrides the default
-								((GraphicalMaskObject)nextEvent).execute();
-							} else {
-								nextEvent.execute();
-							}
-						}
 					}
-					
 				}
 			});
 			
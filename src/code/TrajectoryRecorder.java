@@ -0,0 +1,162 @@
+package code;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Records the position of every moving object at a fixed rate while the experiment runs, and writes
+ * the positions to a compact binary file. Positions are sampled on the JavaFX thread into preallocated
+ * buffers, which are written to disk by a background thread (BufferedChannelWriter). The binary file can be
+ * converted to CSV by running this class with the path of the file as its argument.
+ *
+ * File format: a header containing the number of objects followed by the name and label of each object,
+ * then one fixed-width record per object per sample containing the elapsed time in milliseconds,
+ * the index of the object in the header, its on-screen position in pixels and its map position in nautical miles.
+ */
+public class TrajectoryRecorder {
+	
+	static final int MAGIC = 0x54524A31; // "TRJ1"
+	static final int RECORD_SIZE = 24;
+	private static final int BUFFER_COUNT = 4;
+	private static final int BUFFER_SIZE = 1 << 20;
+	
+	private GraphicalMovingObject[] objects;
+	private MoverState mapPositions;
+	private long sampleInterval; // Nanoseconds
+	/* Time at which the last sample was due. Samples are due a whole number of intervals after the first one, so that
+	 * frames which arrive slightly early are not skipped when the sampling rate is the frame rate */
+	private long lastSampleTime;
+	private boolean sampled = false;
+	
+	private BufferedChannelWriter output;
+	
+	/**
+	 * Creates a recorder for all moving objects on the map and writes the header of the trajectory file.
+	 * @param file : The file to record trajectories to.
+	 * @param rate : The number of samples to record per second.
+	 * @throws IOException : If the trajectory file cannot be written.
+	 */
+	public TrajectoryRecorder(File file, double rate) throws IOException {
+		/* Objects are recorded in the order of their IDs, in which their map positions are also kept */
+		objects = TrackingActivity.objects;
+		mapPositions = TrackingActivity.moverState;
+		sampleInterval = (long)(1000000000/rate);
+		/* Each buffer holds a whole number of samples */
+		int sampleSize = Math.max(1, objects.length)*RECORD_SIZE;
+		int bufferSize = Math.max(1, BUFFER_SIZE/sampleSize)*sampleSize;
+		output = new BufferedChannelWriter(file, buildHeader(), BUFFER_COUNT, bufferSize, "Trajectory Writer");
+	}
+	
+	/**
+	 * Creates the file header, which identifies each recorded object.
+	 */
+	private byte[] buildHeader() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(MAGIC);
+		header.writeInt(objects.length);
+		for (GraphicalMovingObject object : objects) {
+			header.writeUTF(((ExperimentModel.MovingObject)object.baseIcon).name);
+			header.writeUTF(object.label != null ? object.label.getText() : "No label");
+		}
+		header.close();
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Records the positions of all moving objects if the sampling interval has passed since the last sample.
+	 * Must be called on the JavaFX thread, once per frame.
+	 * @param now : The timestamp of the current frame, in nanoseconds.
+	 */
+	public void sample(long now) {
+		if (sampled && now-lastSampleTime < sampleInterval) {
+			return;
+		}
+		/* Start again from this frame if frames have not arrived for more than an interval */
+		lastSampleTime = !sampled || now-lastSampleTime >= 2*sampleInterval ? now : lastSampleTime+sampleInterval;
+		sampled = true;
+		ByteBuffer buffer = output.getBuffer();
+		if (buffer == null) {
+			return;
+		}
+		int time = (int)SessionClock.elapsedMillis();
+		for (int i=0; i<objects.length; i++) {
+			double x = objects[i].getCurrentX();
+			double y = objects[i].getCurrentY();
+			buffer.putInt(time)
+			.putInt(i)
+			.putFloat((float)x)
+			.putFloat((float)y)
+			.putFloat(mapPositions.getX(i))
+			.putFloat(mapPositions.getY(i));
+		}
+		output.finishRecord(objects.length*RECORD_SIZE);
+	}
+	
+	/**
+	 * Writes any remaining samples to disk and closes the trajectory file.
+	 * Waits for the file to be closed, so that it is complete if the program then exits.
+	 */
+	public void stop() {
+		int droppedSamples = output.stop();
+		if (droppedSamples > 0) {
+			System.err.println(droppedSamples + " trajectory samples were dropped because the disk could not keep up");
+		}
+	}
+	
+	/**
+	 * Converts a binary trajectory file to CSV.
+	 * @param trajectoryFile : The binary file written by a TrajectoryRecorder.
+	 * @param csvFile : The CSV file to be written.
+	 * @throws IOException : If either file cannot be read or written, or the trajectory file is not valid.
+	 */
+	public static void exportCsv(File trajectoryFile, File csvFile) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(trajectoryFile)));
+				PrintWriter output = new PrintWriter(csvFile, "UTF-8")) {
+			if (input.readInt() != MAGIC) {
+				throw new IOException(trajectoryFile.getName() + " is not a trajectory file");
+			}
+			ArrayList<String> names = new ArrayList<>();
+			ArrayList<String> labels = new ArrayList<>();
+			int objectCount = input.readInt();
+			for (int i=0; i<objectCount; i++) {
+				names.add(input.readUTF());
+				labels.add(input.readUTF().replaceAll(",", ""));
+			}
+			output.write("Time (ms),Object Name,Object Label,Screen X (pixels),Screen Y (pixels),X Value in Nautical Miles,Y Value in Nautical Miles" + System.lineSeparator());
+			while (true) {
+				int time;
+				try {
+					time = input.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				int object = input.readInt();
+				output.write(time + "," + names.get(object) + "," + labels.get(object) + "," +
+						input.readFloat() + "," + input.readFloat() + "," +
+						input.readFloat() + "," + input.readFloat() + System.lineSeparator());
+			}
+		}
+	}
+	
+	/**
+	 * Converts the binary trajectory files named on the command line to CSV files alongside them.
+	 * @param args : The paths of the trajectory files to convert.
+	 * @throws IOException : If a file cannot be converted.
+	 */
+	public static void main(String[] args) throws IOException {
+		for (String path : args) {
+			File trajectoryFile = new File(path);
+			exportCsv(trajectoryFile, new File(path.replaceAll("\\.bin$", "") + ".csv"));
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package code;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import code.SessionLog.Entry;
+
+public class ColumnarLogTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * A log written in one piece must load with the events it was given, in report order.
+	 */
+	@Test
+	public void savedLogLoadsInReportOrder() throws IOException {
+		SessionLog expected = ReportEvents.generate(1, 3000);
+		ColumnarLog log = build(expected);
+		File file = folder.newFile("events.tcl");
+		log.save(file);
+		assertLoads(expected, file);
+	}
+	
+	/**
+	 * A streamed log must load with the events of all of its chunks, including a partial last chunk, in report order.
+	 */
+	@Test
+	public void streamedLogLoadsAcrossChunks() throws IOException {
+		SessionLog expected = ReportEvents.generate(2, 3*4096+17);
+		File file = folder.newFile("streamed.tcl");
+		ColumnarLog log = new ColumnarLog();
+		log.experimentName = expected.experimentName;
+		log.participantId = expected.participantId;
+		log.startStreaming(file);
+		add(log, expected);
+		log.save(file);
+		assertLoads(expected, file);
+	}
+	
+	private static ColumnarLog build(SessionLog events) {
+		ColumnarLog log = new ColumnarLog();
+		log.experimentName = events.experimentName;
+		log.participantId = events.participantId;
+		add(log, events);
+		return log;
+	}
+	
+	private static void add(ColumnarLog log, SessionLog events) {
+		for (Entry entry : events.entries) {
+			String[] texts = entry.text == null ? new String[] {null, null} : entry.text.split("\n", 2);
+			log.add(entry.time, entry.type, entry.flag, entry.a, entry.b, texts[0], texts.length > 1 ? texts[1] : null);
+		}
+	}
+	
+	private static void assertLoads(SessionLog expected, File file) throws IOException {
+		SessionLog actual = ColumnarLog.load(file).toSessionLog();
+		assertEquals(expected.experimentName, actual.experimentName);
+		assertEquals(expected.participantId, actual.participantId);
+		ReportEvents.assertSameEntries(expected.entries, actual.entries);
+	}
+}
@@ -0,0 +1,54 @@
+package code;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import code.SessionLog.Entry;
+
+public class CompressedReportTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * A delta-encoded report must convert to exactly the report written from the same events.
+	 */
+	@Test
+	public void decompressReproducesReport() throws IOException, InterruptedException {
+		for (long seed=1; seed<=5; seed++) {
+			SessionLog log = ReportEvents.generate(seed, 20000);
+			File expected = folder.newFile("expected" + seed + ".csv");
+			SessionReplay.replay(log, 0);
+			ReportWriter.writeReport(expected);
+			
+			File encoded = folder.newFile("report" + seed + ".dlt");
+			CompressedReport report = new CompressedReport();
+			try (OutputStream output = new FileOutputStream(encoded)) {
+				report.writeHeader(output);
+				for (Entry entry : log.entries) {
+					String[] texts = entry.text == null ? new String[] {null, null} : entry.text.split("\n", 2);
+					report.add(entry.time, entry.type, entry.flag, entry.a, entry.b, texts[0], texts.length > 1 ? texts[1] : null);
+				}
+				report.writeTo(output);
+			}
+			File actual = folder.newFile("actual" + seed + ".csv");
+			CompressedReport.decompress(encoded, actual);
+			
+			byte[] expectedBytes = Files.readAllBytes(expected.toPath());
+			String expectedText = new String(expectedBytes, StandardCharsets.UTF_8);
+			assertTrue(expectedText.contains("-0.000") && expectedText.contains("-1.063") && expectedText.contains("1.001"));
+			assertArrayEquals("Seed " + seed, expectedBytes, Files.readAllBytes(actual.toPath()));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package code;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MouseTelemetryTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Records must export with their positions accumulated from the changes, including negative changes and long
+	 * intervals, and with numbers formatted the same in every locale.
+	 */
+	@Test
+	public void exportDecodesRecords() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(MouseTelemetry.MAGIC);
+		/* Map at (100, 50) on screen, 800 x 400 pixels, showing 80 x 40 nautical miles */
+		for (double value : new double[] {100, 50, 800, 400, 80, 40}) {
+			header.writeDouble(value);
+		}
+		File file = folder.newFile("mouse.bin");
+		BufferedChannelWriter writer = new BufferedChannelWriter(file, bytes.toByteArray(), 2, 1 << 12, "Test Writer");
+		long[][] records = {
+				{0, MouseTelemetry.PRESS, 1234, 567},
+				{16667, MouseTelemetry.MOVE, -234, -592},
+				{5000000, MouseTelemetry.DRAG, 1, 0},
+				{1L << 40, MouseTelemetry.RELEASE, 0, 0}};
+		for (long[] record : records) {
+			ByteBuffer buffer = writer.getBuffer();
+			MouseTelemetry.putRecord(buffer, record[0], (int)record[1], record[2], record[3]);
+			writer.finishRecord(MouseTelemetry.MAX_RECORD_SIZE);
+		}
+		assertEquals(0, writer.stop());
+		
+		Locale defaultLocale = Locale.getDefault();
+		Locale.setDefault(Locale.GERMANY);
+		File csv = folder.newFile("mouse.csv");
+		try {
+			MouseTelemetry.exportCsv(file, csv);
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+		assertEquals(Arrays.asList(
+				"Time (ms),Event,Screen X (pixels),Screen Y (pixels),X Value in Nautical Miles,Y Value in Nautical Miles",
+				"0.000,Press,123.4,56.7,2.340,0.670",
+				"16.667,Move,100.0,-2.5,0.000,-5.250",
+				"5016.667,Drag,100.1,-2.5,0.010,-5.250",
+				"1099516644.443,Release,100.1,-2.5,0.010,-5.250"),
+				Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8));
+	}
+}
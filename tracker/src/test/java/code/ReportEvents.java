@@ -0,0 +1,128 @@
+package code;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import code.SessionLog.Entry;
+import code.SessionLog.Type;
+
+/**
+ * Generates streams of report events for testing the formats in which reports are stored.
+ */
+class ReportEvents {
+	
+	/* Numbers which lie halfway between two thousandths, or which round to zero, in the report */
+	private static final double[] TIES = {0.0625, -0.0625, 1.0625, -1.0625, 1.0005, -1.0005, 2.0015, -2.0015,
+			0.0005, -0.0005, -0.0004, -0.0, 0.0, 1234.5675, -1234.5675, 0.1235, -0.1235};
+	private static final String[] TEXTS = {"Where is the aircraft?", "Label, with commas", "Größe ✈ 飛行機", "", "\"Quoted\""};
+	private static final String[] LABELS = {"AC123", "BA 42", "Ünïcode", "X"};
+	/* Report events, which are all of the types the report stores */
+	private static final Type[] TYPES = {Type.LOOP, Type.MASK, Type.IDENTITY_MASK, Type.QUERY, Type.FREEZE, Type.TEXT_ENTRY,
+			Type.CLICK, Type.BINARY_RESPONSE, Type.OBJECT_HIT, Type.IDENTITY_VIEWED, Type.CONFLICT};
+	
+	/**
+	 * Generates a session log of report events which starts with the start of the session. Events are mostly
+	 * in order of time, but some go back in time, as events reported by different threads may. Click coordinates
+	 * are floats, as they are in the report.
+	 * @param seed : The seed of the random numbers which choose the events.
+	 * @param count : The number of events to generate.
+	 */
+	static SessionLog generate(long seed, int count) {
+		Random random = new Random(seed);
+		SessionLog log = new SessionLog();
+		log.recording = false;
+		log.experimentName = "Experiment, " + seed;
+		log.participantId = "Participant ✈";
+		log.entries.add(entry(0, Type.STATUS, true, 0, 0, null));
+		long time = 0;
+		int loop = 0;
+		for (int i=1; i<count; i++) {
+			if (random.nextInt(10) == 0) {
+				time = Math.max(0, time-random.nextInt(2000000));
+			} else {
+				time += random.nextInt(50000000);
+			}
+			Type type = TYPES[random.nextInt(TYPES.length)];
+			boolean flag = random.nextBoolean();
+			switch (type) {
+				case LOOP:
+					log.entries.add(entry(time, type, false, ++loop, 0, null));
+					break;
+				case MASK:
+					log.entries.add(entry(time, type, flag, 0, 0, "mask" + random.nextInt(5) + ".png"));
+					break;
+				case QUERY:
+					log.entries.add(entry(time, type, flag, random.nextInt(3), 0, pick(random, TEXTS)));
+					break;
+				case TEXT_ENTRY:
+					log.entries.add(entry(time, type, false, 0, 0, pick(random, TEXTS)));
+					break;
+				case CLICK:
+					log.entries.add(entry(time, type, false, (float)number(random), (float)number(random), null));
+					break;
+				case OBJECT_HIT:
+					log.entries.add(entry(time, type, false, number(random), 0, pick(random, LABELS)));
+					break;
+				case IDENTITY_VIEWED:
+					log.entries.add(entry(time, type, false, 0, 0, pick(random, LABELS)));
+					break;
+				case CONFLICT:
+					log.entries.add(entry(time, type, flag, number(random), 0, pick(random, LABELS) + "\n" + pick(random, LABELS)));
+					break;
+				default:
+					log.entries.add(entry(time, type, flag, 0, 0, null));
+					break;
+			}
+		}
+		return log;
+	}
+	
+	/**
+	 * Returns either a halfway or zero number or a random number with up to 6 decimal places.
+	 */
+	private static double number(Random random) {
+		switch (random.nextInt(3)) {
+			case 0:
+				return TIES[random.nextInt(TIES.length)];
+			case 1:
+				/* Halfway between two random thousandths */
+				return (random.nextInt(2000001)-1000000+0.5)/1000;
+			default:
+				return (random.nextInt(2000000001)-1000000000)/1000000.0;
+		}
+	}
+	
+	private static String pick(Random random, String[] texts) {
+		return texts[random.nextInt(texts.length)];
+	}
+	
+	private static Entry entry(long time, Type type, boolean flag, double a, double b, String text) {
+		Entry entry = new Entry();
+		entry.time = time;
+		entry.type = type;
+		entry.flag = flag;
+		entry.a = a;
+		entry.b = b;
+		entry.text = text;
+		return entry;
+	}
+	
+	/**
+	 * Asserts that two lists of entries have the same times, types and values.
+	 */
+	static void assertSameEntries(List<Entry> expected, List<Entry> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i=0; i<expected.size(); i++) {
+			Entry e = expected.get(i), a = actual.get(i);
+			String message = "Entry " + i + " (" + e.type + ")";
+			assertEquals(message, e.time, a.time);
+			assertEquals(message, e.type, a.type);
+			assertEquals(message, e.flag, a.flag);
+			assertEquals(message, Double.doubleToLongBits(e.a), Double.doubleToLongBits(a.a));
+			assertEquals(message, Double.doubleToLongBits(e.b), Double.doubleToLongBits(a.b));
+			assertEquals(message, e.text == null ? "" : e.text, a.text == null ? "" : a.text);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package code;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TrajectoryRecorderTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Samples must export with the name and label of their object, with commas removed from labels.
+	 */
+	@Test
+	public void exportDecodesSamples() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+		header.writeInt(TrajectoryRecorder.MAGIC);
+		header.writeInt(2);
+		header.writeUTF("AC1");
+		header.writeUTF("Label, one");
+		header.writeUTF("AC2 ✈");
+		header.writeUTF("No label");
+		File file = folder.newFile("trajectory.bin");
+		BufferedChannelWriter writer = new BufferedChannelWriter(file, bytes.toByteArray(), 2, 1 << 12, "Test Writer");
+		float[][] samples = {
+				{0, 0, 10.5f, -20.25f, 1.5f, -2f},
+				{0, 1, 300f, 400.125f, 30f, 40.0125f},
+				{16, 0, 11f, -19.75f, 1.55f, -1.975f},
+				{16, 1, 299.5f, 400f, 29.95f, 40f}};
+		for (float[] sample : samples) {
+			ByteBuffer buffer = writer.getBuffer();
+			buffer.putInt((int)sample[0]).putInt((int)sample[1])
+			.putFloat(sample[2]).putFloat(sample[3]).putFloat(sample[4]).putFloat(sample[5]);
+			writer.finishRecord(TrajectoryRecorder.RECORD_SIZE);
+		}
+		assertEquals(0, writer.stop());
+		
+		File csv = folder.newFile("trajectory.csv");
+		TrajectoryRecorder.exportCsv(file, csv);
+		assertEquals(Arrays.asList(
+				"Time (ms),Object Name,Object Label,Screen X (pixels),Screen Y (pixels),X Value in Nautical Miles,Y Value in Nautical Miles",
+				"0,AC1,Label one,10.5,-20.25,1.5,-2.0",
+				"0,AC2 ✈,No label,300.0,400.125,30.0,40.0125",
+				"16,AC1,Label one,11.0,-19.75,1.55,-1.975",
+				"16,AC2 ✈,No label,299.5,400.0,29.95,40.0"),
+				Files.readAllLines(csv.toPath(), StandardCharsets.UTF_8));
+	}
+}